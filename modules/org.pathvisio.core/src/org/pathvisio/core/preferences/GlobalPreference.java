@@ -94,6 +94,31 @@ public enum GlobalPreference implements Preference {
 
 	MAX_NR_CITATIONS("" + 5),
 
+	// Memory budget in MB for cached tiles of the pathway view, 0 to disable
+	TILE_CACHE_SIZE("" + 64),
+
+	// Whether to draw the pathway on a separate thread, replaces the tile cache
+	BACKGROUND_RENDERING(Boolean.toString(false)),
+
+	// Whether to show a scaled snapshot while zooming with the mouse wheel, and
+	// draw the pathway at the new zoom factor only when the wheel stops
+	ZOOM_PREVIEW(Boolean.toString(true)),
+
+	// Level of detail thresholds, in pixels on screen. Smaller elements are drawn
+	// as plain rectangles and lines, smaller text is drawn as bars, and
+	// citations, anchors and states on smaller elements are not drawn at all.
+	LOD_SHAPE_SIZE("" + 6), LOD_TEXT_SIZE("" + 5), LOD_DECORATION_SIZE("" + 24),
+
+	// Pathways with more elements than this get their views created only when
+	// they are on screen or needed otherwise, 0 to disable. At most
+	// VIRTUAL_BUDGET of these views are kept, the least recently used ones are
+	// dropped again when they are off screen.
+	VIRTUAL_THRESHOLD("" + 20000), VIRTUAL_BUDGET("" + 10000),
+
+	// Memory budget in MB for the undo history. The oldest actions are dropped
+	// when the history gets larger, the last action is always kept.
+	UNDO_HISTORY_SIZE("" + 32),
+
 	// Whether to convert text to paths in SVG export
 	// Default to false, better performance in SVG renderers
 	SVG_TEXT_AS_PATH("" + false);
@@ -23,6 +23,7 @@
 import java.awt.geom.Rectangle2D;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -70,24 +71,25 @@ public void dispose() {
 	}
 
 	public void export(BatikImageExporter exporter, File outputFile) throws ConverterException {
-		vPathway.addVPathwayListener(this);
+		vPathway.addVPathwayListener(this, EnumSet.of(VPathwayModelEventType.ELEMENTS_DRAWN));
 		doHighlight();
 		exporter.doExport(outputFile, vPathway);
 	}
 
 	public void vPathwayModelEvent(VPathwayModelEvent e) {
-		if (e.getType() == VPathwayModelEventType.ELEMENT_DRAWN) {
-			VElement vpwe = e.getAffectedElement();
-			if (vpwe instanceof VPathwayObject) {
-				PathwayObject pwe = ((VPathwayObject) vpwe).getPathwayObject();
-				List<Color> elmColors = colors.get(pwe);
-				if (elmColors != null && elmColors.size() > 0) {
-					Logger.log.info("Coloring " + pwe + " with " + elmColors);
-					if (pwe.getClass() == DataNode.class) {
-						doColor(e.getGraphics2D(), (VPathwayObject) vpwe, elmColors);
-						drawLabel(e.getGraphics2D(), (VPathwayObject) vpwe);
-					} else if (pwe.getClass() == Group.class) {
-						doColor(e.getGraphics2D(), (VPathwayObject) vpwe, elmColors);
+		if (e.getType() == VPathwayModelEventType.ELEMENTS_DRAWN) {
+			for (VElement vpwe : e.getAffectedElements()) {
+				if (vpwe instanceof VPathwayObject) {
+					PathwayObject pwe = ((VPathwayObject) vpwe).getPathwayObject();
+					List<Color> elmColors = colors.get(pwe);
+					if (elmColors != null && elmColors.size() > 0) {
+						Logger.log.info("Coloring " + pwe + " with " + elmColors);
+						if (pwe.getClass() == DataNode.class) {
+							doColor(e.getGraphics2D(), (VPathwayObject) vpwe, elmColors);
+							drawLabel(e.getGraphics2D(), (VPathwayObject) vpwe);
+						} else if (pwe.getClass() == Group.class) {
+							doColor(e.getGraphics2D(), (VPathwayObject) vpwe, elmColors);
+						}
 					}
 				}
 			}
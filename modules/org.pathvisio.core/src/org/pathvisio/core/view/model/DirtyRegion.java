@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2022 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.view.model;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accumulates the dirty rectangles reported by {@link VElement#markDirty()}
+ * between two repaints, so that a {@link VPathwayModelWrapper} can repaint them
+ * once per frame instead of once per rectangle.
+ * <p>
+ * Rectangles that overlap, or lie so close together that their union is not
+ * much larger than the two of them, are merged. When more than
+ * {@link #MAX_RECTS} separate rectangles remain, they are all merged into their
+ * bounding box.
+ */
+public class DirtyRegion {
+	/** maximum number of separate rectangles, before falling back to the bounds */
+	public static final int MAX_RECTS = 16;
+
+	/**
+	 * two rectangles are merged if the area of their union is at most this factor
+	 * times the sum of their areas.
+	 */
+	static final double MERGE_FACTOR = 1.25;
+
+	private final List<Rectangle> rects = new ArrayList<Rectangle>();
+
+	private long submitted = 0;
+	private long flushed = 0;
+
+	/**
+	 * Adds a rectangle to the region, merging it with the rectangles that are
+	 * already there where worthwhile.
+	 */
+	public void add(Rectangle r) {
+		submitted++;
+		if (r.isEmpty()) {
+			return;
+		}
+		Rectangle merged = new Rectangle(r);
+		boolean changed = true;
+		// a merged rectangle may now be worth merging with ones checked before
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < rects.size(); i++) {
+				Rectangle e = rects.get(i);
+				if (e.contains(merged)) {
+					return;
+				}
+				Rectangle union = e.union(merged);
+				if (area(union) <= MERGE_FACTOR * (area(e) + area(merged))) {
+					rects.remove(i);
+					merged = union;
+					changed = true;
+					break;
+				}
+			}
+		}
+		rects.add(merged);
+		if (rects.size() > MAX_RECTS) {
+			Rectangle bounds = getBounds();
+			rects.clear();
+			rects.add(bounds);
+		}
+	}
+
+	private static long area(Rectangle r) {
+		return (long) r.width * r.height;
+	}
+
+	/**
+	 * @return true if nothing has been added since the last flush.
+	 */
+	public boolean isEmpty() {
+		return rects.isEmpty();
+	}
+
+	/**
+	 * @return the bounding box of the region, or null if it is empty.
+	 */
+	public Rectangle getBounds() {
+		Rectangle bounds = null;
+		for (Rectangle r : rects) {
+			bounds = bounds == null ? new Rectangle(r) : bounds.union(r);
+		}
+		return bounds;
+	}
+
+	/**
+	 * Empties the region.
+	 *
+	 * @return the rectangles to repaint.
+	 */
+	public List<Rectangle> flush() {
+		List<Rectangle> result = new ArrayList<Rectangle>(rects);
+		flushed += result.size();
+		rects.clear();
+		return result;
+	}
+
+	/**
+	 * Empties the region without repainting, e.g. because everything is
+	 * repainted anyway.
+	 */
+	public void clear() {
+		rects.clear();
+	}
+
+	/**
+	 * @return the number of rectangles that were added so far.
+	 */
+	public long getSubmittedCount() {
+		return submitted;
+	}
+
+	/**
+	 * @return the number of rectangles that were handed out for repainting so
+	 *         far.
+	 */
+	public long getFlushedCount() {
+		return flushed;
+	}
+}
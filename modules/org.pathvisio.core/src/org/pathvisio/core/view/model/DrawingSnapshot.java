@@ -0,0 +1,498 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2022 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.view.model;
+
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.RectangularShape;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.text.AttributedCharacterIterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.batik.ext.awt.g2d.AbstractGraphics2D;
+import org.apache.batik.ext.awt.g2d.GraphicContext;
+
+/**
+ * An immutable recording of how an area of a pathway is drawn, obtained with
+ * {@link VPathwayModel#getDrawingSnapshot(Rectangle)}.
+ * <p>
+ * The elements are drawn on the thread that modifies the pathway, into a
+ * graphics that only records what is drawn: copies of the shapes, the text
+ * layouts and glyphs, images, and the colors, strokes, fonts, transform and
+ * clip they are drawn with. All caches of the elements are filled on that
+ * thread. The snapshot keeps no reference to the elements, so it can be
+ * rasterized on any thread with {@link #draw(Graphics2D)}, while the pathway
+ * is changed.
+ */
+public final class DrawingSnapshot {
+
+	private final List<Op> ops;
+
+	private DrawingSnapshot(List<Op> ops) {
+		this.ops = Collections.unmodifiableList(ops);
+	}
+
+	/**
+	 * Rasterizes the snapshot. Drawing stops early when the calling thread is
+	 * interrupted, for example because the frame is no longer needed.
+	 *
+	 * @param g the graphics to draw on, in view coordinates.
+	 */
+	public void draw(Graphics2D g) {
+		Thread thread = Thread.currentThread();
+		State last = null;
+		Graphics2D g2d = null;
+		for (Op op : ops) {
+			if (thread.isInterrupted()) {
+				break;
+			}
+			if (op.state != last) {
+				if (g2d != null) {
+					g2d.dispose();
+				}
+				g2d = (Graphics2D) g.create();
+				op.state.apply(g2d);
+				last = op.state;
+			}
+			op.draw(g2d);
+		}
+		if (g2d != null) {
+			g2d.dispose();
+		}
+	}
+
+	/**
+	 * @return the number of recorded drawing operations.
+	 */
+	public int size() {
+		return ops.size();
+	}
+
+	/**
+	 * A call to {@link Graphics2D#clip(Shape)}, with the transform at the time.
+	 * Clips are replayed call by call rather than as one combined shape, so that
+	 * they are rounded to pixels exactly as when drawing directly.
+	 */
+	private static final class Clip {
+		final Clip previous;
+		final AffineTransform transform;
+		final Shape shape;
+
+		Clip(Clip previous, AffineTransform transform, Shape shape) {
+			this.previous = previous;
+			this.transform = transform;
+			this.shape = shape;
+		}
+
+		void apply(Graphics2D g, AffineTransform base) {
+			if (previous != null) {
+				previous.apply(g, base);
+			}
+			g.setTransform(base);
+			g.transform(transform);
+			g.clip(shape);
+		}
+	}
+
+	/**
+	 * Graphics state of one or more operations. All fields are immutable or
+	 * copies.
+	 */
+	private static final class State {
+		final AffineTransform transform;
+		final Clip clip;
+		final Paint paint;
+		final Stroke stroke;
+		final Composite composite;
+		final Font font;
+		final RenderingHints hints;
+
+		State(Recorder g) {
+			transform = g.getTransform();
+			clip = g.clips;
+			paint = g.getPaint();
+			stroke = g.getStroke();
+			composite = g.getComposite();
+			font = g.getFont();
+			hints = g.getRenderingHints();
+		}
+
+		void apply(Graphics2D g) {
+			AffineTransform base = g.getTransform();
+			if (clip != null) {
+				clip.apply(g, base);
+				g.setTransform(base);
+			}
+			g.transform(transform);
+			g.addRenderingHints(hints);
+			g.setPaint(paint);
+			g.setStroke(stroke);
+			g.setComposite(composite);
+			g.setFont(font);
+		}
+	}
+
+	private static abstract class Op {
+		final State state;
+
+		Op(State state) {
+			this.state = state;
+		}
+
+		abstract void draw(Graphics2D g);
+	}
+
+	private static final class ShapeOp extends Op {
+		final Shape shape;
+		final boolean fill;
+
+		ShapeOp(State state, Shape shape, boolean fill) {
+			super(state);
+			this.shape = shape;
+			this.fill = fill;
+		}
+
+		void draw(Graphics2D g) {
+			if (fill) {
+				g.fill(shape);
+			} else {
+				g.draw(shape);
+			}
+		}
+	}
+
+	private static final class StringOp extends Op {
+		final String str;
+		final float x, y;
+
+		StringOp(State state, String str, float x, float y) {
+			super(state);
+			this.str = str;
+			this.x = x;
+			this.y = y;
+		}
+
+		void draw(Graphics2D g) {
+			g.drawString(str, x, y);
+		}
+	}
+
+	private static final class LayoutOp extends Op {
+		final TextLayout layout;
+		final float x, y;
+
+		LayoutOp(State state, TextLayout layout, float x, float y) {
+			super(state);
+			this.layout = layout;
+			this.x = x;
+			this.y = y;
+		}
+
+		void draw(Graphics2D g) {
+			layout.draw(g, x, y);
+		}
+	}
+
+	private static final class GlyphOp extends Op {
+		final GlyphVector glyphs;
+		final float x, y;
+
+		GlyphOp(State state, GlyphVector glyphs, float x, float y) {
+			super(state);
+			this.glyphs = glyphs;
+			this.x = x;
+			this.y = y;
+		}
+
+		void draw(Graphics2D g) {
+			g.drawGlyphVector(glyphs, x, y);
+		}
+	}
+
+	private static final class ImageOp extends Op {
+		final Image image;
+		final AffineTransform transform;
+
+		ImageOp(State state, Image image, AffineTransform transform) {
+			super(state);
+			this.image = image;
+			this.transform = transform;
+		}
+
+		void draw(Graphics2D g) {
+			g.drawImage(image, transform, null);
+		}
+	}
+
+	private static final class RenderedImageOp extends Op {
+		final RenderedImage image;
+		final RenderableImage renderable;
+		final AffineTransform transform;
+
+		RenderedImageOp(State state, RenderedImage image, RenderableImage renderable, AffineTransform transform) {
+			super(state);
+			this.image = image;
+			this.renderable = renderable;
+			this.transform = transform;
+		}
+
+		void draw(Graphics2D g) {
+			if (image != null) {
+				g.drawRenderedImage(image, transform);
+			} else {
+				g.drawRenderableImage(renderable, transform);
+			}
+		}
+	}
+
+	/**
+	 * Graphics that records what is drawn on it. Copies made with
+	 * {@link #create()} record into the same snapshot.
+	 * <p>
+	 * The graphics state is only captured again when it changed since the last
+	 * operation. Paint, stroke, composite and font are compared by reference, the
+	 * transform, clip and rendering hints are flagged by their setters.
+	 */
+	static final class Recorder extends AbstractGraphics2D {
+		private final List<Op> ops;
+		private final Graphics2D metrics;
+		private State state;
+		private boolean stateChanged = true;
+		private Clip clips;
+
+		Recorder() {
+			super(false);
+			gc = new GraphicContext();
+			ops = new ArrayList<Op>();
+			metrics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+		}
+
+		private Recorder(Recorder g) {
+			super(g);
+			ops = g.ops;
+			metrics = g.metrics;
+			state = g.state;
+			stateChanged = g.stateChanged;
+			clips = g.clips;
+		}
+
+		/**
+		 * @return a snapshot of everything drawn on this graphics and its copies so
+		 *         far.
+		 */
+		DrawingSnapshot getSnapshot() {
+			return new DrawingSnapshot(new ArrayList<Op>(ops));
+		}
+
+		private State current() {
+			if (stateChanged || state.paint != gc.getPaint() || state.stroke != gc.getStroke()
+					|| state.composite != gc.getComposite() || state.font != gc.getFont()) {
+				state = new State(this);
+				stateChanged = false;
+			}
+			return state;
+		}
+
+		private static Shape copy(Shape s) {
+			// elements may change their cached shapes later on
+			if (s instanceof RectangularShape) {
+				return (Shape) ((RectangularShape) s).clone();
+			} else if (s instanceof Line2D) {
+				return (Shape) ((Line2D) s).clone();
+			}
+			return new Path2D.Double(s);
+		}
+
+		public Graphics create() {
+			return new Recorder(this);
+		}
+
+		public void dispose() {
+		}
+
+		public void draw(Shape s) {
+			ops.add(new ShapeOp(current(), copy(s), false));
+		}
+
+		public void fill(Shape s) {
+			ops.add(new ShapeOp(current(), copy(s), true));
+		}
+
+		public void drawString(String str, float x, float y) {
+			ops.add(new StringOp(current(), str, x, y));
+		}
+
+		public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+			ops.add(new LayoutOp(current(), new TextLayout(iterator, getFontRenderContext()), x, y));
+		}
+
+		public void drawGlyphVector(GlyphVector g, float x, float y) {
+			ops.add(new GlyphOp(current(), g, x, y));
+		}
+
+		public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+			ops.add(new ImageOp(current(), img, AffineTransform.getTranslateInstance(x, y)));
+			return true;
+		}
+
+		public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+			int w = img.getWidth(null);
+			int h = img.getHeight(null);
+			if (w <= 0 || h <= 0) {
+				return false;
+			}
+			AffineTransform at = AffineTransform.getTranslateInstance(x, y);
+			at.scale((double) width / w, (double) height / h);
+			ops.add(new ImageOp(current(), img, at));
+			return true;
+		}
+
+		public boolean drawImage(Image img, AffineTransform xform, ImageObserver observer) {
+			ops.add(new ImageOp(current(), img, new AffineTransform(xform)));
+			return true;
+		}
+
+		public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+			ops.add(new RenderedImageOp(current(), img, null, new AffineTransform(xform)));
+		}
+
+		public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+			ops.add(new RenderedImageOp(current(), null, img, new AffineTransform(xform)));
+		}
+
+		public FontMetrics getFontMetrics(Font f) {
+			metrics.setRenderingHints(gc.getRenderingHints());
+			return metrics.getFontMetrics(f);
+		}
+
+		public GraphicsConfiguration getDeviceConfiguration() {
+			return metrics.getDeviceConfiguration();
+		}
+
+		public void setXORMode(Color c1) {
+			// not supported by the snapshot, drawing continues in paint mode
+		}
+
+		public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+			// nothing has been rasterized to copy from
+		}
+
+		// setters of the transform, clip and rendering hints
+
+		public void translate(int x, int y) {
+			super.translate(x, y);
+			stateChanged = true;
+		}
+
+		public void translate(double tx, double ty) {
+			super.translate(tx, ty);
+			stateChanged = true;
+		}
+
+		public void rotate(double theta) {
+			super.rotate(theta);
+			stateChanged = true;
+		}
+
+		public void rotate(double theta, double x, double y) {
+			super.rotate(theta, x, y);
+			stateChanged = true;
+		}
+
+		public void scale(double sx, double sy) {
+			super.scale(sx, sy);
+			stateChanged = true;
+		}
+
+		public void shear(double shx, double shy) {
+			super.shear(shx, shy);
+			stateChanged = true;
+		}
+
+		public void transform(AffineTransform tx) {
+			super.transform(tx);
+			stateChanged = true;
+		}
+
+		public void setTransform(AffineTransform tx) {
+			super.setTransform(tx);
+			stateChanged = true;
+		}
+
+		public void clip(Shape s) {
+			super.clip(s);
+			if (s != null) {
+				clips = new Clip(clips, getTransform(), copy(s));
+			}
+			stateChanged = true;
+		}
+
+		public void clipRect(int x, int y, int width, int height) {
+			clip(new Rectangle(x, y, width, height));
+		}
+
+		public void setClip(Shape clip) {
+			super.setClip(clip);
+			// the clip of the graphics the snapshot is drawn on still applies
+			clips = clip == null ? null : new Clip(null, getTransform(), copy(clip));
+			stateChanged = true;
+		}
+
+		public void setClip(int x, int y, int width, int height) {
+			setClip(new Rectangle(x, y, width, height));
+		}
+
+		public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue) {
+			super.setRenderingHint(hintKey, hintValue);
+			stateChanged = true;
+		}
+
+		@SuppressWarnings("rawtypes")
+		public void setRenderingHints(Map hints) {
+			super.setRenderingHints(hints);
+			stateChanged = true;
+		}
+
+		@SuppressWarnings("rawtypes")
+		public void addRenderingHints(Map hints) {
+			super.addRenderingHints(hints);
+			stateChanged = true;
+		}
+	}
+}
@@ -282,4 +282,9 @@ protected int getZOrder() {
 		return VPathwayModel.ZORDER_HANDLE;
 	}
 
+	@Override
+	protected boolean isOverlay() {
+		return true;
+	}
+
 }
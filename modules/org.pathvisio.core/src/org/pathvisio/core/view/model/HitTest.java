@@ -0,0 +1,466 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2022 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.view.model;
+
+import java.awt.Shape;
+import java.awt.geom.Line2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.util.Arrays;
+
+import org.pathvisio.libgpml.model.shape.IShape;
+import org.pathvisio.libgpml.model.type.ShapeType;
+
+/**
+ * Analytic hit tests for the common shape types, to avoid testing against the
+ * {@link java.awt.geom.Area} of an outline, which is slow for curved and stroked
+ * shapes.
+ * <p>
+ * Shapes are described by their unrotated bounds, rotation around the center
+ * and the width of their border stroke. With a border, only the border is hit,
+ * like the outline calculated by {@link OutlineCache}: points within half the
+ * stroke width of the border of an oval or round rectangle, or between the
+ * grown and shrunk bounds of a rectangle. Lines are described by
+ * the segments of their flattened path and a stroke width.
+ */
+final class HitTest {
+	/** flatness used to turn curves into segments, in view coordinates */
+	static final double FLATNESS = 0.25;
+
+	/** arc diameter of {@link ShapeType#ROUNDED_RECTANGLE}, negative if not a round rectangle */
+	private static final double ROUND_ARC;
+
+	static {
+		Shape s = ShapeType.ROUNDED_RECTANGLE.getShape(1000, 1000);
+		ROUND_ARC = s instanceof RoundRectangle2D ? ((RoundRectangle2D) s).getArcWidth() : -1;
+	}
+
+	private HitTest() {
+	}
+
+	/**
+	 * @return true if shapes of the given type can be tested with this class.
+	 */
+	static boolean isSupported(IShape shape) {
+		return shape == ShapeType.RECTANGLE || shape == ShapeType.OVAL
+				|| (shape == ShapeType.ROUNDED_RECTANGLE && ROUND_ARC >= 0);
+	}
+
+	/**
+	 * Tests whether a shape contains a point.
+	 *
+	 * @param shape    a supported shape type.
+	 * @param x        left of the unrotated shape.
+	 * @param y        top of the unrotated shape.
+	 * @param w        width of the shape.
+	 * @param h        height of the shape.
+	 * @param rotation rotation in radians around the center.
+	 * @param sw       width of the border stroke, or 0 to test the filled shape.
+	 * @param px       x of the point.
+	 * @param py       y of the point.
+	 */
+	static boolean contains(IShape shape, double x, double y, double w, double h, double rotation, double sw,
+			double px, double py) {
+		double cx = x + w / 2;
+		double cy = y + h / 2;
+		double cos = Math.cos(rotation);
+		double sin = Math.sin(rotation);
+		// rotate back, relative to the center
+		double lx = (px - cx) * cos + (py - cy) * sin;
+		double ly = (py - cy) * cos - (px - cx) * sin;
+		if (sw <= 0) {
+			return inside(shape, w, h, lx, ly);
+		} else if (shape == ShapeType.RECTANGLE) {
+			// the stroke has mitered corners
+			return inside(shape, w + sw, h + sw, lx, ly) && !inside(shape, w - sw, h - sw, lx, ly);
+		} else {
+			return distance(shape, w, h, lx, ly) <= sw / 2;
+		}
+	}
+
+	/**
+	 * Tests whether a shape intersects an axis aligned rectangle.
+	 *
+	 * @see #contains(IShape, double, double, double, double, double, double,
+	 *      double, double)
+	 */
+	static boolean intersects(IShape shape, double x, double y, double w, double h, double rotation, double sw,
+			Rectangle2D r) {
+		double cx = x + w / 2;
+		double cy = y + h / 2;
+		double cos = Math.cos(rotation);
+		double sin = Math.sin(rotation);
+		// corners of r in the coordinates of the shape, in order around r
+		double[] q = new double[] { r.getMinX(), r.getMinY(), r.getMaxX(), r.getMinY(), r.getMaxX(), r.getMaxY(),
+				r.getMinX(), r.getMaxY() };
+		for (int i = 0; i < 8; i += 2) {
+			double dx = q[i] - cx;
+			double dy = q[i + 1] - cy;
+			q[i] = dx * cos + dy * sin;
+			q[i + 1] = dy * cos - dx * sin;
+		}
+		if (sw <= 0) {
+			return overlaps(shape, w, h, q);
+		} else if (shape == ShapeType.RECTANGLE) {
+			// the shapes are convex, so r lies in the hole if all its corners do
+			return overlaps(shape, w + sw, h + sw, q) && !insideAll(shape, w - sw, h - sw, q);
+		}
+		double d = sw / 2;
+		// the grown bounds contain all points within d
+		if (!overlaps(ShapeType.RECTANGLE, w / 2 + d, h / 2 + d, 0, 0, q)) {
+			return false;
+		}
+		boolean inside = insideAll(shape, w, h, q);
+		if (!inside && overlaps(shape, w, h, q)) {
+			return true; // r crosses the border
+		}
+		for (int i = 0; i < 8; i += 2) {
+			if (distance(shape, w, h, q[i], q[i + 1]) <= d) {
+				return true;
+			}
+		}
+		if (inside) {
+			// the distance to the border is concave inside a convex shape, so the
+			// corners are closest
+			return false;
+		}
+		// outside, the distance is convex along each edge of r
+		for (int i = 0; i < 8; i += 2) {
+			int j = (i + 2) % 8;
+			if (rectIntersects(w / 2 + d, h / 2 + d, q[i], q[i + 1], q[j], q[j + 1])
+					&& withinDistance(shape, w, h, d, q[i], q[i + 1], q[j], q[j + 1])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tests a point against a shape of size w, h centered at the origin.
+	 */
+	private static boolean inside(IShape shape, double w, double h, double lx, double ly) {
+		double hw = w / 2;
+		double hh = h / 2;
+		double ax = Math.abs(lx);
+		double ay = Math.abs(ly);
+		if (hw <= 0 || hh <= 0 || ax > hw || ay > hh) {
+			return false;
+		}
+		if (shape == ShapeType.OVAL) {
+			return (ax * ax) / (hw * hw) + (ay * ay) / (hh * hh) <= 1;
+		} else if (shape == ShapeType.ROUNDED_RECTANGLE) {
+			double rx = radius(w);
+			double ry = radius(h);
+			if (rx <= 0 || ry <= 0) {
+				return true; // the corners are sharp
+			}
+			double qx = ax - (hw - rx);
+			double qy = ay - (hh - ry);
+			return qx <= 0 || qy <= 0 || (qx * qx) / (rx * rx) + (qy * qy) / (ry * ry) <= 1;
+		}
+		return true;
+	}
+
+	private static boolean insideAll(IShape shape, double w, double h, double[] q) {
+		for (int i = 0; i < 8; i += 2) {
+			if (!inside(shape, w, h, q[i], q[i + 1])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tests whether the convex quadrilateral q overlaps a shape of size w, h
+	 * centered at the origin.
+	 */
+	private static boolean overlaps(IShape shape, double w, double h, double[] q) {
+		return overlaps(shape, w / 2, h / 2, radius(w), radius(h), q);
+	}
+
+	/**
+	 * @see #segmentIntersects(IShape, double, double, double, double, double,
+	 *      double, double, double)
+	 */
+	private static boolean overlaps(IShape shape, double hw, double hh, double rx, double ry, double[] q) {
+		if (hw <= 0 || hh <= 0) {
+			return false;
+		}
+		if (quadContainsOrigin(q)) {
+			return true;
+		}
+		for (int i = 0; i < 8; i += 2) {
+			int j = (i + 2) % 8;
+			if (segmentIntersects(shape, hw, hh, rx, ry, q[i], q[i + 1], q[j], q[j + 1])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean quadContainsOrigin(double[] q) {
+		boolean pos = false;
+		boolean neg = false;
+		for (int i = 0; i < 8; i += 2) {
+			int j = (i + 2) % 8;
+			double cross = q[i] * q[j + 1] - q[i + 1] * q[j];
+			if (cross > 0) {
+				pos = true;
+			} else if (cross < 0) {
+				neg = true;
+			}
+		}
+		return !(pos && neg);
+	}
+
+	/**
+	 * Tests whether a segment intersects a shape with half size hw, hh centered at
+	 * the origin. For round rectangles, rx and ry are the radii of the corners.
+	 */
+	private static boolean segmentIntersects(IShape shape, double hw, double hh, double rx, double ry, double x1,
+			double y1, double x2, double y2) {
+		if (shape == ShapeType.OVAL) {
+			return ellipseIntersects(0, 0, hw, hh, x1, y1, x2, y2);
+		} else if (shape == ShapeType.ROUNDED_RECTANGLE && rx > 0 && ry > 0) {
+			// a cross of two rectangles, plus the corners
+			double ix = hw - rx;
+			double iy = hh - ry;
+			return rectIntersects(hw, iy, x1, y1, x2, y2) || rectIntersects(ix, hh, x1, y1, x2, y2)
+					|| ellipseIntersects(ix, iy, rx, ry, x1, y1, x2, y2)
+					|| ellipseIntersects(-ix, iy, rx, ry, x1, y1, x2, y2)
+					|| ellipseIntersects(ix, -iy, rx, ry, x1, y1, x2, y2)
+					|| ellipseIntersects(-ix, -iy, rx, ry, x1, y1, x2, y2);
+		}
+		return rectIntersects(hw, hh, x1, y1, x2, y2);
+	}
+
+	/**
+	 * @return the radius of the corners of a round rectangle with the given width
+	 *         or height.
+	 */
+	private static double radius(double size) {
+		return Math.min(ROUND_ARC, size) / 2;
+	}
+
+	private static boolean rectIntersects(double hw, double hh, double x1, double y1, double x2, double y2) {
+		if (Math.abs(x1) <= hw && Math.abs(y1) <= hh) {
+			return true;
+		}
+		return Line2D.linesIntersect(x1, y1, x2, y2, -hw, -hh, hw, -hh)
+				|| Line2D.linesIntersect(x1, y1, x2, y2, hw, -hh, hw, hh)
+				|| Line2D.linesIntersect(x1, y1, x2, y2, hw, hh, -hw, hh)
+				|| Line2D.linesIntersect(x1, y1, x2, y2, -hw, hh, -hw, -hh);
+	}
+
+	private static boolean ellipseIntersects(double cx, double cy, double rx, double ry, double x1, double y1,
+			double x2, double y2) {
+		// scale the ellipse to a unit circle
+		return Line2D.ptSegDistSq((x1 - cx) / rx, (y1 - cy) / ry, (x2 - cx) / rx, (y2 - cy) / ry, 0, 0) <= 1;
+	}
+
+	/**
+	 * @return the distance of a point to the border of an oval or round rectangle
+	 *         of size w, h centered at the origin.
+	 */
+	private static double distance(IShape shape, double w, double h, double lx, double ly) {
+		double hw = w / 2;
+		double hh = h / 2;
+		// the shapes are symmetric, the closest point is in the same quadrant
+		double ax = Math.abs(lx);
+		double ay = Math.abs(ly);
+		if (shape == ShapeType.OVAL) {
+			return ellipseDistance(hw, hh, ax, ay);
+		}
+		double rx = radius(w);
+		double ry = radius(h);
+		double ix = hw - rx;
+		double iy = hh - ry;
+		double dist = Math.min(Line2D.ptSegDist(0, hh, ix, hh, ax, ay), Line2D.ptSegDist(hw, 0, hw, iy, ax, ay));
+		if (ax >= ix && ay >= iy && rx > 0 && ry > 0) {
+			dist = Math.min(dist, ellipseDistance(rx, ry, ax - ix, ay - iy));
+		}
+		return dist;
+	}
+
+	/**
+	 * @return true if a segment that lies outside a shape comes within distance d
+	 *         of it.
+	 */
+	private static boolean withinDistance(IShape shape, double w, double h, double d, double x1, double y1,
+			double x2, double y2) {
+		double len = length(x2 - x1, y2 - y1);
+		double da = distance(shape, w, h, x1, y1);
+		double db = distance(shape, w, h, x2, y2);
+		// the distance changes at most as fast as the position along the segment
+		if (da <= d || db <= d || (da + db - len) / 2 > d) {
+			return da <= d || db <= d;
+		}
+		// golden section search, the distance is convex along the segment
+		final double g = (Math.sqrt(5) - 1) / 2;
+		double lo = 0;
+		double hi = 1;
+		double m1 = hi - g * (hi - lo);
+		double m2 = lo + g * (hi - lo);
+		double d1 = distance(shape, w, h, x1 + m1 * (x2 - x1), y1 + m1 * (y2 - y1));
+		double d2 = distance(shape, w, h, x1 + m2 * (x2 - x1), y1 + m2 * (y2 - y1));
+		while (d1 > d && d2 > d) {
+			if ((hi - lo) * len < 1e-3 || Math.min(d1, d2) - (hi - lo) * len > d) {
+				return false;
+			}
+			if (d1 < d2) {
+				hi = m2;
+				m2 = m1;
+				d2 = d1;
+				m1 = hi - g * (hi - lo);
+				d1 = distance(shape, w, h, x1 + m1 * (x2 - x1), y1 + m1 * (y2 - y1));
+			} else {
+				lo = m1;
+				m1 = m2;
+				d1 = d2;
+				m2 = lo + g * (hi - lo);
+				d2 = distance(shape, w, h, x1 + m2 * (x2 - x1), y1 + m2 * (y2 - y1));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Distance of a point to an ellipse with semi-axes a and b, both in the first
+	 * quadrant. After D. Eberly, "Distance from a Point to an Ellipse".
+	 */
+	private static double ellipseDistance(double a, double b, double x, double y) {
+		if (a < b) {
+			return ellipseDistance(b, a, y, x);
+		}
+		if (y > 0) {
+			if (x > 0) {
+				double z0 = x / a;
+				double z1 = y / b;
+				if (z0 * z0 + z1 * z1 == 1) {
+					return 0;
+				}
+				double r0 = (a / b) * (a / b);
+				double n0 = r0 * z0;
+				// the root of a convex, decreasing function. Newton's method
+				// converges monotonically from the left, where it is positive,
+				// such as at the larger of these two lower bounds of the root.
+				double s = Math.max(z1 - 1, n0 - r0);
+				for (int i = 0; i < 50; i++) {
+					double t0 = n0 / (s + r0);
+					double t1 = z1 / (s + 1);
+					double gs = t0 * t0 + t1 * t1 - 1;
+					double step = gs / (2 * (t0 * t0 / (s + r0) + t1 * t1 / (s + 1)));
+					s += step;
+					if (step <= 1e-12 * (1 + Math.abs(s))) {
+						break;
+					}
+				}
+				return length(r0 * x / (s + r0) - x, y / (s + 1) - y);
+			}
+			return Math.abs(y - b);
+		}
+		double numer = a * x;
+		double denom = a * a - b * b;
+		if (numer < denom) {
+			double xa = numer / denom;
+			return length(a * xa - x, b * Math.sqrt(1 - xa * xa));
+		}
+		return Math.abs(x - a);
+	}
+
+	private static double length(double dx, double dy) {
+		return Math.sqrt(dx * dx + dy * dy); // Math.hypot is slow
+	}
+
+	/**
+	 * Flattens the given shapes into a list of segments.
+	 *
+	 * @return x1, y1, x2, y2 for each segment.
+	 */
+	static double[] toSegments(Shape... shapes) {
+		double[] result = new double[64];
+		int n = 0;
+		double[] c = new double[6];
+		for (Shape s : shapes) {
+			if (s == null) {
+				continue;
+			}
+			double mx = 0, my = 0; // start of the current sub path
+			double lx = 0, ly = 0; // last point
+			for (PathIterator i = s.getPathIterator(null, FLATNESS); !i.isDone(); i.next()) {
+				int type = i.currentSegment(c);
+				if (type == PathIterator.SEG_MOVETO) {
+					mx = lx = c[0];
+					my = ly = c[1];
+					continue;
+				}
+				double x = type == PathIterator.SEG_CLOSE ? mx : c[0];
+				double y = type == PathIterator.SEG_CLOSE ? my : c[1];
+				if (n + 4 > result.length) {
+					result = Arrays.copyOf(result, result.length * 2);
+				}
+				result[n++] = lx;
+				result[n++] = ly;
+				result[n++] = x;
+				result[n++] = y;
+				lx = x;
+				ly = y;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * @return true if the point is within distance d of any of the segments.
+	 */
+	static boolean segmentsContain(double[] segments, double d, double px, double py) {
+		double d2 = d * d;
+		for (int i = 0; i < segments.length; i += 4) {
+			if (Line2D.ptSegDistSq(segments[i], segments[i + 1], segments[i + 2], segments[i + 3], px, py) <= d2) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if any of the segments, stroked with width sw, may intersect
+	 *         the rectangle. Caps and joins are included generously.
+	 */
+	static boolean segmentsIntersect(double[] segments, double sw, Rectangle2D r) {
+		// grow by half the diagonal of a square cap
+		double d = sw / 2 * Math.sqrt(2);
+		double x0 = r.getMinX() - d;
+		double y0 = r.getMinY() - d;
+		double x1 = r.getMaxX() + d;
+		double y1 = r.getMaxY() + d;
+		for (int i = 0; i < segments.length; i += 4) {
+			double ax = segments[i];
+			double ay = segments[i + 1];
+			double bx = segments[i + 2];
+			double by = segments[i + 3];
+			if ((ax >= x0 && ax <= x1 && ay >= y0 && ay <= y1) || Line2D.linesIntersect(ax, ay, bx, by, x0, y0, x1, y0)
+					|| Line2D.linesIntersect(ax, ay, bx, by, x1, y0, x1, y1)
+					|| Line2D.linesIntersect(ax, ay, bx, by, x1, y1, x0, y1)
+					|| Line2D.linesIntersect(ax, ay, bx, by, x0, y1, x0, y0)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -141,4 +141,9 @@ public int getZOrder() {
 		return vLinkableTo.getZOrder() + 1;
 	}
 
+	@Override
+	protected boolean isOverlay() {
+		return true;
+	}
+
 }
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2022 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.view.model;
+
+import java.awt.BasicStroke;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.pathvisio.libgpml.model.shape.IShape;
+import org.pathvisio.libgpml.model.type.LineStyleType;
+
+/**
+ * Cache of the outlines of {@link VShapedElement}s, shared by all elements of
+ * all pathways. Many elements have the same shape type, size, rotation and
+ * border, and constructing the {@link Area} of an outline is expensive.
+ * <p>
+ * Outlines are kept in model coordinates, relative to the top left corner of
+ * the unrotated element, so that they don't depend on position or zoom factor.
+ * The least recently used outlines are dropped when the cache is full.
+ * <p>
+ * The cache can be used from several threads, see
+ * {@link VPathwayModel#fromModel(org.pathvisio.libgpml.model.PathwayModel)}.
+ */
+final class OutlineCache {
+	/** maximum number of cached outlines */
+	static final int MAX_SIZE = 2048;
+
+	private static final class Key {
+		final IShape shape;
+		final double width;
+		final double height;
+		final double rotation;
+		final double borderWidth;
+		final LineStyleType borderStyle;
+
+		Key(IShape shape, double width, double height, double rotation, double borderWidth,
+				LineStyleType borderStyle) {
+			this.shape = shape;
+			this.width = width;
+			this.height = height;
+			this.rotation = rotation;
+			this.borderWidth = borderWidth;
+			this.borderStyle = borderStyle;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = shape.hashCode();
+			h = h * 31 + Double.hashCode(width);
+			h = h * 31 + Double.hashCode(height);
+			h = h * 31 + Double.hashCode(rotation);
+			h = h * 31 + Double.hashCode(borderWidth);
+			return h * 31 + (borderStyle == null ? 0 : borderStyle.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return k.shape.equals(shape) && k.width == width && k.height == height && k.rotation == rotation
+					&& k.borderWidth == borderWidth && k.borderStyle == borderStyle;
+		}
+	}
+
+	private static final Map<Key, Area> outlines = new LinkedHashMap<Key, Area>(256, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Area> eldest) {
+			return size() > MAX_SIZE;
+		}
+	};
+
+	private static long hits = 0;
+	private static long misses = 0;
+
+	private OutlineCache() {
+	}
+
+	/**
+	 * Returns the outline of a shape, including rotation and border, in model
+	 * coordinates relative to the top left corner of the unrotated shape. The
+	 * result is shared and must not be modified.
+	 *
+	 * @param shape       the shape type.
+	 * @param width       width in model coordinates.
+	 * @param height      height in model coordinates.
+	 * @param rotation    rotation in radians, around the center of the shape.
+	 * @param borderWidth width of the border in model coordinates, 0 for none.
+	 * @param borderStyle style of the border.
+	 */
+	static Area get(IShape shape, double width, double height, double rotation, double borderWidth,
+			LineStyleType borderStyle) {
+		Key key = new Key(shape, width, height, rotation, borderWidth, borderStyle);
+		synchronized (OutlineCache.class) {
+			Area a = outlines.get(key);
+			if (a != null) {
+				hits++;
+				return a;
+			}
+			misses++;
+		}
+		// calculated outside the lock, so that outlines can be calculated in parallel
+		Area a = calculate(shape, width, height, rotation, borderWidth, borderStyle);
+		synchronized (OutlineCache.class) {
+			Area b = outlines.get(key);
+			if (b != null) {
+				return b; // calculated by another thread in the meantime
+			}
+			outlines.put(key, a);
+		}
+		return a;
+	}
+
+	private static Area calculate(IShape shape, double width, double height, double rotation, double borderWidth,
+			LineStyleType borderStyle) {
+		Shape s = shape.getShape(width, height);
+		AffineTransform t = new AffineTransform();
+		t.rotate(rotation, width / 2, height / 2);
+		s = t.createTransformedShape(s);
+		if (borderWidth > 0 && width * height > 0) { // Workaround, batik balks if the shape is zero sized.
+			double sw = borderWidth;
+			if (borderStyle == LineStyleType.DOUBLE) {
+				// correction factor for composite stroke
+				sw = borderWidth * 4;
+			}
+			s = new BasicStroke((float) sw).createStrokedShape(s);
+		}
+		return new Area(s);
+	}
+
+	/**
+	 * @return the number of requests that were answered from the cache.
+	 */
+	static synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of requests for which a new outline had to be
+	 *         calculated.
+	 */
+	static synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of cached outlines.
+	 */
+	static synchronized int size() {
+		return outlines.size();
+	}
+
+	/**
+	 * Removes all outlines and resets the counters.
+	 */
+	static synchronized void clear() {
+		outlines.clear();
+		hits = 0;
+		misses = 0;
+	}
+}
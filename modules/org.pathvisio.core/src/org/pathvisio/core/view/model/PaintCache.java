@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2022 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.view.model;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Stroke;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.pathvisio.libgpml.model.type.LineStyleType;
+
+/**
+ * Interned strokes and colors for painting elements, so that they don't have
+ * to be created again for every element on every paint. Strokes are keyed by
+ * line style and width in view coordinates, so there is one set per zoom
+ * factor in use. Both are immutable and can be shared freely.
+ * <p>
+ * Only a handful of widths and colors are in use at a time, so they are kept in
+ * small arrays that are searched linearly, which doesn't allocate. When an
+ * array is full (e.g. after zooming through many zoom factors) it is emptied.
+ */
+final class PaintCache {
+	/** maximum number of cached strokes per line style, and of cached colors */
+	static final int MAX_SIZE = 64;
+
+	/** alpha of highlight colors */
+	static final int HIGHLIGHT_ALPHA = 128;
+
+	private static final class Strokes {
+		final float[] widths = new float[MAX_SIZE];
+		final Stroke[] strokes = new Stroke[MAX_SIZE];
+		int size = 0;
+	}
+
+	private static final Map<LineStyleType, Strokes> strokes = new IdentityHashMap<LineStyleType, Strokes>();
+
+	private static final int[] highlightRgbs = new int[MAX_SIZE];
+	private static final Color[] highlightColors = new Color[MAX_SIZE];
+	private static int highlightSize = 0;
+
+	private static long misses = 0;
+
+	private PaintCache() {
+	}
+
+	/**
+	 * @param width the width of the stroke, in view coordinates.
+	 * @return a solid stroke of the given width.
+	 */
+	static Stroke getStroke(float width) {
+		return getStroke(LineStyleType.SOLID, width);
+	}
+
+	/**
+	 * @param style the line style.
+	 * @param width the width of the stroke, in view coordinates.
+	 * @return a stroke for the given style and width. Styles other than solid,
+	 *         dashed and double get the default stroke.
+	 */
+	static synchronized Stroke getStroke(LineStyleType style, float width) {
+		Strokes cache = strokes.get(style);
+		if (cache == null) {
+			cache = new Strokes();
+			strokes.put(style, cache);
+		}
+		for (int i = 0; i < cache.size; i++) {
+			if (cache.widths[i] == width) {
+				return cache.strokes[i];
+			}
+		}
+		misses++;
+		Stroke s;
+		if (style == LineStyleType.SOLID) {
+			s = new BasicStroke(width);
+		} else if (style == LineStyleType.DASHED) {
+			s = new BasicStroke(width, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 10, new float[] { 4, 4 }, 0);
+		} else if (style == LineStyleType.DOUBLE) {
+			s = new CompositeStroke(new BasicStroke(width * 2), new BasicStroke(width));
+		} else {
+			s = VElement.DEFAULT_STROKE;
+		}
+		if (cache.size == MAX_SIZE) {
+			cache.size = 0;
+		}
+		cache.widths[cache.size] = width;
+		cache.strokes[cache.size] = s;
+		cache.size++;
+		return s;
+	}
+
+	/**
+	 * @return the color c with the alpha of a highlight.
+	 */
+	static synchronized Color getHighlightColor(Color c) {
+		int rgb = c.getRGB() & 0xFFFFFF;
+		for (int i = 0; i < highlightSize; i++) {
+			if (highlightRgbs[i] == rgb) {
+				return highlightColors[i];
+			}
+		}
+		misses++;
+		if (highlightSize == MAX_SIZE) {
+			highlightSize = 0;
+		}
+		highlightRgbs[highlightSize] = rgb;
+		highlightColors[highlightSize] = new Color(c.getRed(), c.getGreen(), c.getBlue(), HIGHLIGHT_ALPHA);
+		highlightSize++;
+		return highlightColors[highlightSize - 1];
+	}
+
+	/**
+	 * @return the number of strokes and colors that had to be created.
+	 */
+	static synchronized long getMisses() {
+		return misses;
+	}
+}
@@ -21,14 +21,16 @@
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EventObject;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
 import org.pathvisio.core.view.Adjustable;
 import org.pathvisio.libgpml.model.Group;
-import org.pathvisio.libgpml.model.Groupable;
 import org.pathvisio.libgpml.model.PathwayObject;
 
 /**
@@ -67,6 +69,11 @@ public class SelectionBox extends VElement implements Adjustable {
 
 	boolean isVisible;
 
+	boolean fitPending;
+
+	/** the area selected by the previous move while selecting, null before the first one */
+	private Rectangle2D selectedBounds;
+
 	public SelectionBox(VPathwayModel canvas) {
 		super(canvas);
 
@@ -110,6 +117,45 @@ public void addToSelection(VElement o) {
 		fireSelectionEvent(new SelectionEvent(this, SelectionEvent.OBJECT_ADDED, o));
 	}
 
+	/**
+	 * Add several objects to the selection. Listeners are notified with a single
+	 * OBJECTS_CHANGED event.
+	 *
+	 * @param objects
+	 */
+	public void addToSelection(Collection<? extends VElement> objects) {
+		changeSelection(objects, Collections.<VElement>emptySet());
+	}
+
+	/**
+	 * Removes and adds objects, and notifies listeners with a single
+	 * OBJECTS_CHANGED event if the selection has changed.
+	 */
+	private void changeSelection(Collection<? extends VElement> toAdd, Collection<? extends VElement> toRemove) {
+		Set<VElement> removed = new LinkedHashSet<VElement>();
+		for (VElement o : toRemove) {
+			if (o != this && selection.remove(o)) {
+				o.deselect();
+				removed.add(o);
+			}
+		}
+		Set<VElement> added = new LinkedHashSet<VElement>();
+		for (VElement o : toAdd) {
+			if (o != this && !selection.contains(o)) {
+				o.select();
+				doAdd(o);
+				added.add(o);
+			}
+		}
+		if (added.isEmpty() && removed.isEmpty()) {
+			return;
+		}
+		if (!isSelecting) {
+			fitToSelection();
+		}
+		fireSelectionEvent(new SelectionEvent(this, added, removed));
+	}
+
 	private void doAdd(VElement o) {
 		if (!selection.contains(o))
 			selection.add(o);
@@ -145,7 +191,7 @@ public VElement getChild(Point2D p) {
 				return o;
 		}
 		// Nothing in selection, check all other objects
-		for (VElement o : canvas.getDrawingObjects()) {
+		for (VElement o : canvas.getCandidatesAt(p)) {
 			if (o.vContains(p) && o != this)
 				return o;
 		}
@@ -232,6 +278,7 @@ public boolean isSelecting() {
 	 */
 	public void startSelecting() {
 		isSelecting = true;
+		selectedBounds = null;
 		show();
 	}
 
@@ -257,6 +304,11 @@ public void deselect() {
 	 * Fit the size of this object to the selected objects
 	 */
 	public void fitToSelection() {
+		if (canvas.isUpdating()) {
+			fitPending = true; // fit once at the end of the update
+			return;
+		}
+		fitPending = false;
 		if (selection.size() == 0) { // No objects in selection
 			hide();
 			reset();
@@ -271,7 +323,7 @@ public void fitToSelection() {
 		Rectangle2D vr = null;
 		for (VElement o : selection) {
 			if (vr == null)
-				vr = o.getVBounds();
+				vr = (Rectangle2D) o.getVBounds().clone(); // don't modify the cached bounds
 			else
 				vr.add(o.getVBounds());
 		}
@@ -361,34 +413,69 @@ public void adjustToHandle(Handle h, double vnewx, double vnewy) {
 		markDirty();
 		setHandleLocation();
 
-		// Keep track of objects that were selected via a group
-		// Don't unselect them if they're out of the selection bounds
-		Set<VPathwayObject> groupObjects = new HashSet<VPathwayObject>();
-
 		if (isSelecting) { // Selecting, so add containing objects to selection
-			Rectangle2D bounds = getVBounds();
-			for (VElement o : canvas.getDrawingObjects()) {
-				if ((o == this) || (o instanceof Handle)) {
-					continue;
+			Rectangle2D bounds = (Rectangle2D) getVBounds().clone();
+			// Objects that lie in both the previous and the new area keep their state,
+			// so only look at the objects in the area that was added or removed
+			List<Rectangle2D> changed = new ArrayList<Rectangle2D>();
+			if (selectedBounds == null) {
+				changed.add(bounds);
+			} else {
+				subtract(bounds, selectedBounds, changed);
+				subtract(selectedBounds, bounds, changed);
+			}
+			Set<VElement> candidates = new LinkedHashSet<VElement>();
+			for (Rectangle2D r : changed) {
+				candidates.addAll(canvas.getCandidatesIn(r));
+			}
+			selectedBounds = bounds;
+
+			List<VElement> toAdd = new ArrayList<VElement>();
+			List<VElement> toRemove = new ArrayList<VElement>();
+			for (VElement o : candidates) {
+				// objects in a group are selected through the group
+				Group ref = null;
+				if (o instanceof VGroupable) {
+					ref = ((VGroupable) o).getPathwayObject().getGroupRef();
 				}
-
 				if (o.vIntersects(bounds)) { // && !(o instanceof Group)
 					// exclude objects in a group to avoid double selection
-					if (o instanceof VGroupable) {
-						Groupable pe = ((VGroupable) o).getPathwayObject();
-						Group ref = ((Groupable) pe).getGroupRef();
-						if (ref != null) {
-							continue;
-						}
-						if (o instanceof VGroup) {
-							groupObjects.addAll(((VGroup) o).getGroupGraphics());
-						}
+					if (ref == null) {
+						toAdd.add(o);
+					}
+				} else if (selection.contains(o)) {
+					// Don't unselect objects that were selected via a group
+					VPathwayObject vref = ref == null ? null : canvas.getPathwayElementView(ref);
+					if (vref == null || !vref.vIntersects(bounds)) {
+						toRemove.add(o);
 					}
-					addToSelection(o);
-				} else if (o.isSelected() && !groupObjects.contains(o)) {
-					removeFromSelection(o);
 				}
 			}
+			changeSelection(toAdd, toRemove);
+		}
+	}
+
+	/**
+	 * Adds the parts of r that lie outside cut to result, as at most four
+	 * rectangles.
+	 */
+	private static void subtract(Rectangle2D r, Rectangle2D cut, List<Rectangle2D> result) {
+		Rectangle2D in = r.createIntersection(cut);
+		if (in.isEmpty()) {
+			if (!r.isEmpty()) {
+				result.add(r);
+			}
+			return;
+		}
+		addIfNotEmpty(result, r.getX(), r.getY(), r.getWidth(), in.getY() - r.getY());
+		addIfNotEmpty(result, r.getX(), in.getMaxY(), r.getWidth(), r.getMaxY() - in.getMaxY());
+		addIfNotEmpty(result, r.getX(), in.getY(), in.getX() - r.getX(), in.getHeight());
+		addIfNotEmpty(result, in.getMaxX(), in.getY(), r.getMaxX() - in.getMaxX(), in.getHeight());
+	}
+
+	private static void addIfNotEmpty(List<Rectangle2D> result, double x, double y, double w, double h) {
+		if (w > 0 && h > 0) {
+			result.add(new Rectangle2D.Double(x, y, w, h));
 		}
 	}
 
@@ -512,6 +599,9 @@ public static class SelectionEvent extends EventObject {
 
 		public static final int SELECTION_CLEARED = 2;
 
+		/** several objects were added or removed, see {@link #added} and {@link #removed} */
+		public static final int OBJECTS_CHANGED = 3;
+
 		public SelectionBox source;
 
 		public VElement affectedObject;
@@ -520,6 +610,12 @@ public static class SelectionEvent extends EventObject {
 
 		public Set<VElement> selection;
 
+		/** the objects added to the selection, for OBJECTS_CHANGED events */
+		public Set<VElement> added = Collections.emptySet();
+
+		/** the objects removed from the selection, for OBJECTS_CHANGED events */
+		public Set<VElement> removed = Collections.emptySet();
+
 		public SelectionEvent(SelectionBox source, int type, VElement affectedObject) {
 			super(source);
 			this.source = source;
@@ -531,12 +627,23 @@ public SelectionEvent(SelectionBox source, int type, VElement affectedObject) {
 		public SelectionEvent(SelectionBox source, int type) {
 			this(source, type, null);
 		}
+
+		public SelectionEvent(SelectionBox source, Set<VElement> added, Set<VElement> removed) {
+			this(source, OBJECTS_CHANGED, null);
+			this.added = added;
+			this.removed = removed;
+		}
 	}
 
 	protected int getZOrder() {
 		return VPathwayModel.ZORDER_SELECTIONBOX;
 	}
 
+	@Override
+	protected boolean isOverlay() {
+		return true;
+	}
+
 	public double getVWidth() {
 		return vFromM(mWidth);
 	}
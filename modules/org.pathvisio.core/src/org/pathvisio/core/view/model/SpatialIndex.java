@@ -0,0 +1,289 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2022 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.view.model;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Uniform grid over the bounds of the {@link VElement}s of a
+ * {@link VPathwayModel}, used to answer hit-test and paint culling queries
+ * without walking all drawing objects.
+ * <p>
+ * The grid is kept in model coordinates, so that cells don't depend on the
+ * zoom factor. Elements are not re-indexed eagerly: whenever the shape cache of
+ * an element is reset it is only marked as pending, and pending elements are
+ * re-indexed with their new bounds at the start of the next query.
+ * <p>
+ * Queries return candidates, i.e. all elements whose indexed bounds touch the
+ * queried cells. Callers still need to do their exact test (vContains,
+ * vIntersects) on the result.
+ */
+class SpatialIndex {
+
+	/** size of a grid cell, in model coordinates */
+	static final double CELL_SIZE = 128;
+
+	/**
+	 * elements that would span more cells than this are kept in a separate list
+	 * that is part of every query result.
+	 */
+	static final int MAX_CELLS = 256;
+
+	private final VPathwayModel canvas;
+
+	private final Map<Long, List<VElement>> cells = new HashMap<Long, List<VElement>>();
+
+	/** cell range per indexed element: {x0, y0, x1, y1}, or null if not placed */
+	private final Map<VElement, int[]> entries = new IdentityHashMap<VElement, int[]>();
+
+	/** elements that are too large (or have no proper bounds) to put in cells */
+	private final Set<VElement> large = Collections.newSetFromMap(new IdentityHashMap<VElement, Boolean>());
+
+	/** elements waiting to be (re-)indexed */
+	private final Set<VElement> pending = Collections.newSetFromMap(new IdentityHashMap<VElement, Boolean>());
+
+	/**
+	 * @param canvas the VPathwayModel, used for coordinate conversion.
+	 */
+	SpatialIndex(VPathwayModel canvas) {
+		this.canvas = canvas;
+	}
+
+	/**
+	 * Adds an element to the index. Its bounds are calculated lazily, on the next
+	 * query.
+	 */
+	void add(VElement elt) {
+		if (!entries.containsKey(elt)) {
+			entries.put(elt, null);
+		}
+		pending.add(elt);
+	}
+
+	/**
+	 * Adds elements that are not in the index yet, such as the elements of a
+	 * newly loaded pathway. Their bounds are calculated lazily, on the next query.
+	 */
+	void addAll(Collection<? extends VElement> elts) {
+		for (VElement elt : elts) {
+			entries.put(elt, null);
+		}
+		pending.addAll(elts);
+	}
+
+	/**
+	 * Removes an element from the index.
+	 */
+	void remove(VElement elt) {
+		if (entries.containsKey(elt)) {
+			unplace(elt);
+			entries.remove(elt);
+		}
+		pending.remove(elt);
+	}
+
+	/**
+	 * Marks the bounds of the given element as out of date. Has no effect on
+	 * elements that are not in the index.
+	 */
+	void update(VElement elt) {
+		if (entries.containsKey(elt)) {
+			pending.add(elt);
+		}
+	}
+
+	/**
+	 * Removes all elements.
+	 */
+	void clear() {
+		cells.clear();
+		entries.clear();
+		large.clear();
+		pending.clear();
+	}
+
+	/**
+	 * @return true if the given element is in the index.
+	 */
+	boolean contains(VElement elt) {
+		return entries.containsKey(elt);
+	}
+
+	/**
+	 * @return the number of indexed elements.
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns all candidate elements with bounds that may contain the given point
+	 * (in view coordinates). The result contains no duplicates and is in no
+	 * particular order.
+	 */
+	List<VElement> query(Point2D vp) {
+		flush();
+		List<VElement> result = new ArrayList<VElement>(large);
+		List<VElement> cell = cells.get(key(cell(vp.getX()), cell(vp.getY())));
+		if (cell != null) {
+			result.addAll(cell);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns all candidate elements with bounds that may intersect the given
+	 * rectangle (in view coordinates). The result contains no duplicates and is in
+	 * no particular order.
+	 */
+	List<VElement> query(Rectangle2D vr) {
+		flush();
+		int x0 = cell(vr.getMinX());
+		int y0 = cell(vr.getMinY());
+		int x1 = cell(vr.getMaxX());
+		int y1 = cell(vr.getMaxY());
+		if (((long) x1 - x0 + 1) * ((long) y1 - y0 + 1) > cells.size()) {
+			// cheaper to go over the occupied cells than over the queried ones
+			return queryOccupied(x0, y0, x1, y1);
+		}
+		Set<VElement> result = Collections.newSetFromMap(new IdentityHashMap<VElement, Boolean>());
+		result.addAll(large);
+		for (int x = x0; x <= x1; x++) {
+			for (int y = y0; y <= y1; y++) {
+				List<VElement> cell = cells.get(key(x, y));
+				if (cell != null) {
+					result.addAll(cell);
+				}
+			}
+		}
+		return new ArrayList<VElement>(result);
+	}
+
+	private List<VElement> queryOccupied(int x0, int y0, int x1, int y1) {
+		List<VElement> result = new ArrayList<VElement>(large);
+		for (Map.Entry<VElement, int[]> e : entries.entrySet()) {
+			int[] r = e.getValue();
+			if (r != null && r[0] <= x1 && r[2] >= x0 && r[1] <= y1 && r[3] >= y0) {
+				result.add(e.getKey());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Re-indexes all pending elements.
+	 */
+	void flush() {
+		if (pending.isEmpty()) {
+			return;
+		}
+		for (VElement elt : pending) {
+			unplace(elt);
+			if (elt.toBeRemoved()) {
+				entries.remove(elt);
+			} else {
+				place(elt);
+			}
+		}
+		pending.clear();
+	}
+
+	private void place(VElement elt) {
+		Rectangle2D b = elt.getVBounds();
+		double minX = b.getMinX(), minY = b.getMinY(), maxX = b.getMaxX(), maxY = b.getMaxY();
+		if (!isFinite(minX) || !isFinite(minY) || !isFinite(maxX) || !isFinite(maxY)) {
+			large.add(elt);
+			entries.put(elt, null);
+			return;
+		}
+		int[] r = new int[] { cell(minX), cell(minY), cell(maxX), cell(maxY) };
+		if (((long) r[2] - r[0] + 1) * ((long) r[3] - r[1] + 1) > MAX_CELLS) {
+			large.add(elt);
+			entries.put(elt, null);
+			return;
+		}
+		for (int x = r[0]; x <= r[2]; x++) {
+			for (int y = r[1]; y <= r[3]; y++) {
+				Long k = key(x, y);
+				List<VElement> cell = cells.get(k);
+				if (cell == null) {
+					cell = new ArrayList<VElement>(4);
+					cells.put(k, cell);
+				}
+				cell.add(elt);
+			}
+		}
+		entries.put(elt, r);
+	}
+
+	private void unplace(VElement elt) {
+		large.remove(elt);
+		int[] r = entries.get(elt);
+		if (r == null) {
+			return;
+		}
+		for (int x = r[0]; x <= r[2]; x++) {
+			for (int y = r[1]; y <= r[3]; y++) {
+				Long k = key(x, y);
+				List<VElement> cell = cells.get(k);
+				if (cell != null) {
+					cell.remove(elt);
+					if (cell.isEmpty()) {
+						cells.remove(k);
+					}
+				}
+			}
+		}
+		entries.put(elt, null);
+	}
+
+	/**
+	 * @param v a view coordinate.
+	 * @return the grid cell for the given view coordinate.
+	 */
+	private int cell(double v) {
+		double m = canvas.mFromV(v) / CELL_SIZE;
+		if (m >= Integer.MAX_VALUE) {
+			return Integer.MAX_VALUE - 1;
+		} else if (m <= Integer.MIN_VALUE) {
+			return Integer.MIN_VALUE + 1;
+		}
+		return (int) Math.floor(m);
+	}
+
+	/**
+	 * The key of a cell. The column is scrambled into the lower half, because
+	 * {@link Long#hashCode()} xors both halves: with the plain row and column,
+	 * all cells on a diagonal would end up in the same hash bucket.
+	 */
+	static Long key(int x, int y) {
+		return ((long) x << 32) | ((y ^ (x * 0x9E3779B9)) & 0xffffffffL);
+	}
+
+	private static boolean isFinite(double d) {
+		return !Double.isNaN(d) && !Double.isInfinite(d);
+	}
+}
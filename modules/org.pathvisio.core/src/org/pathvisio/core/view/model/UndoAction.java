@@ -1,13 +1,13 @@
 /*******************************************************************************
  * PathVisio, a tool for data visualization and analysis using biological pathways
  * Copyright 2006-2022 BiGCaT Bioinformatics, WikiPathways
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License.  You may obtain a copy
  * of the License at
- * 
+ *
  *   http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
@@ -16,52 +16,200 @@
  ******************************************************************************/
 package org.pathvisio.core.view.model;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 import org.pathvisio.libgpml.model.PathwayModel;
+import org.pathvisio.libgpml.model.PathwayObject;
 
 /**
- * a single item on the undo stack. Stores a complete copy of the Pathway as it
- * was before the user modified it, so it can be restored.
+ * a single item on the undo stack. Holds the changes that were made to the
+ * pathway after it was created, see {@link UndoManager#newAction(String)}. Undo
+ * and redo apply these changes in place, so the cost of an action depends on
+ * the size of the change, not on the size of the pathway.
  *
  * TODO: remember selection state as well.
  */
 public class UndoAction {
 
-	public UndoAction(String aMessage, PathwayModel current) {
+	private UndoAction(String aMessage, PathwayModel pathwayModel) {
 		message = aMessage;
-		originalState = current;
+		this.pathwayModel = pathwayModel;
+	}
+
+	/**
+	 * Creates an action that holds the changes made to the given pathway model.
+	 * The changes are added by an {@link UndoRecorder}.
+	 */
+	static UndoAction recorded(String aMessage, PathwayModel pathwayModel) {
+		return new UndoAction(aMessage, pathwayModel);
 	}
 
 	private String message;
-	private PathwayModel originalState;
+	/** estimated size in bytes, or -1 if not known */
+	private long size = -1;
 	private UndoManager undoMgr;
 
+	/** the pathway model the changes were recorded on */
+	private final PathwayModel pathwayModel;
+	private final List<UndoChange> changes = new ArrayList<UndoChange>();
+	/** last property change per object and key, to merge changes of a value */
+	private final Map<PathwayObject, Map<Object, UndoChange.Property>> latest = new IdentityHashMap<PathwayObject, Map<Object, UndoChange.Property>>();
+
 	/**
 	 * Set the undo manager that will be used to perform the undo. This will be set
 	 * by {@link UndoManager#newAction}
-	 * 
+	 *
 	 * @param undoMgr
 	 */
 	protected void setUndoManager(UndoManager undoMgr) {
 		this.undoMgr = undoMgr;
 	}
 
+	/**
+	 * @return true if this action was inserted in the undo queue.
+	 */
+	boolean isInserted() {
+		return undoMgr != null;
+	}
+
 	public String getMessage() {
 		return message;
 	}
 
+	void setMessage(String message) {
+		this.message = message;
+	}
+
+	/**
+	 * @return the pathway model the changes were recorded on.
+	 */
+	PathwayModel getPathwayModel() {
+		return pathwayModel;
+	}
+
+	/**
+	 * @return true if this action can be applied to the given pathway model.
+	 */
+	boolean appliesTo(PathwayModel model) {
+		return pathwayModel == model;
+	}
+
+	/**
+	 * @return true if this action has no changes.
+	 */
+	boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+	/**
+	 * @return the number of recorded changes.
+	 */
+	int getChangeCount() {
+		return changes.size();
+	}
+
+	/**
+	 * Adds a recorded change. A property change is merged with an earlier change
+	 * of the same property, unless objects were added or removed in between.
+	 */
+	void add(UndoChange change) {
+		if (change instanceof UndoChange.Property) {
+			UndoChange.Property p = (UndoChange.Property) change;
+			Map<Object, UndoChange.Property> byKey = latest.get(p.object);
+			if (byKey == null) {
+				byKey = new HashMap<Object, UndoChange.Property>(4);
+				latest.put(p.object, byKey);
+			}
+			UndoChange.Property previous = byKey.get(p.key);
+			if (previous != null) {
+				previous.newValue = p.newValue;
+				size = -1;
+				return;
+			}
+			byKey.put(p.key, p);
+		} else {
+			latest.clear();
+		}
+		changes.add(change);
+		size = -1;
+	}
+
+	/**
+	 * Appends the changes of the given action, which was recorded later on the
+	 * same pathway model.
+	 */
+	void addAll(UndoAction later) {
+		changes.addAll(later.changes);
+		compact();
+	}
+
+	/**
+	 * Called when no more changes are recorded. Drops changes that were undone
+	 * within the action itself.
+	 */
+	void compact() {
+		latest.clear();
+		for (Iterator<UndoChange> i = changes.iterator(); i.hasNext();) {
+			if (i.next().isEmpty()) {
+				i.remove();
+			}
+		}
+		((ArrayList<UndoChange>) changes).trimToSize();
+		size = -1;
+	}
+
+	/** estimated size of an action, without its changes */
+	private static final int ACTION_SIZE = 64;
+
+	/**
+	 * Returns a rough estimate of the memory held by this action, in bytes.
+	 *
+	 * @return the estimated size.
+	 */
+	long getSize() {
+		if (size < 0) {
+			size = ACTION_SIZE;
+			for (UndoChange c : changes) {
+				size += c.estimateSize();
+			}
+		}
+		return size;
+	}
+
+	void undoChanges() {
+		for (int i = changes.size() - 1; i >= 0; i--) {
+			changes.get(i).undo();
+		}
+	}
+
+	void redoChanges() {
+		for (UndoChange c : changes) {
+			c.redo();
+		}
+	}
+
 	void printSummary() {
 		System.out.printf("'%20s'\n", message);
-		System.out.print("" + originalState.summary());
+		System.out.println(changes.size() + " changes");
 	}
 
 	public void undo() {
-		// TODO
-//		UndoManager um = Engine.getCurrent().getActiveVPathway().getUndoManager();
-//		Engine.getCurrent().createVPathway(originalState);
-//		Engine.getCurrent().getActiveVPathway().setUndoManager(um);
+		if (undoMgr != null) {
+			undoMgr.apply(this, true);
+		}
+	}
 
+	/**
+	 * Applies this action again after it was undone.
+	 */
+	public void redo() {
 		if (undoMgr != null) {
-			undoMgr.getEngine().replacePathwayModel(originalState);
+			undoMgr.apply(this, false);
 		}
 	}
 }
@@ -0,0 +1,759 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2022 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.view.model;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import org.pathvisio.libgpml.model.Annotation;
+import org.pathvisio.libgpml.model.Citation;
+import org.pathvisio.libgpml.model.DataNode;
+import org.pathvisio.libgpml.model.DataNode.State;
+import org.pathvisio.libgpml.model.Evidence;
+import org.pathvisio.libgpml.model.GraphLink.LinkableTo;
+import org.pathvisio.libgpml.model.Group;
+import org.pathvisio.libgpml.model.Groupable;
+import org.pathvisio.libgpml.model.LineElement;
+import org.pathvisio.libgpml.model.LineElement.Anchor;
+import org.pathvisio.libgpml.model.LineElement.LinePoint;
+import org.pathvisio.libgpml.model.PathwayElement;
+import org.pathvisio.libgpml.model.PathwayElement.AnnotationRef;
+import org.pathvisio.libgpml.model.PathwayElement.CitationRef;
+import org.pathvisio.libgpml.model.PathwayElement.EvidenceRef;
+import org.pathvisio.libgpml.model.PathwayModel;
+import org.pathvisio.libgpml.model.PathwayObject;
+import org.pathvisio.libgpml.model.Referenceable;
+import org.pathvisio.libgpml.model.Referenceable.Annotatable;
+import org.pathvisio.libgpml.model.Referenceable.Citable;
+import org.pathvisio.libgpml.model.Referenceable.Evidenceable;
+import org.pathvisio.libgpml.model.type.AnchorShapeType;
+import org.pathvisio.libgpml.prop.StaticProperty;
+
+/**
+ * A single change recorded in an {@link UndoAction}: a property of a pathway
+ * object that got a new value, or a pathway object that was added or removed.
+ * Changes are applied in place on the pathway model they were recorded on.
+ * <p>
+ * This class also defines which values of a pathway object are recorded, see
+ * {@link #keys(PathwayObject)}. Next to the static properties that can be set
+ * back, these are the line points of a line, the position of an anchor and the
+ * content of an annotation, citation or evidence. Values that are derived from
+ * other objects, like the bounds of a group or the position of a state, are
+ * left out.
+ * <p>
+ * An object that is added again gets a new element id from the pathway model.
+ * libgpml has no public way to set the id it had.
+ */
+abstract class UndoChange {
+
+	/** values that are recorded in addition to the static properties */
+	enum Key {
+		/** the line points of a line, see {@link PointState} */
+		POINTS,
+		/** the position of an anchor on its line */
+		ANCHOR_POSITION,
+		/** the content of an annotation, citation or evidence, see {@link Content} */
+		CONTENT
+	}
+
+	/** the pathway object that changed */
+	final PathwayObject object;
+
+	UndoChange(PathwayObject object) {
+		this.object = object;
+	}
+
+	/** Reverts this change. */
+	abstract void undo();
+
+	/** Applies this change again after {@link #undo()}. */
+	abstract void redo();
+
+	/**
+	 * @return true if this change has no effect.
+	 */
+	boolean isEmpty() {
+		return false;
+	}
+
+	/**
+	 * @return a rough estimate of the memory held by this change, in bytes.
+	 */
+	abstract long estimateSize();
+
+	/** estimated size of a change, without its values */
+	static final int CHANGE_SIZE = 32;
+	/** estimated size of a pathway object that is kept by a structural change */
+	static final int OBJECT_SIZE = 400;
+
+	/**
+	 * @return a rough estimate of the memory held by a recorded value, in bytes.
+	 */
+	static long estimateSize(Object value) {
+		if (value instanceof String) {
+			return 40 + 2 * ((String) value).length();
+		} else if (value instanceof PointState[]) {
+			return 16 + 64 * ((PointState[]) value).length;
+		} else if (value instanceof List<?>) {
+			return 24 + 48 * ((List<?>) value).size();
+		} else if (value instanceof Content) {
+			return OBJECT_SIZE; // holds a detached copy
+		} else if (value != null) {
+			return 16;
+		}
+		return 0;
+	}
+
+	// ================================================================================
+	// Property changes
+	// ================================================================================
+	/**
+	 * A recorded value of a pathway object that changed. Successive changes of
+	 * the same value within one action are merged, so only the first old value
+	 * and the last new value are kept.
+	 */
+	static class Property extends UndoChange {
+		final Object key;
+		final Object oldValue;
+		Object newValue;
+
+		Property(PathwayObject object, Object key, Object oldValue, Object newValue) {
+			super(object);
+			this.key = key;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+		}
+
+		@Override
+		void undo() {
+			write(object, key, oldValue);
+		}
+
+		@Override
+		void redo() {
+			write(object, key, newValue);
+		}
+
+		@Override
+		boolean isEmpty() {
+			return Objects.deepEquals(oldValue, newValue);
+		}
+
+		@Override
+		long estimateSize() {
+			return CHANGE_SIZE + estimateSize(oldValue) + estimateSize(newValue);
+		}
+	}
+
+	// ================================================================================
+	// Structural changes
+	// ================================================================================
+	/**
+	 * A pathway object that was added to or removed from the pathway model. The
+	 * object itself is kept, so that undo and redo add and remove the same
+	 * instance.
+	 * <p>
+	 * The pathway model strips a removed object of its references. These are
+	 * recorded as separate property changes just before the removal, so that
+	 * undoing them in reverse order restores the references after the object
+	 * is added again. A removed line also loses its line points, those are kept
+	 * here.
+	 */
+	static class Structure extends UndoChange {
+		final boolean added;
+		final PathwayModel pathwayModel;
+		private PointState[] points;
+
+		/**
+		 * @param object       the added or removed object.
+		 * @param added        true if the object was added.
+		 * @param pathwayModel the pathway model.
+		 * @param points       for a line that was removed, its line points before
+		 *                     the removal.
+		 */
+		Structure(PathwayObject object, boolean added, PathwayModel pathwayModel, PointState[] points) {
+			super(object);
+			this.added = added;
+			this.pathwayModel = pathwayModel;
+			this.points = points;
+		}
+
+		@Override
+		void undo() {
+			if (added) {
+				remove();
+			} else {
+				add();
+			}
+		}
+
+		@Override
+		void redo() {
+			if (added) {
+				add();
+			} else {
+				remove();
+			}
+		}
+
+		private void add() {
+			if (object.getPathwayModel() != null) {
+				return; // already there
+			}
+			if (object instanceof State) {
+				State state = (State) object;
+				state.getDataNode().addState(state);
+			} else if (object instanceof Anchor) {
+				Anchor anchor = (Anchor) object;
+				anchor.getLineElement().addAnchor(anchor);
+			} else {
+				if (object instanceof LineElement && points != null) {
+					LineElement line = (LineElement) object;
+					List<LinePoint> linePoints = new ArrayList<LinePoint>(points.length);
+					for (PointState p : points) {
+						linePoints.add(line.new LinePoint(p.x, p.y));
+					}
+					line.setLinePoints(linePoints);
+				}
+				pathwayModel.add(object);
+			}
+		}
+
+		private void remove() {
+			if (object.getPathwayModel() != pathwayModel) {
+				return; // already gone
+			}
+			if (object instanceof LineElement) {
+				// the points are dropped on removal, keep them for a later add
+				points = readPoints((LineElement) object);
+			}
+			if (object instanceof Anchor) {
+				Anchor anchor = (Anchor) object;
+				anchor.getLineElement().removeAnchor(anchor);
+			} else {
+				pathwayModel.remove(object);
+			}
+		}
+
+		/**
+		 * Counts the object itself, which is only held by this change while it
+		 * is not in the pathway model.
+		 */
+		@Override
+		long estimateSize() {
+			return CHANGE_SIZE + OBJECT_SIZE + estimateSize(points);
+		}
+	}
+
+	// ================================================================================
+	// Recorded values
+	// ================================================================================
+	/**
+	 * The state of a line point. A point that is linked to another object is
+	 * described by the link only, because its coordinates follow that object.
+	 */
+	static final class PointState {
+		final double x;
+		final double y;
+		final LinkableTo ref;
+		final double relX;
+		final double relY;
+
+		PointState(LinePoint p) {
+			ref = p.getElementRef();
+			relX = ref == null ? 0 : p.getRelX();
+			relY = ref == null ? 0 : p.getRelY();
+			// the coordinates of a linked point are used when its line is added
+			// again. LinePoint.getX() looks the linked object up in the whole
+			// pathway model, so compute them from the link instead.
+			PathwayModel model = ref instanceof PathwayObject ? ((PathwayObject) ref).getPathwayModel() : null;
+			if (model != null && model == p.getLineElement().getPathwayModel()) {
+				Point2D abs = ref.toAbsoluteCoordinate(new Point2D.Double(relX, relY));
+				x = abs.getX();
+				y = abs.getY();
+			} else {
+				x = p.getX();
+				y = p.getY();
+			}
+		}
+
+		/**
+		 * Moves or links the given point so that it matches this state.
+		 */
+		void applyTo(LinePoint p) {
+			if (ref instanceof PathwayObject
+					&& ((PathwayObject) ref).getPathwayModel() == p.getLineElement().getPathwayModel()) {
+				if (p.getElementRef() != ref || p.getRelX() != relX || p.getRelY() != relY) {
+					p.linkTo(ref, relX, relY);
+				}
+			} else {
+				if (p.getElementRef() != null) {
+					p.unlink();
+				}
+				if (p.getX() != x || p.getY() != y) {
+					p.moveTo(x, y);
+				}
+			}
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof PointState)) {
+				return false;
+			}
+			PointState other = (PointState) obj;
+			if (ref != other.ref) {
+				return false;
+			}
+			if (ref == null) {
+				return x == other.x && y == other.y;
+			}
+			return relX == other.relX && relY == other.relY;
+		}
+
+		@Override
+		public int hashCode() {
+			if (ref == null) {
+				return Double.hashCode(x) * 31 + Double.hashCode(y);
+			}
+			return System.identityHashCode(ref) * 31 + Double.hashCode(relX) * 7 + Double.hashCode(relY);
+		}
+	}
+
+	/**
+	 * Returns the keys of the values that are recorded for the given object, or
+	 * null if changes of this object are not recorded. The result only depends
+	 * on the class of the object.
+	 *
+	 * @param o the pathway object.
+	 * @return an array of {@link StaticProperty} and {@link Key} values, or null.
+	 */
+	static Object[] keys(PathwayObject o) {
+		if (o instanceof Anchor) {
+			return new Object[] { Key.ANCHOR_POSITION, StaticProperty.ANCHORSHAPETYPE };
+		}
+		if (o instanceof Annotation || o instanceof Citation || o instanceof Evidence) {
+			return new Object[] { Key.CONTENT };
+		}
+		if (!(o instanceof PathwayElement)) {
+			return null; // line points
+		}
+		List<Object> result = new ArrayList<Object>();
+		for (StaticProperty p : o.getStaticPropertyKeys()) {
+			if (!isDerived(o, p)) {
+				result.add(p);
+			}
+		}
+		if (o instanceof LineElement) {
+			result.add(Key.POINTS);
+		}
+		return result.toArray();
+	}
+
+	/**
+	 * @return true if the given property can not be set back, or follows from
+	 *         other objects.
+	 */
+	private static boolean isDerived(PathwayObject o, StaticProperty p) {
+		switch (p) {
+		case ELEMENTID:
+		case BOARDWIDTH:
+		case BOARDHEIGHT:
+			return true;
+		case STARTX:
+		case STARTY:
+		case ENDX:
+		case ENDY:
+		case STARTELEMENTREF:
+		case ENDELEMENTREF:
+			return o instanceof LineElement; // part of Key.POINTS
+		case CENTERX:
+		case CENTERY:
+			return o instanceof Group || o instanceof State;
+		case WIDTH:
+		case HEIGHT:
+			return o instanceof Group;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Reads a recorded value. Mutable values are copied.
+	 *
+	 * @param o   the pathway object.
+	 * @param key one of the keys returned by {@link #keys(PathwayObject)}.
+	 * @return the current value.
+	 */
+	static Object read(PathwayObject o, Object key) {
+		if (key == Key.CONTENT) {
+			return new Content(o);
+		} else if (key == Key.POINTS) {
+			return readPoints((LineElement) o);
+		} else if (key == Key.ANCHOR_POSITION) {
+			return ((Anchor) o).getPosition();
+		} else if (key == StaticProperty.ANCHORSHAPETYPE) {
+			return ((Anchor) o).getShapeType();
+		}
+		PathwayElement e = (PathwayElement) o;
+		switch ((StaticProperty) key) {
+		case COMMENT:
+			return copy(e.getComments());
+		case ANNOTATIONREF:
+			return readRefs(e.getAnnotationRefs());
+		case CITATIONREF:
+			return readRefs(e.getCitationRefs());
+		case EVIDENCEREF:
+			return readRefs(e.getEvidenceRefs());
+		default:
+			return e.getStaticProperty((StaticProperty) key);
+		}
+	}
+
+	/**
+	 * Sets a recorded value back.
+	 *
+	 * @param o     the pathway object.
+	 * @param key   one of the keys returned by {@link #keys(PathwayObject)}.
+	 * @param value a value returned by {@link #read(PathwayObject, Object)}.
+	 */
+	@SuppressWarnings("unchecked")
+	static void write(PathwayObject o, Object key, Object value) {
+		if (key == Key.CONTENT) {
+			((Content) value).applyTo(o);
+			return;
+		} else if (key == Key.POINTS) {
+			writePoints((LineElement) o, (PointState[]) value);
+			return;
+		} else if (key == Key.ANCHOR_POSITION) {
+			((Anchor) o).setPosition((Double) value);
+			return;
+		} else if (key == StaticProperty.ANCHORSHAPETYPE) {
+			((Anchor) o).setShapeType((AnchorShapeType) value);
+			return;
+		}
+		PathwayElement e = (PathwayElement) o;
+		switch ((StaticProperty) key) {
+		case COMMENT:
+			e.setComments(new ArrayList<PathwayElement.Comment>((List<PathwayElement.Comment>) value));
+			break;
+		case ANNOTATIONREF:
+		case CITATIONREF:
+		case EVIDENCEREF:
+			writeRefs(e.getPathwayModel(), e, (StaticProperty) key, (List<RefState>) value);
+			break;
+		case GROUPREF:
+			Group group = (Group) value;
+			if (group == null) {
+				((Groupable) e).unsetGroupRef();
+			} else if (group.getPathwayModel() == e.getPathwayModel()) {
+				((Groupable) e).setGroupRefTo(group);
+			}
+			break;
+		case ALIASREF:
+			Group alias = (Group) value;
+			if (alias == null) {
+				((DataNode) e).unsetAliasRef();
+			} else if (alias.getPathwayModel() == e.getPathwayModel()) {
+				((DataNode) e).setAliasRef(alias);
+			}
+			break;
+		default:
+			e.setStaticProperty((StaticProperty) key, value);
+		}
+	}
+
+	private static <T> List<T> copy(List<T> list) {
+		return list.isEmpty() ? Collections.<T>emptyList() : new ArrayList<T>(list);
+	}
+
+	static PointState[] readPoints(LineElement line) {
+		List<LinePoint> points = line.getLinePoints();
+		PointState[] result = new PointState[points.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = new PointState(points.get(i));
+		}
+		return result;
+	}
+
+	private static void writePoints(LineElement line, PointState[] value) {
+		if (Arrays.equals(readPoints(line), value)) {
+			return;
+		}
+		List<LinePoint> points = line.getLinePoints();
+		if (points.size() != value.length) {
+			// waypoints were added or removed, start from new points
+			List<LinePoint> newPoints = new ArrayList<LinePoint>(value.length);
+			for (PointState p : value) {
+				newPoints.add(line.new LinePoint(p.x, p.y));
+			}
+			line.setLinePoints(newPoints);
+			points = line.getLinePoints();
+		}
+		for (int i = 0; i < value.length; i++) {
+			value[i].applyTo(points.get(i));
+		}
+	}
+
+	/**
+	 * The content of an annotation, citation or evidence. These have no public
+	 * setters, so the content is kept in a detached copy, and set back by
+	 * copying the values from that.
+	 */
+	static final class Content {
+		private final PathwayObject copy;
+		/** the values compared by {@link #equals(Object)} */
+		private final Object[] values;
+
+		Content(PathwayObject o) {
+			if (o instanceof Annotation) {
+				Annotation a = (Annotation) o;
+				copy = a.copyRef();
+				values = new Object[] { a.getValue(), a.getType(), a.getXref(), a.getUrlLink() };
+			} else if (o instanceof Citation) {
+				Citation c = (Citation) o;
+				copy = c.copyRef();
+				values = new Object[] { c.getXref(), c.getUrlLink(), c.getTitle(), c.getSource(), c.getYear(),
+						c.getAuthors() == null ? null : new ArrayList<String>(c.getAuthors()) };
+			} else {
+				Evidence ev = (Evidence) o;
+				copy = ev.copyRef();
+				values = new Object[] { ev.getValue(), ev.getXref(), ev.getUrlLink() };
+			}
+		}
+
+		void applyTo(PathwayObject o) {
+			if (equals(new Content(o))) {
+				return;
+			}
+			if (o instanceof Annotation) {
+				((Annotation) o).copyValuesFrom((Annotation) copy);
+			} else if (o instanceof Citation) {
+				((Citation) o).copyValuesFrom((Citation) copy);
+			} else {
+				((Evidence) o).copyValuesFrom((Evidence) copy);
+			}
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Content && Arrays.deepEquals(values, ((Content) obj).values);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.deepHashCode(values);
+		}
+	}
+
+	/**
+	 * A reference to an annotation, citation or evidence, with the references
+	 * nested in it: the citations and evidences of an annotation reference, and
+	 * the annotations of a citation reference. A reference can not be added
+	 * back, only the object it refers to, so the state is compared by that
+	 * object. An annotation, citation or evidence that is no longer referred to
+	 * is removed from the pathway model, and added again when it is restored.
+	 */
+	static final class RefState {
+		final PathwayObject target;
+		final List<RefState> nested;
+
+		RefState(PathwayObject target, List<RefState> nested) {
+			this.target = target;
+			this.nested = nested;
+		}
+
+		/**
+		 * Adds the referred object to the pathway model again, if it was removed.
+		 */
+		void restoreTarget(PathwayModel pathwayModel) {
+			if (target.getPathwayModel() == null && pathwayModel != null) {
+				pathwayModel.add(target);
+			}
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof RefState)) {
+				return false;
+			}
+			RefState other = (RefState) obj;
+			return target == other.target && nested.equals(other.nested);
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(target) * 31 + nested.hashCode();
+		}
+	}
+
+	private static List<RefState> readRefs(List<?> refs) {
+		if (refs.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<RefState> result = new ArrayList<RefState>(refs.size());
+		for (Object r : refs) {
+			if (r instanceof AnnotationRef) {
+				AnnotationRef a = (AnnotationRef) r;
+				if (a.getAnnotation() != null) {
+					List<RefState> nested = new ArrayList<RefState>(readRefs(a.getCitationRefs()));
+					nested.addAll(readRefs(a.getEvidenceRefs()));
+					result.add(new RefState(a.getAnnotation(), nested));
+				}
+			} else if (r instanceof CitationRef) {
+				CitationRef c = (CitationRef) r;
+				if (c.getCitation() != null) {
+					result.add(new RefState(c.getCitation(), readRefs(c.getAnnotationRefs())));
+				}
+			} else {
+				EvidenceRef ev = (EvidenceRef) r;
+				if (ev.getEvidence() != null) {
+					result.add(new RefState(ev.getEvidence(), Collections.<RefState>emptyList()));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Makes the given owner refer to exactly the objects of one kind in the
+	 * given states, and sets the references nested in those. Objects that were
+	 * removed from the pathway model are added again first.
+	 *
+	 * @param key {@link StaticProperty#ANNOTATIONREF},
+	 *            {@link StaticProperty#CITATIONREF} or
+	 *            {@link StaticProperty#EVIDENCEREF}.
+	 */
+	private static void writeRefs(PathwayModel pathwayModel, Referenceable owner, StaticProperty key,
+			List<RefState> value) {
+		List<RefState> states = new ArrayList<RefState>(value.size());
+		for (RefState s : value) {
+			if (key == StaticProperty.ANNOTATIONREF ? s.target instanceof Annotation
+					: key == StaticProperty.CITATIONREF ? s.target instanceof Citation
+							: s.target instanceof Evidence) {
+				s.restoreTarget(pathwayModel);
+				states.add(s);
+			}
+		}
+		switch (key) {
+		case ANNOTATIONREF:
+			List<Annotation> annotations = new ArrayList<Annotation>(states.size());
+			for (RefState s : states) {
+				annotations.add((Annotation) s.target);
+			}
+			setAnnotations((Annotatable) owner, annotations);
+			for (AnnotationRef r : ((Annotatable) owner).getAnnotationRefs()) {
+				RefState s = find(states, r.getAnnotation());
+				if (s != null) {
+					writeRefs(pathwayModel, r, StaticProperty.CITATIONREF, s.nested);
+					writeRefs(pathwayModel, r, StaticProperty.EVIDENCEREF, s.nested);
+				}
+			}
+			break;
+		case CITATIONREF:
+			List<Citation> citations = new ArrayList<Citation>(states.size());
+			for (RefState s : states) {
+				citations.add((Citation) s.target);
+			}
+			setCitations((Citable) owner, citations);
+			for (CitationRef r : ((Citable) owner).getCitationRefs()) {
+				RefState s = find(states, r.getCitation());
+				if (s != null) {
+					writeRefs(pathwayModel, r, StaticProperty.ANNOTATIONREF, s.nested);
+				}
+			}
+			break;
+		default:
+			List<Evidence> evidences = new ArrayList<Evidence>(states.size());
+			for (RefState s : states) {
+				evidences.add((Evidence) s.target);
+			}
+			setEvidences((Evidenceable) owner, evidences);
+			break;
+		}
+	}
+
+	private static RefState find(List<RefState> states, PathwayObject target) {
+		for (RefState s : states) {
+			if (s.target == target) {
+				return s;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Makes the given owner refer to exactly the given annotations, keeping
+	 * the references it already has to them.
+	 */
+	private static void setAnnotations(Annotatable e, List<Annotation> value) {
+		Set<Object> target = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		target.addAll(value);
+		for (AnnotationRef r : new ArrayList<AnnotationRef>(e.getAnnotationRefs())) {
+			if (!target.remove(r.getAnnotation())) {
+				e.removeAnnotationRef(r);
+			}
+		}
+		for (Annotation a : value) {
+			if (target.remove(a)) {
+				e.addAnnotation(a);
+			}
+		}
+	}
+
+	/**
+	 * @see #setAnnotations(Annotatable, List)
+	 */
+	private static void setCitations(Citable e, List<Citation> value) {
+		Set<Object> target = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		target.addAll(value);
+		for (CitationRef r : new ArrayList<CitationRef>(e.getCitationRefs())) {
+			if (!target.remove(r.getCitation())) {
+				e.removeCitationRef(r);
+			}
+		}
+		for (Citation c : value) {
+			if (target.remove(c)) {
+				e.addCitation(c);
+			}
+		}
+	}
+
+	/**
+	 * @see #setAnnotations(Annotatable, List)
+	 */
+	private static void setEvidences(Evidenceable e, List<Evidence> value) {
+		Set<Object> target = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		target.addAll(value);
+		for (EvidenceRef r : new ArrayList<EvidenceRef>(e.getEvidenceRefs())) {
+			if (!target.remove(r.getEvidence())) {
+				e.removeEvidenceRef(r);
+			}
+		}
+		for (Evidence ev : value) {
+			if (target.remove(ev)) {
+				e.addEvidence(ev);
+			}
+		}
+	}
+}
@@ -17,21 +17,61 @@
 package org.pathvisio.core.view.model;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.pathvisio.core.Engine;
+import org.pathvisio.core.preferences.GlobalPreference;
+import org.pathvisio.core.preferences.PreferenceManager;
 import org.pathvisio.libgpml.model.PathwayModel;
 
-/** Manages a stack of undo actions */
+/**
+ * Manages a stack of undo actions, and a stack of redo actions.
+ * <p>
+ * While the undo manager is active, it records the changes made to the pathway
+ * model into the most recent action, see {@link #newAction(String)}. After an
+ * undo or redo, it records into the action that is then the last one, so that
+ * undoing that still restores the state from before it.
+ */
 public class UndoManager {
 	public static final String CANT_UNDO = "Can't undo";
+	public static final String CANT_REDO = "Can't redo";
 
 	private List<UndoAction> undoList = new ArrayList<UndoAction>();
+	private List<UndoAction> redoList = new ArrayList<UndoAction>();
 
 	private PathwayModel pathwayModel;
 
+	private final UndoRecorder recorder = new UndoRecorder(this);
+
+	/**
+	 * Sets the pathway model to record. If it replaces another pathway model, the
+	 * actions recorded on that one are dropped, because they can not be applied
+	 * anymore.
+	 *
+	 * @param pathway the pathway model.
+	 */
 	public void setPathwayModel(PathwayModel pathway) {
 		this.pathwayModel = pathway;
+		dropInapplicable(undoList);
+		dropInapplicable(redoList);
+		if (isActive() && pathway != null) {
+			recorder.attach(pathway);
+		} else {
+			recorder.detach();
+		}
+	}
+
+	PathwayModel getPathwayModel() {
+		return pathwayModel;
+	}
+
+	private void dropInapplicable(List<UndoAction> actions) {
+		for (Iterator<UndoAction> i = actions.iterator(); i.hasNext();) {
+			if (!i.next().appliesTo(pathwayModel)) {
+				i.remove();
+			}
+		}
 	}
 
 	private Engine engine;
@@ -54,6 +94,9 @@ public boolean isActive() {
 	 */
 	public void activate(Engine engine) {
 		this.engine = engine;
+		if (pathwayModel != null) {
+			recorder.attach(pathwayModel);
+		}
 	}
 
 	/**
@@ -66,47 +109,195 @@ protected Engine getEngine() {
 		return engine;
 	}
 
-	static final int MAX_UNDO_SIZE = 25;
-
 	/**
 	 * Insert a new action into the Undo Queue based on an UndoAction object that
-	 * already contains a copy of the original state of the pathway. This way you
-	 * can actually record the action after the pathway has already modified, useful
-	 * for collapsing multiple drag events into one action.
+	 * was created by {@link #startAction(String)} before the pathway was
+	 * modified. This way you can actually record the action after the pathway has
+	 * already modified, useful for collapsing multiple drag events into one
+	 * action. The action keeps recording until the next one.
 	 * 
-	 * @param act: UndoAction containing pre-recorded pathway state and description
-	 *             of the action.
+	 * @param act: UndoAction containing pre-recorded changes and description of
+	 *             the action.
 	 */
 	public void newAction(UndoAction act) {
-		if (!isActive())
+		if (!isActive() || !acceptAction()) {
+			dropAction(act);
 			return; // Don' record event if inactive
+		}
+
+		if (act != recorder.getRecording()) {
+			recorder.record(act);
+		}
+		addAction(act);
+	}
 
+	private void addAction(UndoAction act) {
 		act.setUndoManager(this);
 		undoList.add(act);
-		if (undoList.size() > MAX_UNDO_SIZE) {
-			undoList.remove(0);
+		redoList.clear();
+		limitHistory();
+		fireUndoManagerEvent();
+	}
+
+	/**
+	 * Drops the oldest actions until the history fits in the budget set by
+	 * {@link GlobalPreference#UNDO_HISTORY_SIZE}. The last action is always kept.
+	 */
+	private void limitHistory() {
+		long budget = PreferenceManager.getCurrent().getInt(GlobalPreference.UNDO_HISTORY_SIZE) * 1024L * 1024L;
+		long size = getHistorySize();
+		while (size > budget && undoList.size() > 1) {
+			size -= undoList.remove(0).getSize();
+		}
+	}
+
+	/**
+	 * Returns the estimated memory used by the undo history, including the
+	 * actions that can be redone. The budget for this is set by
+	 * {@link GlobalPreference#UNDO_HISTORY_SIZE}.
+	 *
+	 * @return the estimated size in bytes.
+	 */
+	public long getHistorySize() {
+		long result = 0;
+		for (UndoAction a : undoList) {
+			result += a.getSize();
+		}
+		for (UndoAction a : redoList) {
+			result += a.getSize();
 		}
-		fireUndoManagerEvent(new UndoManagerEvent(getTopMessage()));
+		return result;
 	}
 
 	/**
-	 * Insert a new action into the Undo Queue. This method will make a copy of the
-	 * current state of the pathway, so call this method before the action actually
-	 * takes place.
+	 * Insert a new action into the Undo Queue. The changes made to the pathway
+	 * from now on, until the next action, are recorded in this action. So call
+	 * this method before the action actually takes place.
 	 * 
 	 * @param desc: description of the change, for display in the edit menu.
 	 */
 	public void newAction(String desc) {
-		if (!isActive())
+		if (!isActive() || !acceptAction())
 			return; // Don' record event if inactive
 
 		if (pathwayModel != null) {
-			UndoAction x = new UndoAction(desc, (PathwayModel) pathwayModel.clone());
-			x.setUndoManager(this);
-			newAction(x);
+			UndoAction x = UndoAction.recorded(desc, pathwayModel);
+			recorder.record(x);
+			addAction(x);
+		}
+	}
+
+	/**
+	 * Starts an action without inserting it into the Undo Queue yet. The changes
+	 * made to the pathway from now on are recorded in the returned action. Pass
+	 * it to {@link #newAction(UndoAction)} to insert it, or to
+	 * {@link #dropAction(UndoAction)} if the pathway was not modified. Changes
+	 * that are recorded in an action that is never inserted are added to the
+	 * previous action.
+	 * 
+	 * @param desc: description of the change, for display in the edit menu.
+	 * @return the new action.
+	 */
+	public UndoAction startAction(String desc) {
+		UndoAction x = UndoAction.recorded(desc, pathwayModel);
+		if (isActive() && pathwayModel != null) {
+			recorder.record(x);
+		}
+		return x;
+	}
+
+	/**
+	 * Stops recording into the given action, if it still is, and records into
+	 * the last action again. Use this for an action from
+	 * {@link #startAction(String)} that is not going to be inserted.
+	 * 
+	 * @param act the action.
+	 */
+	public void dropAction(UndoAction act) {
+		if (act != null && recorder.getRecording() == act) {
+			recorder.stop();
+			resume();
+		}
+	}
+
+	/**
+	 * @return the number of values the recorder has read, for testing.
+	 */
+	long getReadCount() {
+		return recorder.getReadCount();
+	}
+
+	/**
+	 * Called when an action stops recording before it was inserted. Its changes
+	 * are added to the last action, so that undoing that one still restores the
+	 * state from before it.
+	 */
+	void orphaned(UndoAction act) {
+		if (undoList.size() > 0) {
+			UndoAction last = undoList.get(undoList.size() - 1);
+			if (last.appliesTo(act.getPathwayModel())) {
+				last.addAll(act);
+			}
 		}
 	}
 
+	/**
+	 * Called when the pathway is modified, other than by undo or redo, whether
+	 * the change is recorded or not. The undone actions can not be redone after
+	 * that.
+	 */
+	void modified() {
+		if (!redoList.isEmpty()) {
+			redoList.clear();
+			fireUndoManagerEvent();
+		}
+	}
+
+	private int transactionDepth = 0;
+	private boolean transactionRecorded = false;
+
+	/**
+	 * Starts a transaction. Of the actions inserted until the matching
+	 * {@link #endTransaction()}, only the first one is recorded, so that a change
+	 * made of several actions is undone in a single step. Transactions can be
+	 * nested.
+	 * 
+	 * @param desc description of the change, or null to use the description of
+	 *             the first action inserted during the transaction.
+	 */
+	public void beginTransaction(String desc) {
+		if (transactionDepth++ == 0) {
+			transactionRecorded = false;
+		}
+		if (desc != null) {
+			newAction(desc);
+		}
+	}
+
+	/**
+	 * Ends a transaction started with {@link #beginTransaction(String)}.
+	 */
+	public void endTransaction() {
+		if (transactionDepth > 0) {
+			transactionDepth--;
+		}
+	}
+
+	/**
+	 * @return false if an action was already recorded for the current
+	 *         transaction.
+	 */
+	private boolean acceptAction() {
+		if (transactionDepth == 0) {
+			return true;
+		}
+		if (transactionRecorded) {
+			return false;
+		}
+		transactionRecorded = true;
+		return true;
+	}
+
 	public String getTopMessage() {
 		String result;
 		if (undoList.size() == 0) {
@@ -117,12 +308,78 @@ public String getTopMessage() {
 		return result;
 	}
 
+	/**
+	 * @return the description of the action that would be redone, or
+	 *         {@link #CANT_REDO}.
+	 */
+	public String getRedoMessage() {
+		String result;
+		if (redoList.size() == 0) {
+			result = CANT_REDO;
+		} else {
+			result = redoList.get(redoList.size() - 1).getMessage();
+		}
+		return result;
+	}
+
 	void undo() {
 		if (undoList.size() > 0 && isActive()) {
-			UndoAction a = undoList.get(undoList.size() - 1);
+			recorder.stop();
+			UndoAction a = undoList.remove(undoList.size() - 1);
 			a.undo();
-			undoList.remove(a);
-			fireUndoManagerEvent(new UndoManagerEvent(getTopMessage()));
+			if (a.appliesTo(pathwayModel)) {
+				redoList.add(a);
+			}
+			limitHistory();
+			resume();
+			fireUndoManagerEvent();
+		}
+	}
+
+	void redo() {
+		if (redoList.size() > 0 && isActive()) {
+			recorder.stop();
+			UndoAction a = redoList.remove(redoList.size() - 1);
+			a.redo();
+			if (a.appliesTo(pathwayModel)) {
+				undoList.add(a);
+			}
+			limitHistory();
+			resume();
+			fireUndoManagerEvent();
+		}
+	}
+
+	/**
+	 * Records further changes into the last action again, so that undoing it
+	 * still restores the state from before it.
+	 */
+	private void resume() {
+		if (undoList.size() > 0) {
+			UndoAction last = undoList.get(undoList.size() - 1);
+			if (last.appliesTo(pathwayModel)) {
+				recorder.record(last);
+			}
+		}
+	}
+
+	/**
+	 * Applies the recorded changes of an action, see {@link UndoAction#undo()}.
+	 */
+	void apply(UndoAction act, boolean undo) {
+		VPathwayModel vPathway = engine.getActiveVPathwayModel();
+		if (vPathway != null && vPathway.getPathwayModel() != pathwayModel) {
+			vPathway = null;
+		}
+		if (vPathway != null) {
+			vPathway.beginUpdate();
+		}
+		try {
+			recorder.apply(act, undo);
+		} finally {
+			if (vPathway != null) {
+				vPathway.endUpdate();
+			}
 		}
 	}
 
@@ -140,6 +397,10 @@ public void removeListener(UndoManagerListener v) {
 	 * This is called whenever a new item is added to the Undo Manager, or when an
 	 * undo action takes place. mainly intended for the menu item to update itself.
 	 */
+	void fireUndoManagerEvent() {
+		fireUndoManagerEvent(new UndoManagerEvent(getTopMessage(), getRedoMessage()));
+	}
+
 	void fireUndoManagerEvent(UndoManagerEvent e) {
 		// printSummary();
 		for (UndoManagerListener g : listeners) {
@@ -151,7 +412,9 @@ void fireUndoManagerEvent(UndoManagerEvent e) {
 
 	public void dispose() {
 		assert (!disposed);
+		recorder.detach();
 		undoList.clear();
+		redoList.clear();
 		listeners.clear();
 		disposed = true;
 	}
@@ -162,7 +425,8 @@ public void dispose() {
 	@SuppressWarnings("unused")
 	private void printSummary() {
 		System.out.println("===============================");
-		System.out.println(undoList.size() + " remaining");
+		System.out.println(undoList.size() + " remaining, " + redoList.size() + " to redo, " + getHistorySize()
+				+ " bytes");
 		for (int i = undoList.size() - 1; i >= 0; --i) {
 			System.out.printf("%3d: ", i);
 			undoList.get(i).printSummary();
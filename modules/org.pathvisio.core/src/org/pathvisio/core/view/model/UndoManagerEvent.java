@@ -16,15 +16,28 @@
  ******************************************************************************/
 package org.pathvisio.core.view.model;
 
-/** signals that an action was added or removed from the undo stack. */
+/** signals that an action was added or removed from the undo or redo stack. */
 public class UndoManagerEvent {
 	public UndoManagerEvent(String msg) {
+		this(msg, UndoManager.CANT_REDO);
+	}
+
+	public UndoManagerEvent(String msg, String redoMsg) {
 		undoMessage = msg;
+		redoMessage = redoMsg;
 	}
 
 	public String getMessage() {
 		return undoMessage;
 	}
 
+	/**
+	 * @return the description of the action that would be redone.
+	 */
+	public String getRedoMessage() {
+		return redoMessage;
+	}
+
 	private String undoMessage;
+	private String redoMessage;
 }
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2022 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.view.model;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.pathvisio.libgpml.model.LineElement;
+import org.pathvisio.libgpml.model.LineElement.Anchor;
+import org.pathvisio.libgpml.model.Pathway;
+import org.pathvisio.libgpml.model.PathwayModel;
+import org.pathvisio.libgpml.model.PathwayModelEvent;
+import org.pathvisio.libgpml.model.PathwayModelListener;
+import org.pathvisio.libgpml.model.PathwayObject;
+import org.pathvisio.libgpml.model.PathwayObjectEvent;
+import org.pathvisio.libgpml.model.PathwayObjectListener;
+
+/**
+ * Turns the events of a pathway model into {@link UndoChange}s.
+ * <p>
+ * Events are sent after a change, without the old value. So the recorder reads
+ * the values of every pathway object once, when it starts following the model
+ * (see {@link UndoChange#keys(PathwayObject)}). When an object reports a change,
+ * only the values of that object are read again and compared, and the
+ * differences replace the kept values. Starting an action costs nothing, and
+ * an edit costs in proportion to the objects it touches.
+ * <p>
+ * Changes made while no action is recording are not recorded, but they are
+ * reported to the undo manager, see {@link UndoManager#modified()}.
+ */
+class UndoRecorder implements PathwayModelListener, PathwayObjectListener {
+
+	private final UndoManager undoManager;
+
+	private PathwayModel pathwayModel = null;
+
+	/** last known values per pathway object, in the order of the keys */
+	private final Map<PathwayObject, Object[]> values = new IdentityHashMap<PathwayObject, Object[]>();
+
+	/** recorded keys per class, see {@link UndoChange#keys(PathwayObject)} */
+	private final Map<Class<?>, Object[]> keys = new HashMap<Class<?>, Object[]>();
+
+	/** the action that receives the changes, or null */
+	private UndoAction recording = null;
+
+	/** true while an action is undone or redone */
+	private boolean applying = false;
+
+	/** number of values read, for testing */
+	private long readCount = 0;
+
+	UndoRecorder(UndoManager undoManager) {
+		this.undoManager = undoManager;
+	}
+
+	/**
+	 * Starts following the given pathway model. Stops following the previous
+	 * one, if any.
+	 */
+	void attach(PathwayModel pathwayModel) {
+		if (this.pathwayModel == pathwayModel) {
+			return;
+		}
+		detach();
+		this.pathwayModel = pathwayModel;
+		track(pathwayModel.getPathway());
+		for (PathwayObject o : pathwayModel.getPathwayObjects()) {
+			track(o);
+		}
+		pathwayModel.addListener(this);
+	}
+
+	/**
+	 * Stops following the pathway model, and stops recording.
+	 */
+	void detach() {
+		if (pathwayModel == null) {
+			return;
+		}
+		stop();
+		pathwayModel.removeListener(this);
+		for (PathwayObject o : values.keySet()) {
+			o.removeListener(this);
+		}
+		values.clear();
+		pathwayModel = null;
+	}
+
+	/**
+	 * @return the followed pathway model, or null.
+	 */
+	PathwayModel getPathwayModel() {
+		return pathwayModel;
+	}
+
+	/**
+	 * Records the changes that follow into the given action, until the next call
+	 * to this method or to {@link #stop()}.
+	 * <p>
+	 * If the action that was recording before was never inserted in the undo
+	 * queue, its changes are given to the undo manager, see
+	 * {@link UndoManager#orphaned(UndoAction)}.
+	 */
+	void record(UndoAction action) {
+		stop();
+		if (pathwayModel != null) {
+			recording = action;
+		}
+	}
+
+	/**
+	 * @return the action that receives the changes, or null.
+	 */
+	UndoAction getRecording() {
+		return recording;
+	}
+
+	/**
+	 * @return the number of values read since the recorder was created.
+	 */
+	long getReadCount() {
+		return readCount;
+	}
+
+	/**
+	 * Stops recording.
+	 */
+	void stop() {
+		UndoAction previous = recording;
+		recording = null;
+		if (previous != null) {
+			previous.compact();
+			if (!previous.isInserted() && !previous.isEmpty()) {
+				undoManager.orphaned(previous);
+			}
+		}
+	}
+
+	/**
+	 * Undoes or redoes an action. The resulting events update the last known
+	 * values, but are not recorded.
+	 */
+	void apply(UndoAction action, boolean undo) {
+		stop();
+		applying = true;
+		try {
+			if (undo) {
+				action.undoChanges();
+			} else {
+				action.redoChanges();
+			}
+		} finally {
+			applying = false;
+		}
+	}
+
+	/**
+	 * Reads the values of an object, and follows its changes.
+	 *
+	 * @return false if changes of the object are not recorded.
+	 */
+	private boolean track(PathwayObject o) {
+		Object[] k = keysOf(o);
+		if (k == null) {
+			return false;
+		}
+		Object[] v = new Object[k.length];
+		for (int i = 0; i < k.length; i++) {
+			v[i] = UndoChange.read(o, k[i]);
+		}
+		readCount += k.length;
+		if (values.put(o, v) == null) {
+			o.addListener(this);
+		}
+		return true;
+	}
+
+	/**
+	 * Stops following an object.
+	 *
+	 * @return the last known values of the object, or null.
+	 */
+	private Object[] untrack(PathwayObject o) {
+		Object[] v = values.remove(o);
+		if (v != null) {
+			o.removeListener(this);
+		}
+		return v;
+	}
+
+	private Object[] keysOf(PathwayObject o) {
+		Object[] k = keys.get(o.getClass());
+		if (k == null && !keys.containsKey(o.getClass())) {
+			k = UndoChange.keys(o);
+			keys.put(o.getClass(), k);
+		}
+		return k;
+	}
+
+	/**
+	 * Compares the values of an object with the last known ones, and records
+	 * the differences.
+	 */
+	private void compare(PathwayObject o) {
+		Object[] v = values.get(o);
+		if (v == null) {
+			return;
+		}
+		Object[] k = keysOf(o);
+		for (int i = 0; i < k.length; i++) {
+			Object value = UndoChange.read(o, k[i]);
+			if (!Objects.deepEquals(value, v[i])) {
+				changed(new UndoChange.Property(o, k[i], v[i], value));
+				v[i] = value;
+			}
+		}
+		readCount += k.length;
+	}
+
+	/**
+	 * @return the value of the given key in the given values, or null.
+	 */
+	private Object valueOf(PathwayObject o, Object[] v, Object key) {
+		Object[] k = keysOf(o);
+		for (int i = 0; i < k.length; i++) {
+			if (k[i] == key) {
+				return v[i];
+			}
+		}
+		return null;
+	}
+
+	private void changed(UndoChange change) {
+		if (applying) {
+			return;
+		}
+		undoManager.modified();
+		if (recording != null) {
+			recording.add(change);
+		}
+	}
+
+	@Override
+	public void gmmlObjectModified(PathwayObjectEvent e) {
+		PathwayObject o = e.getModifiedPathwayObject();
+		compare(o);
+		if (o instanceof LineElement) {
+			// anchors report a new position through their line
+			for (Anchor a : ((LineElement) o).getAnchors()) {
+				compare(a);
+			}
+		}
+	}
+
+	@Override
+	public void pathwayModified(PathwayModelEvent e) {
+		PathwayObject o = e.getAffectedData();
+		switch (e.getType()) {
+		case PathwayModelEvent.ADDED:
+			if (track(o) && !(o instanceof Pathway)) {
+				changed(new UndoChange.Structure(o, true, pathwayModel, null));
+			}
+			break;
+		case PathwayModelEvent.DELETED:
+			Object[] v = untrack(o);
+			if (v != null) {
+				// the line points are already gone, take the last known ones
+				changed(new UndoChange.Structure(o, false, pathwayModel,
+						(UndoChange.PointState[]) valueOf(o, v, UndoChange.Key.POINTS)));
+			}
+			break;
+		default:
+			break;
+		}
+	}
+}
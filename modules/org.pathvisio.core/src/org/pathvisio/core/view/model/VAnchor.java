@@ -148,6 +148,11 @@ private Shape getShape() {
 		return shape != null ? shape.getShape() : handle.getVOutline();
 	}
 
+	@Override
+	protected boolean isDrawnAtLevelOfDetail() {
+		return !vLineElement.isSmallerThan(canvas.getLodDecorationSize());
+	}
+
 	/**
 	 *
 	 */
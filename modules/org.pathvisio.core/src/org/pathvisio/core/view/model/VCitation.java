@@ -226,6 +226,11 @@ protected Point2D getVPosition() {
 
 	Graphics2D g2d;
 
+	@Override
+	protected boolean isDrawnAtLevelOfDetail() {
+		return !parent.isSmallerThan(canvas.getLodDecorationSize());
+	}
+
 	protected void doDraw(Graphics2D g2d) {
 		Graphics2D g = (Graphics2D) g2d.create();
 
@@ -20,8 +20,11 @@
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Shape;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.pathvisio.core.preferences.GlobalPreference;
 import org.pathvisio.core.preferences.PreferenceManager;
@@ -40,8 +43,27 @@
 public abstract class VElement implements Comparable<VElement> {
 	protected static final BasicStroke DEFAULT_STROKE = new BasicStroke();
 
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+
 	protected VPathwayModel canvas;
 
+	/** creation order, used to order elements with equal z-order */
+	private final long sequence = SEQUENCE.getAndIncrement();
+
+	/** position in the drawing order, maintained by {@link VPathwayModel} */
+	int drawIndex;
+
+	/**
+	 * Orders elements by their position in the last calculated drawing order.
+	 * Cheaper than the natural ordering, because the z-order does not have to be
+	 * looked up in the model.
+	 */
+	static final Comparator<VElement> DRAW_ORDER = new Comparator<VElement>() {
+		public int compare(VElement a, VElement b) {
+			return Integer.compare(a.drawIndex, b.drawIndex);
+		}
+	};
+
 	protected VElement(VPathwayModel canvas) {
 		this.canvas = canvas;
 		canvas.addObject(this);
@@ -51,17 +73,28 @@ protected VElement(VPathwayModel canvas) {
 	public static final float HIGHLIGHT_STROKE_WIDTH = 5.0f;
 
 	private Rectangle2D oldrect = null;
+	private double oldrectZoom; // zoom factor at the time oldrect was calculated
 
 	private boolean isSelected;
 
 	/**
 	 * Will be called by VPathway whenever the zoom factor is changed. Default
-	 * implementation refreshes the cache of VBounds and VOutline.
+	 * implementation refreshes the cache of VBounds and VOutline. Elements with a
+	 * model outline (see {@link #calculateMOutline()}) keep it, so that the view
+	 * outline and bounds only need to be scaled when they are used again.
 	 */
 	void zoomChanged() {
-		resetShapeCache();
+		if (mOutlineCache != null) {
+			// the bounds in model coordinates, and thus the spatial index, are unchanged
+			vOutlineCache = null;
+			vBoundsCache = null;
+		} else {
+			resetShapeCache();
+		}
 	}
 
+	private Shape mOutlineCache;
+	private Rectangle2D mBoundsCache;
 	private Shape vOutlineCache;
 	private Rectangle2D vBoundsCache;
 
@@ -70,8 +103,11 @@ void zoomChanged() {
 	 * the next call to getVOutline or getVBounds.
 	 */
 	protected void resetShapeCache() {
+		mOutlineCache = null;
+		mBoundsCache = null;
 		vOutlineCache = null;
 		vBoundsCache = null;
+		canvas.shapeChanged(this);
 	}
 
 	public final void draw(Graphics2D g2d) {
@@ -93,19 +129,93 @@ public final void draw(Graphics2D g2d) {
 
 	protected abstract void doDraw(Graphics2D g2d);
 
+	/**
+	 * @param size a size in pixels.
+	 * @return true if both the width and height of this element on screen are
+	 *         smaller than size.
+	 */
+	protected boolean isSmallerThan(int size) {
+		Rectangle2D b = getVBounds();
+		return b.getWidth() < size && b.getHeight() < size;
+	}
+
+	/**
+	 * @return true if this element is so small on screen that it should be drawn
+	 *         in a simplified way, see {@link GlobalPreference#LOD_SHAPE_SIZE}.
+	 */
+	protected boolean isSimplified() {
+		return isSimplified(getVBounds());
+	}
+
+	/**
+	 * @param vr an area in view coordinates.
+	 * @return true if the area is too small on screen to draw details in it, see
+	 *         {@link GlobalPreference#LOD_SHAPE_SIZE}.
+	 */
+	protected boolean isSimplified(Rectangle2D vr) {
+		int size = canvas.getLodShapeSize();
+		return vr.getWidth() < size && vr.getHeight() < size;
+	}
+
+	/**
+	 * Decorations (such as citations) override this to hide themselves when the
+	 * element they belong to is too small on screen, see
+	 * {@link GlobalPreference#LOD_DECORATION_SIZE}.
+	 * 
+	 * @return true if this element should be drawn at the current zoom level.
+	 */
+	protected boolean isDrawnAtLevelOfDetail() {
+		return true;
+	}
+
 	/**
 	 * mark both the area currently and previously occupied by this object for
 	 * redraw. The redraw will not happen immediately, but will be scheduled in the
 	 * event dispatch thread.
 	 */
 	protected void markDirty() {
-		if (oldrect != null) {
-			canvas.addDirtyRect(oldrect);
+		Rectangle2D old = getLastKnownVBounds();
+		if (old != null) {
+			canvas.addDirtyRect(old);
 		}
 		resetShapeCache();
 		Rectangle2D newrect = getVBounds();
 		canvas.addDirtyRect(newrect);
 		oldrect = newrect;
+		oldrectZoom = canvas.getZoomFactor();
+	}
+
+	/**
+	 * Returns the bounds this element was last drawn with, without calculating
+	 * them again.
+	 * 
+	 * @return the bounds when the element was last marked dirty, or else the
+	 *         cached bounds, in current view coordinates. Null if neither is
+	 *         known.
+	 */
+	Rectangle2D getLastKnownVBounds() {
+		Rectangle2D old = oldrect;
+		if (old != null && oldrectZoom != canvas.getZoomFactor()) {
+			// zoom factor has changed since, convert to current view coordinates
+			double f = canvas.getZoomFactor() / oldrectZoom;
+			old = new Rectangle2D.Double(old.getX() * f, old.getY() * f, old.getWidth() * f, old.getHeight() * f);
+		} else if (old == null) {
+			old = vBoundsCache; // not marked dirty before, use the last known bounds
+		}
+		return old;
+	}
+
+	/**
+	 * Resets the cached shape after a change that is marked dirty later, at the
+	 * end of an update of the canvas (see {@link VPathwayModel#beginUpdate()}).
+	 * The last known bounds are kept, so that {@link #markDirty()} repaints them.
+	 */
+	void invalidateShape() {
+		if (oldrect == null && vBoundsCache != null) {
+			oldrect = vBoundsCache;
+			oldrectZoom = canvas.getZoomFactor();
+		}
+		resetShapeCache();
 	}
 
 	/**
@@ -120,6 +230,7 @@ public VPathwayModel getDrawing() {
 	 * dirty, so the object has a chance to redraw itself in unhighlighted state
 	 */
 	public void unhighlight() {
+		canvas.highlightChanged(this, false);
 		if (isHighlighted) {
 			isHighlighted = false;
 			highlightColor = null;
@@ -144,6 +255,7 @@ public Color getHighlightColor() {
 	 */
 	public void highlight(Color c) {
 		if (!(isHighlighted && highlightColor == c)) {
+			canvas.highlightChanged(this, true);
 			isHighlighted = true;
 			highlightColor = c;
 			markDirty();
@@ -207,6 +319,7 @@ public boolean isSelected() {
 	public void deselect() {
 		if (isSelected) {
 			isSelected = false;
+			canvas.selectionChanged(this, false);
 			markDirty();
 			destroyHandles();
 		}
@@ -220,6 +333,7 @@ public void select() {
 		if (!isSelected) {
 			createHandles();
 			isSelected = true;
+			canvas.selectionChanged(this, true);
 			markDirty();
 		}
 	}
@@ -256,6 +370,13 @@ public final Rectangle2D getVBounds() {
 	 * @return
 	 */
 	public Rectangle2D calculateVBounds() {
+		if (getMOutline() != null) {
+			// cheaper than taking the bounds of the scaled outline
+			double zoom = canvas.getZoomFactor();
+			Rectangle2D mb = mBoundsCache;
+			return new Rectangle2D.Double(mb.getX() * zoom, mb.getY() * zoom, mb.getWidth() * zoom,
+					mb.getHeight() * zoom);
+		}
 		return getVOutline().getBounds2D();
 	}
 
@@ -269,11 +390,43 @@ public Rectangle2D calculateVBounds() {
 	 */
 	protected final Shape getVOutline() {
 		if (vOutlineCache == null) {
-			vOutlineCache = calculateVOutline();
+			Shape m = getMOutline();
+			vOutlineCache = m != null ? vFromM(m) : calculateVOutline();
 		}
 		return vOutlineCache;
 	}
 
+	/**
+	 * Get the cached outline of this element in model coordinates.
+	 * 
+	 * @return the outline, or null if this element has no model outline.
+	 * @see #calculateMOutline()
+	 */
+	private Shape getMOutline() {
+		if (mOutlineCache == null) {
+			Shape m = calculateMOutline();
+			if (m != null) {
+				mBoundsCache = m.getBounds2D();
+				mOutlineCache = m;
+			}
+		}
+		return mOutlineCache;
+	}
+
+	/**
+	 * Calculate the outline of this element in model coordinates. Elements whose
+	 * view outline is the model outline scaled by the zoom factor should override
+	 * this. Their outline then survives zoom changes, and
+	 * {@link #calculateVOutline()} is not used.
+	 * 
+	 * @return the outline of this element in model coordinates, or null (the
+	 *         default) if the outline is not proportional to the zoom factor, e.g.
+	 *         because it has a fixed size on screen.
+	 */
+	protected Shape calculateMOutline() {
+		return null;
+	}
+
 	/**
 	 * Calculate the outline of this element. The outline is used to check whether a
 	 * point is contained in this element or not and includes the stroke and takes
@@ -299,6 +452,18 @@ protected Rectangle2D getVScaleRectangle() {
 		return new Rectangle2D.Double();
 	}
 
+	/**
+	 * Interaction decorations, such as handles and link anchors, override this to
+	 * be kept in the overlay layer of the {@link VPathwayModel} instead of with
+	 * the pathway content. Overlay elements are always drawn on top of the
+	 * content, and are not part of {@link VPathwayModel#getDrawingObjects()}.
+	 * 
+	 * @return true if this element belongs to the overlay layer.
+	 */
+	protected boolean isOverlay() {
+		return false;
+	}
+
 	/**
 	 * returns the z-order that defines in what order to draw the element.
 	 */
@@ -313,7 +478,8 @@ protected Rectangle2D getVScaleRectangle() {
 	 * the type of object by default, but can be overridden by the user.
 	 *
 	 * The comparison is consistent with "equals", i.e. it doesn't return 0 if the
-	 * objects are different, even if their drawing order is the same.
+	 * objects are different, even if their drawing order is the same. Elements
+	 * with the same z-order are drawn in order of creation.
 	 *
 	 * @param d VPathwayElement that this is compared to.
 	 */
@@ -327,9 +493,9 @@ public int compareTo(VElement d) {
 		a = getZOrder();
 		b = d.getZOrder();
 
-		// if sorting order is equal, use hash code
+		// if sorting order is equal, use order of creation
 		if (b == a) {
-			return hashCode() - d.hashCode();
+			return sequence < d.sequence ? -1 : 1;
 		} else
 			// not simply "a - b" because of the risk of integer overflows
 			return a < b ? -1 : 1;
@@ -349,6 +515,14 @@ protected double vFromM(double m) {
 		return canvas.vFromM(m);
 	}
 
+	/**
+	 * helper method to convert a shape in model coordinates to view coordinates
+	 */
+	protected Shape vFromM(Shape m) {
+		double zoom = canvas.getZoomFactor();
+		return AffineTransform.getScaleInstance(zoom, zoom).createTransformedShape(m);
+	}
+
 	/**
 	 * called automatically by #destroy(), and also by #deselect() This should be
 	 * overridden if you create any Handles in createHandles()
@@ -366,6 +540,7 @@ protected void destroy() {
 		// Remove from canvas
 		removeMe = true;
 		markDirty();
+		canvas.elementRemoved(this);
 		destroyHandles();
 	}
 
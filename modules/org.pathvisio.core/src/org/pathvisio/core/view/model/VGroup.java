@@ -30,6 +30,8 @@
 import org.pathvisio.core.view.VElementMouseListener;
 import org.pathvisio.libgpml.model.Group;
 import org.pathvisio.libgpml.model.Groupable;
+import org.pathvisio.libgpml.model.PathwayObject;
+import org.pathvisio.libgpml.model.shape.IShape;
 
 /**
  * This represents the view of a {@link Group} PathwayElement. This can be drawn
@@ -127,37 +129,33 @@ public Group getPathwayObject() {
 	 */
 	@Override
 	protected boolean vContains(Point2D point) {
+		// return false if point not within bounds of grouped objects
+		if (!getVShape(true).contains(point)) {
+			return false;
+		}
 		// return false if point falls on any individual element
-		for (VElement vpe : canvas.getDrawingObjects()) {
+		for (VElement vpe : canvas.getCandidatesAt(point)) {
 			if (vpe instanceof VPathwayObject && !(vpe instanceof VGroup) && vpe.vContains(point)) {
 				return false;
-
 			}
 		}
-		// return true if point within bounds of grouped objects
-		if (this.getVShape(true).contains(point)) {
-			return true;
-		} else {
-			return false;
-		}
+		return true;
 	}
 
 	/**
-	 * Returns graphics for members of a group, including nested members
+	 * Returns graphics for members of a group, including nested members. The
+	 * members are taken from the model group, which keeps them up to date when
+	 * group references change.
 	 *
 	 * @return ArrayList<Graphics>
 	 */
 	public List<VPathwayObject> getGroupGraphics() {
-		List<VPathwayObject> gg = new ArrayList<VPathwayObject>();
-		// return true if group object is referenced by selection
-		for (VElement vpe : canvas.getDrawingObjects()) {
-			if (vpe instanceof VGroupable && vpe != this) {
-				VGroupable vpeg = (VGroupable) vpe;
-				Groupable pe = vpeg.getPathwayObject();
-				Group ref = pe.getGroupRef();
-				if (ref != null && ref.equals(getPathwayObject())) {
-					gg.add((VPathwayObject) vpeg);
-				}
+		List<Groupable> members = getPathwayObject().getPathwayElements();
+		List<VPathwayObject> gg = new ArrayList<VPathwayObject>(members.size());
+		for (Groupable pe : members) {
+			VPathwayObject vpe = canvas.getPathwayElementView((PathwayObject) pe);
+			if (vpe != null && vpe != this) {
+				gg.add(vpe);
 			}
 		}
 		return gg;
@@ -214,6 +212,9 @@ protected void doDraw(Graphics2D g2d) {
 		}
 		// Refresh dimensions before drawing
 		getPathwayObject().updateDimensions();
+		if (isSimplified() && !isSelected()) {
+			return; // the members are too small to make out the group anyway
+		}
 
 		// Draw the group style appearance
 		GroupPainter p = GroupPainterRegistry.getPainter(getPathwayObject().getType().toString());
@@ -260,6 +261,22 @@ public void highlight(Color c) {
 		}
 	}
 
+	/**
+	 * Groups are hit-tested against their outline.
+	 */
+	@Override
+	protected IShape getHitShapeType() {
+		return null;
+	}
+
+	/**
+	 * The outline of a group is its rotated bounds, without stroke.
+	 */
+	@Override
+	protected Shape calculateMOutline() {
+		return getPathwayObject().getRotatedBounds();
+	}
+
 	/**
 	 * TODO 
 	 */
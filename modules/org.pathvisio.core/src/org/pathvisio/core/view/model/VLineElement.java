@@ -22,9 +22,11 @@
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
+import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -205,6 +207,9 @@ private List<Handle> getSegmentHandles() {
 	}
 
 	private ConnectorShape getConnectorShape() {
+		if (connectorPending && !updatingConnector) {
+			updateConnector();
+		}
 		return getPathwayObject().getConnectorShape();
 	}
 
@@ -214,18 +219,81 @@ private ConnectorShape getConnectorShape() {
 	 * ending starts
 	 */
 	public Shape getVConnectorAdjusted() {
+		if (vConnectorCache == null) {
+			// call to getLineEndingWidth
+			double startGap = getGap(getPathwayObject().getStartArrowHeadType());
+			double endGap = getGap(getPathwayObject().getEndArrowHeadType());
+
+			// From the segments
+			vConnectorCache = vFromM(getConnectorShape().calculateAdjustedShape(startGap, endGap));
+		}
+		return vConnectorCache;
+	}
+
+	// connector and arrow heads as drawn, don't calculate them again on every paint
+	private Shape vConnectorCache = null;
+	private ArrowShape[] vHeadsCache = null;
+	// flattened connector and arrow heads for hit-testing, see HitTest
+	private double[] vSegmentsCache = null;
+
+	@Override
+	protected void resetShapeCache() {
+		vConnectorCache = null;
+		vHeadsCache = null;
+		vSegmentsCache = null;
+		super.resetShapeCache();
+	}
 
-		// call to getLineEndingWidth
-		double startGap = getGap(getPathwayObject().getStartArrowHeadType());
-		double endGap = getGap(getPathwayObject().getEndArrowHeadType());
+	@Override
+	void zoomChanged() {
+		vConnectorCache = null;
+		vHeadsCache = null;
+		vSegmentsCache = null;
+		super.zoomChanged();
+	}
+
+	private double[] getVSegments() {
+		if (vSegmentsCache == null) {
+			ArrowShape[] heads = getVHeadsAdjusted();
+			vSegmentsCache = HitTest.toSegments(getVConnectorAdjusted(),
+					heads[0] == null ? null : heads[0].getShape(), heads[1] == null ? null : heads[1].getShape());
+		}
+		return vSegmentsCache;
+	}
+
+	/**
+	 * @return the width of the stroke of the outline, in view coordinates.
+	 */
+	private double getVHitStrokeWidth() {
+		double sw = vFromM(getPathwayObject().getLineWidth());
+		if (getPathwayObject().getLineStyle() == LineStyleType.DOUBLE) {
+			sw *= 4;
+		}
+		return sw;
+	}
 
-		// From the segments
-		Shape s = getConnectorShape().calculateAdjustedShape(startGap, endGap);
+	/**
+	 * Tests the distance to the segments of the line, instead of the outline.
+	 */
+	@Override
+	protected boolean vContains(Point2D point) {
+		if (getVBounds().contains(point)) {
+			return HitTest.segmentsContain(getVSegments(), getVHitStrokeWidth() / 2, point.getX(), point.getY());
+		} else {
+			return false;
+		}
+	}
 
-		AffineTransform t = new AffineTransform();
-		double scale = vFromM(1);
-		t.setToScale(scale, scale);
-		return t.createTransformedShape(s);
+	/**
+	 * Tests the segments of the line, instead of the outline.
+	 */
+	@Override
+	protected boolean vIntersects(Rectangle2D r) {
+		if (getVBounds().intersects(r)) {
+			return HitTest.segmentsIntersect(getVSegments(), getVHitStrokeWidth(), r);
+		} else {
+			return false;
+		}
 	}
 
 	/**
@@ -247,6 +315,11 @@ private double getGap(ArrowHeadType type) {
 	public void doDraw(Graphics2D g) {
 		Color c = getLineColor();
 		g.setColor(c);
+		if (isSimplified()) {
+			// too small to make out the connector type or arrow heads
+			g.draw(new Line2D.Double(getVStartX(), getVStartY(), getVEndX(), getVEndY()));
+			return;
+		}
 		setLineStyle(g);
 
 		Shape l = getVConnectorAdjusted();
@@ -260,8 +333,8 @@ public void doDraw(Graphics2D g) {
 		drawHead(g, hs, c);
 		if (isHighlighted()) {
 			Color hc = getHighlightColor();
-			g.setColor(new Color(hc.getRed(), hc.getGreen(), hc.getBlue(), 128));
-			g.setStroke(new BasicStroke(HIGHLIGHT_STROKE_WIDTH));
+			g.setColor(PaintCache.getHighlightColor(hc));
+			g.setStroke(PaintCache.getStroke(HIGHLIGHT_STROKE_WIDTH));
 			g.draw(l);
 			if (he != null)
 				g.draw(he.getShape());
@@ -317,6 +390,34 @@ public Shape calculateVOutline() {
 		return getVShape(true);
 	}
 
+	/**
+	 * The outline of a line, including arrow heads and stroke, scales with the
+	 * zoom factor.
+	 */
+	@Override
+	protected Shape calculateMOutline() {
+		Shape l = getConnectorShape().calculateAdjustedShape(getGap(getPathwayObject().getStartArrowHeadType()),
+				getGap(getPathwayObject().getEndArrowHeadType()));
+
+		ArrowShape[] heads = getHeadsAdjusted(1);
+		ArrowShape hs = heads[0];
+		ArrowShape he = heads[1];
+
+		float thickness = (float) getPathwayObject().getLineWidth();
+		if (getPathwayObject().getLineStyle() == LineStyleType.DOUBLE) {
+			thickness *= 4;
+		}
+		BasicStroke bs = new BasicStroke(thickness);
+
+		Area total = new Area(bs.createStrokedShape(l));
+		if (hs != null)
+			total.add(new Area(bs.createStrokedShape(hs.getShape())));
+		if (he != null)
+			total.add(new Area(bs.createStrokedShape(he.getShape())));
+
+		return total;
+	}
+
 	/**
 	 * Returns the properly sized and rotated arrowheads
 	 * 
@@ -339,42 +440,35 @@ public ArrowShape[] getVHeads() {
 	 * @return An array with two arrowheads, for the start and end respectively
 	 */
 	public ArrowShape[] getVHeadsAdjusted() {
+		if (vHeadsCache == null) {
+			vHeadsCache = getHeadsAdjusted(canvas.getZoomFactor());
+		}
+		return vHeadsCache;
+	}
+
+	/**
+	 * @param scale the zoom factor, 1 for model coordinates
+	 * @see #getVHeadsAdjusted()
+	 */
+	private ArrowShape[] getHeadsAdjusted(double scale) {
 		Segment[] segments = getConnectorShape().getSegments();
 
 		// last segment in the Connector Shape
 		double lineEndingWidth = getGap(getPathwayObject().getEndArrowHeadType());
 		Point2D adjustedSegmentEnd = segments[segments.length - 1].calculateNewEndPoint(lineEndingWidth);
-		ArrowShape he = getVHead(segments[segments.length - 1].getMStart(), adjustedSegmentEnd,
-				getPathwayObject().getEndArrowHeadType());
+		ArrowShape he = getHead(segments[segments.length - 1].getMStart(), adjustedSegmentEnd,
+				getPathwayObject().getEndArrowHeadType(), scale);
 
 		// first segment in the connector shape
 		double lineStartingWidth = getGap(getPathwayObject().getStartArrowHeadType());
 		Point2D adjustedSegmentStart = segments[0].calculateNewStartPoint(lineStartingWidth);
-		ArrowShape hs = getVHead(segments[0].getMEnd(), adjustedSegmentStart,
-				getPathwayObject().getStartArrowHeadType());
+		ArrowShape hs = getHead(segments[0].getMEnd(), adjustedSegmentStart,
+				getPathwayObject().getStartArrowHeadType(), scale);
 		return new ArrowShape[] { hs, he };
 	}
 
 	protected Shape getVShape(boolean rotate) {
-		Shape l = getVConnectorAdjusted();
-
-		ArrowShape[] heads = getVHeadsAdjusted();
-		ArrowShape hs = heads[0];
-		ArrowShape he = heads[1];
-
-		float thickness = (float) vFromM(getPathwayObject().getLineWidth());
-		if (getPathwayObject().getLineStyle() == LineStyleType.DOUBLE) {
-			thickness *= 4;
-		}
-		BasicStroke bs = new BasicStroke(thickness);
-
-		Area total = new Area(bs.createStrokedShape(l));
-		if (hs != null)
-			total.add(new Area(bs.createStrokedShape(hs.getShape())));
-		if (he != null)
-			total.add(new Area(bs.createStrokedShape(he.getShape())));
-
-		return total;
+		return vFromM(calculateMOutline());
 	}
 
 	private void setAnchors() {
@@ -433,9 +527,10 @@ protected void swapPoint(VPoint pOld, VPoint pNew) {
 	}
 
 	protected void drawHead(Graphics2D g, ArrowShape head, Color c) {
-		if (head != null) {
+		// leave out heads that are too small to recognize
+		if (head != null && !isSimplified(head.getShape().getBounds2D())) {
 			// reset stroked line to solid, but use given thickness
-			g.setStroke(new BasicStroke((float) vFromM(getPathwayObject().getLineWidth())));
+			g.setStroke(PaintCache.getStroke((float) vFromM(getPathwayObject().getLineWidth())));
 			switch (head.getFillType()) {
 			case OPEN:
 				g.setPaint(Color.WHITE);
@@ -466,10 +561,18 @@ protected void drawHead(Graphics2D g, ArrowShape head, Color c) {
 	 * @return The ArrowShape in view coordinates
 	 */
 	protected ArrowShape getVHead(Point2D mP1, Point2D mP2, ArrowHeadType type) {
-		double xs = vFromM(mP1.getX());
-		double ys = vFromM(mP1.getY());
-		double xe = vFromM(mP2.getX());
-		double ye = vFromM(mP2.getY());
+		return getHead(mP1, mP2, type, canvas.getZoomFactor());
+	}
+
+	/**
+	 * @param scale the zoom factor, 1 for model coordinates
+	 * @see #getVHead(Point2D, Point2D, ArrowHeadType)
+	 */
+	private ArrowShape getHead(Point2D mP1, Point2D mP2, ArrowHeadType type, double scale) {
+		double xs = mP1.getX() * scale;
+		double ys = mP1.getY() * scale;
+		double xe = mP2.getX() * scale;
+		double ye = mP2.getY() * scale;
 
 		ArrowShape h;
 		if (type == null) {
@@ -482,7 +585,7 @@ protected ArrowShape getVHead(Point2D mP1, Point2D mP2, ArrowHeadType type) {
 
 		if (h != null) {
 			AffineTransform f = new AffineTransform();
-			double scaleFactor = vFromM(1.0 + 0.3 * getPathwayObject().getLineWidth());
+			double scaleFactor = (1.0 + 0.3 * getPathwayObject().getLineWidth()) * scale;
 			f.rotate(Math.atan2(ye - ys, xe - xs), xe, ye);
 			f.translate(xe, ye);
 			f.scale(scaleFactor, scaleFactor);
@@ -629,42 +732,123 @@ private void setHandleLocation(VPoint vp) {
 		vp.handle.setMLocation(mp.getX(), mp.getY());
 	}
 
+	/**
+	 * Schedules the connector to be recalculated, e.g. because an element it is
+	 * attached to has moved.
+	 * 
+	 * @see #updateConnector()
+	 */
 	public void recalculateConnector() {
-		getConnectorShape().recalculateShape(getPathwayObject());
-		updateAnchorPositions();
-		updateCitationPosition();
-		for (VPoint vp : points)
-			setHandleLocation(vp);
-		markDirty();
+		scheduleConnectorUpdate();
 	}
 
 	/**
-	 *
+	 * Moving an element changes its model several times per mouse event, and each
+	 * change is passed on to all lines attached to it. Instead of recalculating
+	 * the connector for each change, the line is scheduled with the
+	 * {@link VPathwayModel}, which updates it once per frame, see
+	 * {@link VPathwayModel#updateConnectors()}.
 	 */
 	@Override
 	public void gmmlObjectModified(PathwayObjectEvent e) {
+		checkZOrderChange(e);
+		scheduleConnectorUpdate();
+	}
 
-		getConnectorShape().recalculateShape(getPathwayObject());
+	// the connector is recalculated once for a batch of model changes
+	private boolean connectorPending = false;
+	private boolean updatingConnector = false;
+	// the line points and connector shape the connector was calculated for
+	private double[] connectorKey = null;
+	private ConnectorShape connectorKeyShape = null;
+	private int connectorUpdates = 0;
 
-		WayPoint[] wps = getConnectorShape().getWayPoints();
-		List<LinePoint> mps = getPathwayObject().getLinePoints();
-		if (wps.length == mps.size() - 2 && getConnectorShape().hasValidWaypoints(getPathwayObject())) {
-			getPathwayObject().adjustWayPointPreferences(wps);
-		} else {
-			getPathwayObject().resetWayPointPreferences();
+	private void scheduleConnectorUpdate() {
+		if (!connectorPending) {
+			connectorPending = true;
+			canvas.scheduleConnectorUpdate(this);
 		}
+	}
 
-		updateSegmentHandles();
-		markDirty();
-		for (VPoint p : points) {
-			setHandleLocation(p);
+	/**
+	 * Recalculates the connector, handles and anchors of this line if it has been
+	 * scheduled. The connector itself is only recalculated if the line points
+	 * have moved. This happens at the latest when the connector is used.
+	 */
+	void updateConnector() {
+		if (!connectorPending || updatingConnector) {
+			return;
 		}
-		if (getPathwayObject().getAnchors().size() != anchors.size()) {
-			setAnchors();
+		canvas.connectorUpdated(this);
+		connectorUpdates++;
+		// changes made here don't need another update
+		updatingConnector = true;
+		try {
+			LineElement line = getPathwayObject();
+			ConnectorShape cs = line.getConnectorShape();
+			double[] key = getConnectorKey();
+			boolean moved = key == null || cs != connectorKeyShape || !Arrays.equals(key, connectorKey);
+			if (moved) {
+				cs.recalculateShape(line);
+
+				WayPoint[] wps = cs.getWayPoints();
+				List<LinePoint> mps = line.getLinePoints();
+				if (wps.length == mps.size() - 2 && cs.hasValidWaypoints(line)) {
+					line.adjustWayPointPreferences(wps);
+				} else {
+					line.resetWayPointPreferences();
+				}
+				connectorKey = getConnectorKey();
+				connectorKeyShape = cs;
+				updateSegmentHandles();
+			}
+			markDirty();
+			if (moved) {
+				for (VPoint p : points) {
+					setHandleLocation(p);
+				}
+			}
+			if (line.getAnchors().size() != anchors.size()) {
+				setAnchors();
+			}
+			checkCitation();
+			if (moved) {
+				updateAnchorPositions();
+				updateCitationPosition();
+			}
+		} finally {
+			updatingConnector = false;
+			connectorPending = false;
 		}
-		checkCitation();
-		updateAnchorPositions();
-		updateCitationPosition();
+	}
+
+	/**
+	 * @return the number of times a scheduled update of the connector has been
+	 *         carried out.
+	 */
+	int getConnectorUpdates() {
+		return connectorUpdates;
+	}
+
+	/**
+	 * @return the positions of the line points, or null if the connector depends
+	 *         on more than that (a point attached to an anchor follows the
+	 *         direction of the other line).
+	 */
+	private double[] getConnectorKey() {
+		List<LinePoint> mps = getPathwayObject().getLinePoints();
+		double[] key = new double[mps.size() * 4];
+		int i = 0;
+		for (LinePoint p : mps) {
+			if (p.getElementRef() instanceof Anchor) {
+				return null;
+			}
+			key[i++] = p.getX();
+			key[i++] = p.getY();
+			key[i++] = p.getRelX();
+			key[i++] = p.getRelY();
+		}
+		return key;
 	}
 
 	protected void destroyHandles() {
@@ -681,6 +865,8 @@ protected void destroyHandles() {
 
 	protected void destroy() {
 		super.destroy();
+		canvas.connectorUpdated(this);
+		connectorPending = false;
 
 		for (LinePoint p : getPathwayObject().getLinePoints()) {
 			canvas.pointsMtoV.remove(p);
@@ -789,13 +975,6 @@ protected Color getLineColor() {
 	protected void setLineStyle(Graphics2D g) {
 		LineStyleType ls = getPathwayObject().getLineStyle();
 		float lt = (float) vFromM(getPathwayObject().getLineWidth());
-		if (ls == LineStyleType.SOLID) {
-			g.setStroke(new BasicStroke(lt));
-		} else if (ls == LineStyleType.DASHED) {
-			g.setStroke(
-					new BasicStroke(lt, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 10, new float[] { 4, 4 }, 0));
-		} else if (ls == LineStyleType.DOUBLE) {
-			g.setStroke(new CompositeStroke(new BasicStroke(lt * 2), new BasicStroke(lt)));
-		}
+		g.setStroke(PaintCache.getStroke(ls, lt));
 	}
 }
@@ -19,7 +19,6 @@
 import java.awt.geom.Point2D;
 import java.util.List;
 
-import org.pathvisio.libgpml.model.PathwayObjectEvent;
 import org.pathvisio.libgpml.model.PathwayElement;
 import org.pathvisio.libgpml.model.PathwayElement.CitationRef;
 
@@ -102,11 +101,9 @@ else if (citationRefs.size() == 0 && vCitation != null) {
 	 *
 	 */
 	@Override
-	public void gmmlObjectModified(PathwayObjectEvent e) {
-		if (listen) {
-			markDirty(); // mark everything dirty
-			checkCitation();
-		}
+	protected void refresh() {
+		super.refresh();
+		checkCitation();
 	}
 
 	/**
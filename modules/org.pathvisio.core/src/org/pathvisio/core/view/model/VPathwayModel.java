@@ -31,12 +31,18 @@
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import javax.swing.Action;
 import javax.swing.JOptionPane;
@@ -72,6 +78,8 @@
 import org.pathvisio.libgpml.model.Pathway;
 import org.pathvisio.libgpml.model.PathwayModelEvent;
 import org.pathvisio.libgpml.model.PathwayModelListener;
+import org.pathvisio.libgpml.model.PathwayObjectEvent;
+import org.pathvisio.libgpml.model.PathwayObjectListener;
 import org.pathvisio.libgpml.model.type.ObjectType;
 import org.pathvisio.libgpml.model.type.VAlignType;
 import org.pathvisio.core.preferences.GlobalPreference;
@@ -104,12 +112,30 @@ public class VPathwayModel implements PathwayModelListener {
 	static final int ZORDER_HANDLE = Integer.MAX_VALUE - 1;
 
 	private PathwayModel data; // the associated {@link PathwayModel}.
-	private PathwayModel temporaryCopy = null;
+	private UndoAction dragAction = null; // records the changes of a drag
 	private VPathwayModelWrapper parent; // may be null, optional gui-specific wrapper for this VPathwayModel.
 	private VInfoBox vInfoBox;
-	private List<VElement> drawingObjects;// All visible objects (incl. handles; excl. selectionBox objects)
+	private List<VElement> drawingObjects;// All visible pathway content (excl. overlay objects)
+	private boolean drawOrderValid = true; // whether drawingObjects is sorted by z-order
+	private final SpatialIndex spatialIndex = new SpatialIndex(this); // index on the bounds of drawingObjects
+	private List<VElement> overlayObjects; // handles, link anchors and the selectionbox, see VElement.isOverlay
+	private final SpatialIndex overlayIndex = new SpatialIndex(this); // index on the bounds of overlayObjects
+	private final Set<VElement> selectedObjects = Collections.newSetFromMap(new IdentityHashMap<VElement, Boolean>());
+	private final Set<VElement> highlightedObjects = Collections.newSetFromMap(new IdentityHashMap<VElement, Boolean>());
+	private final Set<VElement> removedObjects = Collections.newSetFromMap(new IdentityHashMap<VElement, Boolean>()); // see cleanUp
+	private final Set<VLineElement> pendingConnectors = new LinkedHashSet<VLineElement>(); // see updateConnectors
+	private Map<PathwayObject, VPathwayObject> pathwayObjectViews = new IdentityHashMap<PathwayObject, VPathwayObject>();
+	private final VirtualIndex virtualIndex = new VirtualIndex(); // model objects without a view yet, see materialize
+	private final LinkedHashMap<PathwayObject, VPathwayObject> materialized = new LinkedHashMap<PathwayObject, VPathwayObject>(
+			16, 0.75f, true); // views created on demand, least recently used first
+	private int virtualBudget = Integer.MAX_VALUE; // see GlobalPreference.VIRTUAL_BUDGET
+
+	// level of detail thresholds in pixels, see GlobalPreference.LOD_*
+	private volatile int lodShapeSize = 0;
+	private volatile int lodTextSize = 0;
+	private volatile int lodDecorationSize = 0;
 	SelectionBox selection;
-	private List<VElement> toAdd = new ArrayList<VElement>();
+	private ArrayList<VElement> toAdd = new ArrayList<VElement>();
 	private VElement lastEnteredElement = null;
 	private VElement pressedObject = null; // VElement that is pressed last mouseDown event
 	Template newTemplate = null;
@@ -138,6 +164,7 @@ public VPathwayModel(VPathwayModelWrapper parent) {
 		this.parent = parent;
 
 		drawingObjects = new ArrayList<VElement>();
+		overlayObjects = new ArrayList<VElement>();
 
 		selection = new SelectionBox(this);
 
@@ -186,14 +213,30 @@ public void setVInfoBox(VInfoBox v) {
 	}
 
 	/**
-	 * Returns all VElement on this VPathwayModel.
+	 * Returns all VElement on this VPathwayModel, in drawing order. Handles, link
+	 * anchors and the selection box are not included, see
+	 * {@link #getOverlayObjects()}. For a large pathway this creates the views of
+	 * all elements that don't have one yet, see {@link #materializeAll()}.
 	 * 
 	 * @return drawingObjects
 	 */
 	public List<VElement> getDrawingObjects() {
+		materializeAll();
+		cleanUp();
+		updateDrawOrder();
 		return drawingObjects;
 	}
 
+	/**
+	 * Returns the interaction decorations on this VPathwayModel: handles, link
+	 * anchors and the selection box. They are drawn on top of the drawing objects.
+	 * 
+	 * @return overlayObjects, in no particular order.
+	 */
+	public List<VElement> getOverlayObjects() {
+		return overlayObjects;
+	}
+
 	public void setPressedObject(VElement o) {
 		pressedObject = o;
 	}
@@ -261,10 +304,15 @@ public void setSelectionEnabled(boolean value) {
 	 * element and adds all results together to obtain the board size
 	 */
 	public Dimension calculateVSize() {
+		cleanUp();
 		Rectangle2D bounds = new Rectangle2D.Double();
 		for (VElement e : drawingObjects) {
 			bounds.add(e.getVBounds());
 		}
+		Rectangle2D extent = virtualIndex.getExtent();
+		if (extent != null && !virtualIndex.isEmpty()) {
+			bounds.add(vFromM(extent));
+		}
 		return new Dimension((int) bounds.getWidth() + 10, (int) bounds.getHeight() + 10);
 	}
 
@@ -311,22 +359,55 @@ public VPoint newPoint(LinePoint linePoint, VLineElement vLineElement) {
 
 	/**
 	 * Returns the view representation {@link VPathwayObject} of the given model
-	 * element {@link PathwayElement}
+	 * element {@link PathwayElement}. For a large pathway, the view is created if
+	 * the element doesn't have one yet, see {@link #materialize(PathwayObject)}.
 	 *
 	 * @param e
 	 * @return the {@link VPathwayObject} representing the given
 	 *         {@link PathwayElement} or <code>null</code> if no view is available
 	 */
 	public VPathwayObject getPathwayElementView(PathwayObject e) {
-		// TODO: store Graphics in a hashmap to improve speed
-		for (VElement ve : drawingObjects) {
-			if (ve instanceof VPathwayObject) {
-				VPathwayObject ge = (VPathwayObject) ve;
-				if (ge.getPathwayObject() == e)
-					return ge;
-			}
+		VPathwayObject view = pathwayObjectViews.get(e);
+		if (view == null && !virtualIndex.isEmpty()) {
+			// the view of a state is created with that of its data node
+			materialize(e instanceof State ? ((State) e).getDataNode() : e);
+			view = pathwayObjectViews.get(e);
+		}
+		return view;
+	}
+
+	/**
+	 * Returns true if the given model element belongs to a large pathway, and has
+	 * no view at the moment because it was not needed yet, see
+	 * {@link #materialize(PathwayObject)}.
+	 *
+	 * @param e the model element.
+	 * @return true if the element has no view yet.
+	 */
+	boolean isVirtual(PathwayObject e) {
+		return virtualIndex.contains(e);
+	}
+
+	/**
+	 * Registers the view of a model element, called on creation of a
+	 * {@link VPathwayObject}.
+	 * 
+	 * @param view the view of {@link VPathwayObject#getPathwayObject()}.
+	 */
+	void registerPathwayElementView(VPathwayObject view) {
+		pathwayObjectViews.put(view.getPathwayObject(), view);
+	}
+
+	/**
+	 * Unregisters the view of a model element, called on destruction of a
+	 * {@link VPathwayObject}.
+	 * 
+	 * @param view the view of {@link VPathwayObject#getPathwayObject()}.
+	 */
+	void unregisterPathwayElementView(VPathwayObject view) {
+		if (pathwayObjectViews.get(view.getPathwayObject()) == view) {
+			pathwayObjectViews.remove(view.getPathwayObject());
 		}
-		return null;
 	}
 
 	/**
@@ -337,8 +418,25 @@ public VPathwayObject getPathwayElementView(PathwayObject e) {
 	public void fromModel(PathwayModel pathwayModel) {
 		Logger.log.trace("Create view structure");
 		data = pathwayModel;
+		List<PathwayElement> elements = data.getPathwayElements();
+		int expected = elements.size() + data.getDataNodes().size(); // leave room for states and citations
+		if (drawingObjects.isEmpty()) {
+			drawingObjects = new ArrayList<VElement>(expected);
+		}
+		if (pathwayObjectViews.isEmpty()) {
+			pathwayObjectViews = new IdentityHashMap<PathwayObject, VPathwayObject>(expected);
+		}
+		toAdd.ensureCapacity(toAdd.size() + expected);
+		PreferenceManager prefs = PreferenceManager.getCurrent();
+		int threshold = prefs.getInt(GlobalPreference.VIRTUAL_THRESHOLD);
+		boolean virtual = threshold > 0 && elements.size() > threshold;
+		virtualBudget = prefs.getInt(GlobalPreference.VIRTUAL_BUDGET);
 //		fromModelElement(data.getPathway()); // pathway TODO part of pathway elements?
-		for (PathwayElement o : data.getPathwayElements()) {
+		for (PathwayElement o : elements) {
+			if (virtual && isVirtualizable(o)) {
+				virtualize(o);
+				continue;
+			}
 			fromModelElement(o);
 			if (o.getObjectType() == ObjectType.DATANODE) {
 				for (State st : ((DataNode) o).getStates()) { // states
@@ -346,6 +444,7 @@ public void fromModel(PathwayModel pathwayModel) {
 				}
 			}
 		}
+		precalculateShapes(toAdd);
 		// data.fireObjectModifiedEvent(new PathwayEvent(null,
 		// PathwayEvent.MODIFIED_GENERAL));
 		fireVPathwayEvent(new VPathwayModelEvent(this, VPathwayModelEventType.MODEL_LOADED));
@@ -355,6 +454,40 @@ public void fromModel(PathwayModel pathwayModel) {
 		Logger.log.trace("Done creating view structure");
 	}
 
+	/** minimum number of new elements to calculate their shapes in parallel */
+	static final int PARALLEL_THRESHOLD = 1000;
+
+	/**
+	 * Calculates the outlines and bounds of newly created shaped elements, in
+	 * parallel if there are many of them. This runs on the fork-join pool of the
+	 * calling task, or else on the common pool. Otherwise this happens one by one,
+	 * when the spatial index is built on the first paint.
+	 * <p>
+	 * Only the outlines of {@link VShapedElement}s are calculated here, because
+	 * they depend on nothing but their own model: each element reads the shape,
+	 * size and position of its model object (a {@link State} keeps its own
+	 * coordinates, and doesn't look at its data node or the view of that), the
+	 * zoom factor and the synchronized {@link OutlineCache}, and writes only its
+	 * own caches. Nothing else changes the model or the view meanwhile. Groups and
+	 * lines depend on other elements, and are left for the event dispatch thread.
+	 * The results are visible to the calling thread once this method returns.
+	 * 
+	 * @param elts the new elements.
+	 */
+	private void precalculateShapes(List<VElement> elts) {
+		ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+		if (elts.size() < PARALLEL_THRESHOLD || pool.getParallelism() < 2) {
+			return;
+		}
+		List<VElement> shapes = new ArrayList<VElement>(elts.size());
+		for (VElement elt : elts) {
+			if (elt instanceof VShapedElement && !(elt instanceof VGroup)) {
+				shapes.add(elt);
+			}
+		}
+		shapes.parallelStream().forEach(VElement::getVBounds);
+	}
+
 	/**
 	 * Maps the contents of a single data object to this VPathway.
 	 * 
@@ -465,15 +598,231 @@ private VPathwayObject fromModelPathway(Pathway o) {
 		return mi;
 	}
 
+	// ================================================================================
+	// Virtual Elements
+	// ================================================================================
+	/**
+	 * Margin around the model bounds of an element without a view, in model
+	 * coordinates. It covers strokes, highlights, arrow heads and bends of
+	 * connectors.
+	 */
+	static final double VIRTUAL_MARGIN = 32;
+
 	/**
-	 * Used by undo manager.
+	 * Keeps the bounds of elements without a view up to date when they are
+	 * modified, e.g. by a plugin or because an element they are linked to moved.
 	 */
-	public void replacePathwayModel(PathwayModel originalState) {
+	private final PathwayObjectListener virtualListener = new PathwayObjectListener() {
+		public void gmmlObjectModified(PathwayObjectEvent e) {
+			PathwayObject o = e.getModifiedPathwayObject();
+			Rectangle2D old = virtualIndex.getBounds(o);
+			if (old == null) {
+				return;
+			}
+			Rectangle2D bounds = virtualBounds(o);
+			virtualIndex.update(o, bounds);
+			addDirtyRect(vFromM(old));
+			addDirtyRect(vFromM(bounds));
+		}
+	};
+
+	/**
+	 * Returns true if the view of the given element may be created on demand,
+	 * rather than when the pathway is loaded. Groups are always created up front,
+	 * so that they can find their members.
+	 */
+	private static boolean isVirtualizable(PathwayObject o) {
+		switch (o.getObjectType()) {
+		case DATANODE:
+		case LABEL:
+		case SHAPE:
+		case INTERACTION:
+		case GRAPHLINE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return the model bounds of the given element, including
+	 *         {@link #VIRTUAL_MARGIN}.
+	 */
+	private static Rectangle2D virtualBounds(PathwayObject o) {
+		Rectangle2D b;
+		if (o instanceof ShapedElement) {
+			b = ((ShapedElement) o).getRotatedBounds();
+		} else {
+			b = ((LineElement) o).getBounds();
+		}
+		return new Rectangle2D.Double(b.getX() - VIRTUAL_MARGIN, b.getY() - VIRTUAL_MARGIN,
+				b.getWidth() + 2 * VIRTUAL_MARGIN, b.getHeight() + 2 * VIRTUAL_MARGIN);
+	}
+
+	private Rectangle2D vFromM(Rectangle2D r) {
+		return new Rectangle2D.Double(vFromM(r.getX()), vFromM(r.getY()), vFromM(r.getWidth()),
+				vFromM(r.getHeight()));
+	}
+
+	/**
+	 * Puts an element without a view in the virtual index.
+	 */
+	private void virtualize(PathwayObject o) {
+		virtualIndex.add(o, virtualBounds(o));
+		o.addListener(virtualListener);
+	}
+
+	/**
+	 * Creates the view of an element of a large pathway that has none yet,
+	 * together with the views of its states. The new views are added to the
+	 * drawing with the next {@link #addScheduled()}, and may be dropped again
+	 * when they are off screen, see {@link #evictMaterialized(Rectangle)}.
+	 *
+	 * @param o the model element.
+	 * @return the new view, or null if the element was not in the virtual index.
+	 */
+	private VPathwayObject materialize(PathwayObject o) {
+		if (!virtualIndex.remove(o)) {
+			return null;
+		}
+		o.removeListener(virtualListener);
+		VPathwayObject view = fromModelElement(o);
+		if (o instanceof DataNode) {
+			for (State st : ((DataNode) o).getStates()) {
+				fromModelElement(st);
+			}
+		}
+		materialized.put(o, view);
+		return view;
+	}
 
+	/**
+	 * Creates the views of the elements of a large pathway that may intersect
+	 * the given area, and adds them to the drawing.
+	 *
+	 * @param r the area, in view coordinates.
+	 */
+	private void materializeIn(Rectangle2D r) {
+		if (virtualIndex.isEmpty()) {
+			return;
+		}
+		Rectangle2D mr = new Rectangle2D.Double(mFromV(r.getX()), mFromV(r.getY()), mFromV(r.getWidth()),
+				mFromV(r.getHeight()));
+		List<PathwayObject> objects = virtualIndex.query(mr);
+		if (!objects.isEmpty()) {
+			for (PathwayObject o : objects) {
+				materialize(o);
+			}
+			addScheduled();
+		}
+	}
+
+	/**
+	 * Creates the views of all elements that don't have one yet. This is needed
+	 * by operations that work on all elements, such as select all.
+	 */
+	void materializeAll() {
+		if (virtualIndex.isEmpty()) {
+			return;
+		}
+		for (PathwayObject o : virtualIndex.getAll()) {
+			materialize(o);
+		}
+		addScheduled();
+	}
+
+	/**
+	 * Drops the least recently used views that were created on demand, until
+	 * there are no more than {@link GlobalPreference#VIRTUAL_BUDGET} of them. Views
+	 * in the given area, and views that take part in the interaction with the
+	 * user (selected, highlighted, pressed, showing link anchors), are kept.
+	 *
+	 * @param area the visible area, in view coordinates.
+	 */
+	private void evictMaterialized(Rectangle area) {
+		int excess = materialized.size() - virtualBudget;
+		if (excess <= 0 || updateDepth > 0 || isDragging) {
+			return;
+		}
+		List<VPathwayObject> evict = new ArrayList<VPathwayObject>(excess);
+		for (VPathwayObject view : materialized.values()) { // least recently used first
+			if (evict.size() == excess) {
+				break;
+			}
+			if (isEvictable(view, area)) {
+				evict.add(view);
+			}
+		}
+		for (VPathwayObject view : evict) {
+			PathwayObject o = view.getPathwayObject();
+			materialized.remove(o);
+			if (o instanceof DataNode) {
+				for (State st : ((DataNode) o).getStates()) {
+					VPathwayObject vst = pathwayObjectViews.get(st);
+					if (vst != null) {
+						vst.destroy();
+					}
+				}
+			}
+			view.destroy();
+			virtualize(o);
+		}
+		cleanUp();
+	}
+
+	private boolean isEvictable(VPathwayObject view, Rectangle area) {
+		if (isInUse(view) || view.vIntersects(area)) {
+			return false;
+		}
+		if (view.getPathwayObject() instanceof DataNode) {
+			for (State st : ((DataNode) view.getPathwayObject()).getStates()) {
+				VPathwayObject vst = pathwayObjectViews.get(st);
+				if (vst != null && isInUse(vst)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private boolean isInUse(VElement view) {
+		return view.isSelected() || highlightedObjects.contains(view) || view == pressedObject
+				|| view == lastEnteredElement || linkAnchorProviders.contains(view);
+	}
+
+	/**
+	 * Forgets the elements without a view, and which views were created on
+	 * demand.
+	 */
+	private void clearVirtual() {
+		for (PathwayObject o : virtualIndex.getAll()) {
+			o.removeListener(virtualListener);
+		}
+		virtualIndex.clear();
+		materialized.clear();
+	}
+
+	/**
+	 * Replaces the pathway model and all views.
+	 * 
+	 * @param originalState the new pathway model.
+	 */
+	public void replacePathwayModel(PathwayModel originalState) {
 		boolean changed = data.hasChanged();
 
 		clearSelection();
 		drawingObjects = new ArrayList<VElement>();
+		drawOrderValid = true;
+		spatialIndex.clear();
+		overlayObjects = new ArrayList<VElement>();
+		overlayIndex.clear();
+		selectedObjects.clear();
+		highlightedObjects.clear();
+		removedObjects.clear();
+		linkAnchorProviders.clear();
+		currentLinkAnchor = null;
+		pathwayObjectViews = new IdentityHashMap<PathwayObject, VPathwayObject>();
+		clearVirtual();
 		// transfer selectionBox with corresponding listeners
 		SelectionBox newSelection = new SelectionBox(this);
 		for (Iterator<SelectionListener> i = selection.getListeners().iterator(); i.hasNext();) {
@@ -519,20 +868,83 @@ boolean checkDrawAllowed(VElement o) {
 	 *            the clipping area.
 	 */
 	public void draw(Graphics2D g2d) {
+		// we only redraw the part within the clipping area.
+		Rectangle area = g2d.getClipBounds();
+		if (area == null) {
+			Dimension size = parent == null ? new Dimension(getVWidth(), getVHeight())
+					: parent.getViewRect().getSize(); // Draw the visible area
+			area = new Rectangle(0, 0, size.width, size.height);
+		}
+		draw(g2d, area, getDrawList(area));
+	}
+
+	/**
+	 * Collects the elements that need to be drawn for the given area, in drawing
+	 * order. This has to be called on the thread that modifies the pathway
+	 * (usually the event dispatch thread), and so has drawing the result with
+	 * {@link #draw(Graphics2D, Rectangle, List)}.
+	 * 
+	 * @param area the area to draw, in view coordinates.
+	 * @return an unmodifiable snapshot of the elements to draw.
+	 */
+	public List<VElement> getDrawList(Rectangle area) {
 		addScheduled();
 		cleanUp();
+		updateConnectors();
 
-		try {
-			// save original, non-clipped, to pass on to VPathwayEvent
-			Graphics2D g2dFull = (Graphics2D) g2d.create();
+		PreferenceManager prefs = PreferenceManager.getCurrent();
+		lodShapeSize = prefs.getInt(GlobalPreference.LOD_SHAPE_SIZE);
+		lodTextSize = prefs.getInt(GlobalPreference.LOD_TEXT_SIZE);
+		lodDecorationSize = prefs.getInt(GlobalPreference.LOD_DECORATION_SIZE);
 
-			// we only redraw the part within the clipping area.
-			Rectangle area = g2d.getClipBounds();
-			if (area == null) {
-				Dimension size = parent == null ? new Dimension(getVWidth(), getVHeight())
-						: parent.getViewRect().getSize(); // Draw the visible area
-				area = new Rectangle(0, 0, size.width, size.height);
+		List<VElement> result = new ArrayList<VElement>();
+		try {
+			// only visit the elements that may be in the area
+			for (VElement o : getCandidatesIn(area)) {
+				if (o.vIntersects(area) && o.isDrawnAtLevelOfDetail() && checkDrawAllowed(o)) {
+					result.add(o);
+				}
+			}
+			// decorations go on top of the content
+			for (VElement o : getOverlayCandidatesIn(area)) {
+				if (o.vIntersects(area) && o.isDrawnAtLevelOfDetail() && checkDrawAllowed(o)) {
+					result.add(o);
+				}
+			}
+		} catch (ConcurrentModificationException ex) {
+			// guard against messing up repaint event completely
+			Logger.log.error("Concurrent modification", ex);
+		}
+		if (!materialized.isEmpty()) {
+			for (VElement o : result) {
+				if (o instanceof VPathwayObject) {
+					materialized.get(((VPathwayObject) o).getPathwayObject()); // mark as recently used
+				}
 			}
+			evictMaterialized(parent == null ? area : parent.getViewRect().union(area));
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Paints the elements of a draw list obtained with
+	 * {@link #getDrawList(Rectangle)}. The background of the area is erased first.
+	 * <p>
+	 * Elements fill their caches while they are drawn, so this must be called on
+	 * the thread that modifies the pathway. To rasterize on another thread, use
+	 * {@link #getDrawingSnapshot(Rectangle)}.
+	 * 
+	 * @param g2d      the graphics device to draw on.
+	 * @param area     the area to draw, in view coordinates.
+	 * @param drawList the elements to draw, in drawing order.
+	 */
+	public void draw(Graphics2D g2d, Rectangle area, List<VElement> drawList) {
+		try {
+			// draw-time events are only built if someone listens to them
+			boolean fireEach = hasVPathwayListener(VPathwayModelEventType.ELEMENT_DRAWN);
+			boolean fireAll = hasVPathwayListener(VPathwayModelEventType.ELEMENTS_DRAWN);
+			// save original, non-clipped, to pass on to VPathwayEvent
+			Graphics2D g2dFull = fireEach || fireAll ? (Graphics2D) g2d.create() : null;
 
 			// erase the background
 			g2d.setColor(data.getPathway().getBackgroundColor());
@@ -544,23 +956,42 @@ public void draw(Graphics2D g2d) {
 
 			g2d.clip(area);
 			g2d.setColor(java.awt.Color.BLACK);
-			Collections.sort(drawingObjects);
-			cleanUp();
-			for (VElement o : drawingObjects) {
-				if (o.vIntersects(area)) {
-					if (checkDrawAllowed(o)) {
-						o.draw((Graphics2D) g2d.create());
-						fireVPathwayEvent(new VPathwayModelEvent(this, o, (Graphics2D) g2dFull.create(),
-								VPathwayModelEventType.ELEMENT_DRAWN));
-					}
+			for (VElement o : drawList) {
+				o.draw(g2d); // works on a copy of g2d
+				if (fireEach) {
+					fireVPathwayEvent(new VPathwayModelEvent(this, o, (Graphics2D) g2dFull.create(),
+							VPathwayModelEventType.ELEMENT_DRAWN));
 				}
 			}
+			if (fireAll) {
+				fireVPathwayEvent(new VPathwayModelEvent(this, drawList, g2dFull,
+						VPathwayModelEventType.ELEMENTS_DRAWN));
+			}
+			if (g2dFull != null) {
+				g2dFull.dispose();
+			}
 		} catch (ConcurrentModificationException ex) {
 			// guard against messing up repaint event completely
 			Logger.log.error("Concurrent modification", ex);
 		}
 	}
 
+	/**
+	 * Records how the given area is drawn, so that it can be rasterized on
+	 * another thread with {@link DrawingSnapshot#draw(Graphics2D)}. The elements
+	 * are drawn here, on the thread that modifies the pathway (usually the event
+	 * dispatch thread), and so are the draw-time events fired. Listeners draw
+	 * into the snapshot as well.
+	 * 
+	 * @param area the area to draw, in view coordinates.
+	 * @return the drawing of the area, including its background.
+	 */
+	public DrawingSnapshot getDrawingSnapshot(Rectangle area) {
+		DrawingSnapshot.Recorder recorder = new DrawingSnapshot.Recorder();
+		draw(recorder, area, getDrawList(area));
+		return recorder.getSnapshot();
+	}
+
 	/**
 	 * This will cause a complete redraw of the pathway to be scheduled. The redraw
 	 * will happen as soon as all other swing events are processed.
@@ -583,6 +1014,202 @@ void addDirtyRect(Rectangle2D ar) {
 			parent.redraw(ar.getBounds());
 	}
 
+	/**
+	 * @return the on-screen size in pixels below which elements are drawn
+	 *         simplified.
+	 */
+	int getLodShapeSize() {
+		return lodShapeSize;
+	}
+
+	/**
+	 * @return the on-screen font size in pixels below which text is drawn as
+	 *         bars.
+	 */
+	int getLodTextSize() {
+		return lodTextSize;
+	}
+
+	/**
+	 * @return the on-screen size in pixels of an element below which its
+	 *         decorations (citations, anchors, states) are not drawn.
+	 */
+	int getLodDecorationSize() {
+		return lodDecorationSize;
+	}
+
+	/**
+	 * Called when the z-order of an element has changed, so that the drawing order
+	 * is recalculated before the next paint or hit-test.
+	 */
+	void drawOrderChanged() {
+		drawOrderValid = false;
+	}
+
+	/**
+	 * Sorts the drawing objects by z-order, if any z-order has changed or elements
+	 * were added out of order since the last sort.
+	 */
+	private void updateDrawOrder() {
+		if (!drawOrderValid) {
+			Collections.sort(drawingObjects);
+			int i = 0;
+			for (VElement elt : drawingObjects) {
+				elt.drawIndex = i++;
+			}
+			drawOrderValid = true;
+		}
+	}
+
+	/**
+	 * Called by {@link VElement} whenever its cached shape is reset, so that its
+	 * bounds are updated in the spatial index.
+	 */
+	void shapeChanged(VElement elt) {
+		if (updateDepth > 0 && pendingRefresh.contains(elt)) {
+			return; // updated when refreshed at the end of the update
+		}
+		if (elt.isOverlay()) {
+			overlayIndex.update(elt);
+		} else {
+			spatialIndex.update(elt);
+		}
+	}
+
+	/**
+	 * Called by {@link VElement} when it is selected or deselected, so that the
+	 * selected elements can be found without walking all drawing objects.
+	 */
+	void selectionChanged(VElement elt, boolean selected) {
+		if (selected) {
+			selectedObjects.add(elt);
+		} else {
+			selectedObjects.remove(elt);
+		}
+	}
+
+	/**
+	 * Called by {@link VElement} when it is highlighted or unhighlighted, so that
+	 * {@link #resetHighlight()} only visits the highlighted elements.
+	 */
+	void highlightChanged(VElement elt, boolean highlighted) {
+		if (highlighted) {
+			highlightedObjects.add(elt);
+		} else {
+			highlightedObjects.remove(elt);
+		}
+	}
+
+	/**
+	 * Called by a {@link VLineElement} when its connector needs to be
+	 * recalculated. The last known area of the line is marked dirty, so that the
+	 * wrapper repaints it, and calls {@link #updateConnectors()} before it does.
+	 * The current bounds are not asked for, because calculating them would update
+	 * the connector right away.
+	 */
+	void scheduleConnectorUpdate(VLineElement line) {
+		pendingConnectors.add(line);
+		Rectangle2D r = line.getLastKnownVBounds();
+		if (r != null) {
+			addDirtyRect(r);
+		}
+	}
+
+	/**
+	 * Called by a {@link VLineElement} when its connector has been updated, or
+	 * when it is destroyed.
+	 */
+	void connectorUpdated(VLineElement line) {
+		pendingConnectors.remove(line);
+	}
+
+	/**
+	 * Recalculates the connectors of all lines that were affected by changes in
+	 * the model since the last call. This is done before drawing and hit-testing,
+	 * and should be called by the wrapper once per frame. Note that it can cause
+	 * more areas to be marked dirty.
+	 */
+	public void updateConnectors() {
+		while (!pendingConnectors.isEmpty()) {
+			Iterator<VLineElement> it = pendingConnectors.iterator();
+			VLineElement line = it.next();
+			it.remove();
+			line.updateConnector();
+		}
+	}
+
+	// ================================================================================
+	// Update Methods
+	// ================================================================================
+	private int updateDepth = 0;
+	private final Set<VPathwayObject> pendingRefresh = new LinkedHashSet<VPathwayObject>();
+
+	/**
+	 * @see #beginUpdate(String)
+	 */
+	public void beginUpdate() {
+		beginUpdate(null);
+	}
+
+	/**
+	 * Starts a batch of changes to the model, such as moving or aligning many
+	 * elements. Until the matching {@link #endUpdate()}, the view only records
+	 * which elements have changed. At the end, each of them is refreshed once,
+	 * followed by a single repaint of the changed area and an UPDATE_FINISHED
+	 * event. Updates can be nested, and should be ended in a finally block.
+	 * <p>
+	 * The spatial index is not updated until the end, so hit-testing during an
+	 * update can return outdated results.
+	 * 
+	 * @param description the description of the change for the undo history, or
+	 *                    null. At most one undo action is recorded, see
+	 *                    {@link UndoManager#beginTransaction(String)}.
+	 */
+	public void beginUpdate(String description) {
+		updateDepth++;
+		if (undoManager != null) {
+			undoManager.beginTransaction(description);
+		}
+	}
+
+	/**
+	 * Ends an update started with {@link #beginUpdate(String)}.
+	 */
+	public void endUpdate() {
+		if (undoManager != null) {
+			undoManager.endTransaction();
+		}
+		if (updateDepth == 0 || --updateDepth > 0) {
+			return;
+		}
+		while (!pendingRefresh.isEmpty()) {
+			Iterator<VPathwayObject> it = pendingRefresh.iterator();
+			VPathwayObject o = it.next();
+			it.remove();
+			o.refresh();
+		}
+		cleanUp();
+		updateConnectors();
+		if (selection.fitPending) {
+			selection.fitToSelection();
+		}
+		fireVPathwayEvent(new VPathwayModelEvent(this, VPathwayModelEventType.UPDATE_FINISHED));
+	}
+
+	/**
+	 * @return true between {@link #beginUpdate(String)} and {@link #endUpdate()}.
+	 */
+	public boolean isUpdating() {
+		return updateDepth > 0;
+	}
+
+	/**
+	 * Called by a {@link VPathwayObject} when its model changes during an update.
+	 */
+	void scheduleRefresh(VPathwayObject o) {
+		pendingRefresh.add(o);
+	}
+
 	// ================================================================================
 	// Selection Methods
 	// ================================================================================
@@ -619,12 +1246,33 @@ public void clearSelection() {
 	 * @param y the y coordinate.
 	 */
 	private void clearSelection(double x, double y) {
-		for (VElement e : drawingObjects) {
+		// deselecting a group deselects its members as well, so work on a copy
+		for (VElement e : new ArrayList<VElement>(selectedObjects)) {
 			e.deselect();
 		}
 		selection.reset(x, y);
 	}
 
+	/**
+	 * Returns the selected drawing objects, in drawing order. This includes
+	 * objects that are selected, but not part of the selection box, such as the
+	 * members of a selected group.
+	 * 
+	 * @return the selected drawing objects.
+	 */
+	private List<VElement> getSelectedDrawingObjects() {
+		addScheduled(); // views that were created when they got selected
+		updateDrawOrder();
+		List<VElement> result = new ArrayList<VElement>(selectedObjects.size());
+		for (VElement e : selectedObjects) {
+			if (spatialIndex.contains(e)) {
+				result.add(e);
+			}
+		}
+		Collections.sort(result, VElement.DRAW_ORDER);
+		return result;
+	}
+
 	/**
 	 * Select all objects of the given class.
 	 *
@@ -634,12 +1282,14 @@ private void clearSelection(double x, double y) {
 	void selectObjects(Class<?> c) {
 		clearSelection();
 		selection.startSelecting();
+		List<VElement> objects = new ArrayList<VElement>();
 		for (VElement vpe : getDrawingObjects()) {
 			if (c == null || c.isInstance(vpe)) {
-				selection.addToSelection(vpe);
+				objects.add(vpe);
 			}
 
 		}
+		selection.addToSelection(objects);
 		selection.stopSelecting();
 	}
 
@@ -651,33 +1301,35 @@ void selectObjects(Class<?> c) {
 	public void selectObjectsByObjectType(Class<?> c) {
 		clearSelection();
 		selection.startSelecting();
+		List<VElement> objects = new ArrayList<VElement>();
 		if (c == DataNode.class) {
 			for (DataNode pe : getPathwayModel().getDataNodes()) {
-				selection.addToSelection(getPathwayElementView(pe));
+				objects.add(getPathwayElementView(pe));
 			}
 		} else if (c == Interaction.class) {
 			for (Interaction pe : getPathwayModel().getInteractions()) {
-				selection.addToSelection(getPathwayElementView(pe));
+				objects.add(getPathwayElementView(pe));
 			}
 		} else if (c == GraphicalLine.class) {
 			for (GraphicalLine pe : getPathwayModel().getGraphicalLines()) {
-				selection.addToSelection(getPathwayElementView(pe));
+				objects.add(getPathwayElementView(pe));
 			}
 		} else if (c == Label.class) {
 			for (Label pe : getPathwayModel().getLabels()) {
-				selection.addToSelection(getPathwayElementView(pe));
+				objects.add(getPathwayElementView(pe));
 			}
 		} else if (c == Shape.class) {
 			for (Shape pe : getPathwayModel().getShapes()) {
-				selection.addToSelection(getPathwayElementView(pe));
+				objects.add(getPathwayElementView(pe));
 			}
 		} else if (c == Group.class) {
 			for (Group pe : getPathwayModel().getGroups()) {
-				selection.addToSelection(getPathwayElementView(pe));
+				objects.add(getPathwayElementView(pe));
 			}
 		} else {
 			// TODO???? Citations, Annotations... other???
 		}
+		selection.addToSelection(objects);
 		selection.stopSelecting();
 	}
 
@@ -697,8 +1349,8 @@ public Set<VElement> getSelectedPathwayElements() {
 	 */
 	public List<VDrawable> getSelectedGraphics() {
 		List<VDrawable> result = new ArrayList<VDrawable>();
-		for (VElement g : drawingObjects) {
-			if (g.isSelected() && g instanceof VDrawable && !(g instanceof SelectionBox)) {
+		for (VElement g : getSelectedDrawingObjects()) {
+			if (g instanceof VDrawable) {
 				result.add((VDrawable) g);
 			}
 		}
@@ -713,8 +1365,8 @@ public List<VDrawable> getSelectedGraphics() {
 	 */
 	public List<VGroupable> getSelectedNonGroupGraphics() {
 		List<VGroupable> result = new ArrayList<VGroupable>();
-		for (VElement g : drawingObjects) {
-			if (g.isSelected() && g instanceof VGroupable && !(g instanceof SelectionBox) && !((g instanceof VGroup))) {
+		for (VElement g : getSelectedDrawingObjects()) {
+			if (g instanceof VGroupable && !((g instanceof VGroup))) {
 				result.add((VGroupable) g);
 			}
 		}
@@ -816,7 +1468,12 @@ public VGroup toggleGroup(List<VDrawable> selection) {
 	public void pathwayModified(PathwayModelEvent e) {
 		switch (e.getType()) {
 		case PathwayModelEvent.DELETED:
-			VPathwayObject deleted = getPathwayElementView(e.getAffectedData());
+			if (virtualIndex.remove(e.getAffectedData())) {
+				e.getAffectedData().removeListener(virtualListener);
+				break; // no view to remove
+			}
+			materialized.remove(e.getAffectedData());
+			VPathwayObject deleted = pathwayObjectViews.get(e.getAffectedData());
 			if (deleted != null) {
 				deleted.markDirty();
 				removeDrawingObject(deleted, false);
@@ -825,7 +1482,11 @@ public void pathwayModified(PathwayModelEvent e) {
 		case PathwayModelEvent.ADDED:
 			lastAdded = fromModelElement(e.getAffectedData());
 			if (lastAdded != null) {
-				lastAdded.markDirty();
+				if (updateDepth > 0) {
+					scheduleRefresh(lastAdded);
+				} else {
+					lastAdded.markDirty();
+				}
 			}
 			break;
 		case PathwayModelEvent.RESIZED:
@@ -835,7 +1496,6 @@ public void pathwayModified(PathwayModelEvent e) {
 			break;
 		}
 		addScheduled();
-		cleanUp();
 	}
 
 	// ================================================================================
@@ -859,12 +1519,64 @@ public void addObject(VElement o) {
 	 * elements array. This method adds the elements that are scheduled to be added.
 	 */
 	void addScheduled() {
+		if (drawingObjects.isEmpty() && overlayObjects.isEmpty()) {
+			addAllScheduled();
+			return;
+		}
+		for (VElement elt : toAdd) {
+			if (elt.toBeRemoved()) {
+				continue; // destroyed before it was added
+			}
+			if (elt.isOverlay()) {
+				if (!overlayIndex.contains(elt)) {
+					overlayObjects.add(elt);
+					overlayIndex.add(elt);
+				}
+			} else if (!spatialIndex.contains(elt)) { // Don't add duplicates!
+				// keep the drawing order valid if elt can simply go on top
+				if (drawingObjects.isEmpty()) {
+					elt.drawIndex = 0;
+				} else {
+					VElement last = drawingObjects.get(drawingObjects.size() - 1);
+					elt.drawIndex = last.drawIndex + 1;
+					if (last.compareTo(elt) > 0) {
+						drawOrderValid = false;
+					}
+				}
+				drawingObjects.add(elt);
+				spatialIndex.add(elt);
+			}
+		}
+		toAdd.clear();
+	}
+
+	/**
+	 * Adds the scheduled elements to an empty drawing, such as after loading a
+	 * pathway. Every element is new, so instead of asking the spatial index for
+	 * each of them, duplicates are filtered with a local identity set, and all
+	 * elements are indexed in one go.
+	 */
+	private void addAllScheduled() {
+		Set<VElement> added = Collections.newSetFromMap(new IdentityHashMap<VElement, Boolean>(toAdd.size()));
+		VElement last = null;
 		for (VElement elt : toAdd) {
-			if (!drawingObjects.contains(elt)) { // Don't add duplicates!
+			if (!added.add(elt) || elt.toBeRemoved()) {
+				continue; // Don't add duplicates, or elements destroyed before they were added
+			}
+			if (elt.isOverlay()) {
+				overlayObjects.add(elt);
+				overlayIndex.add(elt);
+			} else {
+				elt.drawIndex = drawingObjects.size();
+				if (last != null && last.compareTo(elt) > 0) {
+					drawOrderValid = false;
+				}
 				drawingObjects.add(elt);
+				last = elt;
 			}
 		}
 		toAdd.clear();
+		spatialIndex.addAll(drawingObjects);
 	}
 
 	/**
@@ -930,20 +1642,24 @@ public void removeDrawingObjects(List<VElement> toRemove) {
 	 * @param removeFromModel Whether to remove the model representation or not
 	 */
 	public void removeDrawingObjects(List<VElement> toRemove, boolean removeFromModel) {
-		// first remove view citations (to workaround a bug)
-		for (VElement o : toRemove) {
-			if (o.getClass() == VCitation.class) {
-				removeDrawingObject(o, removeFromModel);
+		beginUpdate(null); // fit the selection and compact the drawing once, at the end
+		try {
+			// first remove view citations (to workaround a bug)
+			for (VElement o : toRemove) {
+				if (o.getClass() == VCitation.class) {
+					removeDrawingObject(o, removeFromModel);
+				}
 			}
-		}
-		// then remove other view elements
-		for (VElement o : toRemove) {
-			if (o.getClass() != VCitation.class) {
-				removeDrawingObject(o, removeFromModel);
+			// then remove other view elements
+			for (VElement o : toRemove) {
+				if (o.getClass() != VCitation.class) {
+					removeDrawingObject(o, removeFromModel);
+				}
 			}
+		} finally {
+			endUpdate();
 		}
 		selection.fitToSelection();
-		cleanUp();
 	}
 
 	/**
@@ -960,7 +1676,6 @@ public void removeDrawingObject(VElement toRemove, boolean removeFromModel) {
 					data.remove(((VPathwayElement) toRemove).getPathwayObject());
 				}
 			}
-			cleanUp();
 		}
 	}
 
@@ -1010,6 +1725,9 @@ public void setPctZoom(double pctZoomFactor) {
 		for (VElement vpe : drawingObjects) {
 			vpe.zoomChanged();
 		}
+		for (VElement vpe : overlayObjects) {
+			vpe.zoomChanged();
+		}
 		if (parent != null)
 			parent.resized();
 	}
@@ -1063,6 +1781,7 @@ public double getFitZoomFactor() {
 	// Link Methods
 	// ================================================================================
 	private LinkAnchor currentLinkAnchor;
+	private final Set<LinkProvider> linkAnchorProviders = new LinkedHashSet<LinkProvider>(); // showing link anchors
 
 	/**
 	 * Links a given point to an {@link VLinkableTo} object.
@@ -1071,9 +1790,7 @@ public double getFitZoomFactor() {
 	 * @param g   the handle
 	 */
 	private void linkPointToObject(Point2D p2d, Handle g) {
-		if (dragUndoState == DRAG_UNDO_CHANGE_START) {
-			dragUndoState = DRAG_UNDO_CHANGED;
-		}
+		startDragChange();
 		hideLinkAnchors();
 		VPoint vPoint = (VPoint) g.getAdjustable();
 		VLineElement vLine = vPoint.getLine();
@@ -1101,7 +1818,9 @@ private void linkPointToObject(Point2D p2d, Handle g) {
 					&& ((VAnchor) linkProvider).getAnchor().getShapeType().isDisallowLinks()) {
 				break;
 			}
-			linkProvider.showLinkAnchors();
+			if (linkAnchorProviders.add(linkProvider)) {
+				linkProvider.showLinkAnchors();
+			}
 			LinkAnchor linkAnchor = linkProvider.getLinkAnchorAt(p2d);
 			// if link anchor valid
 			if (linkAnchor != null) {
@@ -1133,7 +1852,7 @@ private void linkPointToObject(Point2D p2d, Handle g) {
 	 */
 	private List<LinkProvider> getLinkProvidersAt(Point2D p2d) {
 		List<LinkProvider> result = new ArrayList<LinkProvider>();
-		for (VElement o : drawingObjects) {
+		for (VElement o : getCandidatesAt(p2d)) {
 			if (o instanceof LinkProvider && o.getVBounds().contains(p2d)) {
 				result.add((LinkProvider) o);
 			}
@@ -1142,14 +1861,14 @@ private List<LinkProvider> getLinkProvidersAt(Point2D p2d) {
 	}
 
 	/**
-	 * 
+	 * Hides the link anchors of the link providers that show them, see
+	 * {@link #linkPointToObject(Point2D, Handle)}.
 	 */
 	private void hideLinkAnchors() {
-		for (VElement pe : getDrawingObjects()) {
-			if (pe instanceof LinkProvider) {
-				((LinkProvider) pe).hideLinkAnchors();
-			}
+		for (LinkProvider lp : linkAnchorProviders) {
+			lp.hideLinkAnchors();
 		}
+		linkAnchorProviders.clear();
 	}
 
 	// ================================================================================
@@ -1190,9 +1909,7 @@ public void mouseMove(MouseEvent e) {
 		// If dragging, drag the pressed object.
 		// And only when the right button isn't clicked
 		if (pressedObject != null && isDragging && !e.isKeyDown(java.awt.event.MouseEvent.BUTTON3_DOWN_MASK)) {
-			if (dragUndoState == DRAG_UNDO_CHANGE_START) {
-				dragUndoState = DRAG_UNDO_CHANGED;
-			}
+			startDragChange();
 			double vdx = e.getX() - vPreviousX;
 			double vdy = e.getY() - vPreviousY;
 			if (pressedObject instanceof Handle) {
@@ -1340,7 +2057,6 @@ public void mouseDown(MouseEvent e) {
 		if (!openHref(e, vpe)) {
 			// setFocus();
 			vDragStart = new Point(e.getX(), e.getY());
-			temporaryCopy = (PathwayModel) data.clone();
 			if (editMode) {
 				if (newTemplate != null) {
 					newObject(e.getLocation());
@@ -1365,9 +2081,11 @@ public void mouseDown(MouseEvent e) {
 	 * @param e the mouse event.
 	 */
 	public void mouseUp(MouseEvent e) {
+		// the waypoints of the dragged lines belong to the drag action
+		updateConnectors();
 		if (isDragging) {
 			if (dragUndoState == DRAG_UNDO_CHANGED) {
-				assert (temporaryCopy != null);
+				assert (dragAction != null);
 				// further specify the type of undo event,
 				// depending on the type of object being dragged
 				String message = "Drag Object";
@@ -1378,8 +2096,9 @@ public void mouseUp(MouseEvent e) {
 						message = "Resize Object";
 					}
 				}
-				undoManager.newAction(new UndoAction(message, temporaryCopy));
-				temporaryCopy = null;
+				dragAction.setMessage(message);
+				undoManager.newAction(dragAction);
+				dragAction = null;
 			}
 			resetHighlight();
 			hideLinkAnchors();
@@ -1395,6 +2114,9 @@ else if (newObject != null && Math.abs(vDragStart.x - e.getX()) <= MIN_DRAG_LENG
 			newObject = null;
 			setNewTemplate(null);
 		}
+		// a drag action that was not inserted stops recording
+		undoManager.dropAction(dragAction);
+		dragAction = null;
 		isDragging = false;
 		dragUndoState = DRAG_UNDO_NOT_RECORDING;
 		if (pressedObject != null) {
@@ -1413,7 +2135,7 @@ public void mouseDoubleClick(MouseEvent e) {
 		VElement o = getObjectAt(e.getLocation());
 		if (o != null) {
 			Logger.log.trace("Fire double click event to " + listeners.size());
-			for (VPathwayModelListener l : listeners) {
+			for (VPathwayModelListener l : listeners.keySet()) {
 				Logger.log.trace("\t " + l.hashCode() + ", " + l);
 			}
 			fireVPathwayEvent(new VPathwayModelEvent(this, o, VPathwayModelEventType.ELEMENT_DOUBLE_CLICKED));
@@ -1466,8 +2188,9 @@ void startSelecting(Point2D vp) {
 	 * Resets highlighting, unhighlights all GmmlDrawingObjects.
 	 */
 	public void resetHighlight() {
-		for (VElement o : drawingObjects)
+		for (VElement o : new ArrayList<VElement>(highlightedObjects))
 			o.unhighlight();
+		highlightedObjects.clear();
 		redraw();
 	}
 
@@ -1517,7 +2240,11 @@ private void editObject(MouseEvent e) {
 	public VElement getObjectAt(Point2D p2d) {
 		int zmax = Integer.MIN_VALUE;
 		VElement probj = null;
-		for (VElement o : drawingObjects) {
+		Rectangle2D fuzz = new Rectangle2D.Double(p2d.getX() - FUZZY_SIZE, p2d.getY() - FUZZY_SIZE, FUZZY_SIZE * 2,
+				FUZZY_SIZE * 2);
+		List<VElement> candidates = getCandidatesIn(fuzz);
+		candidates.addAll(getOverlayCandidatesIn(fuzz));
+		for (VElement o : candidates) {
 			// first we use vContains, which is good for detecting (non-transparent) shapes
 			if (o.vContains(p2d) && o.getZOrder() > zmax) {
 				probj = o;
@@ -1527,9 +2254,7 @@ public VElement getObjectAt(Point2D p2d) {
 		if (probj == null) {
 			// if there is nothing at that point, we use vIntersects with a fuzz area,
 			// which is good for detecting lines and transparent shapes.
-			Rectangle2D fuzz = new Rectangle2D.Double(p2d.getX() - FUZZY_SIZE, p2d.getY() - FUZZY_SIZE, FUZZY_SIZE * 2,
-					FUZZY_SIZE * 2);
-			for (VElement o : drawingObjects) {
+			for (VElement o : candidates) {
 				if (o.vIntersects(fuzz) && o.getZOrder() > zmax) {
 					probj = o;
 					zmax = o.getZOrder();
@@ -1549,7 +2274,12 @@ public VElement getObjectAt(Point2D p2d) {
 	 */
 	public List<VElement> getObjectsAt(Point2D p2d) {
 		List<VElement> result = new ArrayList<VElement>();
-		for (VElement o : drawingObjects) {
+		for (VElement o : getCandidatesAt(p2d)) {
+			if (o.vContains(p2d)) {
+				result.add(o);
+			}
+		}
+		for (VElement o : getOverlayCandidatesAt(p2d)) {
 			if (o.vContains(p2d)) {
 				result.add(o);
 			}
@@ -1557,6 +2287,72 @@ public List<VElement> getObjectsAt(Point2D p2d) {
 		return result;
 	}
 
+	/**
+	 * Returns the drawing objects with bounds that may contain the given point,
+	 * using the spatial index. The result is in drawing order, like
+	 * {@link #getDrawingObjects()}. Elements of a large pathway at this point get
+	 * their view first.
+	 * 
+	 * @param p2d the point, in view coordinates.
+	 * @return the candidate objects.
+	 */
+	List<VElement> getCandidatesAt(Point2D p2d) {
+		materializeIn(new Rectangle2D.Double(p2d.getX(), p2d.getY(), 0, 0));
+		updateConnectors();
+		List<VElement> result = spatialIndex.query(p2d);
+		updateDrawOrder();
+		Collections.sort(result, VElement.DRAW_ORDER);
+		return result;
+	}
+
+	/**
+	 * Returns the overlay objects with bounds that may contain the given point,
+	 * using the overlay index. The result is in drawing order.
+	 * 
+	 * @param p2d the point, in view coordinates.
+	 * @return the candidate objects.
+	 */
+	List<VElement> getOverlayCandidatesAt(Point2D p2d) {
+		List<VElement> result = overlayIndex.query(p2d);
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Returns the overlay objects with bounds that may intersect the given
+	 * rectangle, using the overlay index. The result is in drawing order.
+	 * 
+	 * @param r the rectangle, in view coordinates.
+	 * @return the candidate objects.
+	 */
+	List<VElement> getOverlayCandidatesIn(Rectangle2D r) {
+		List<VElement> result = overlayIndex.query(r);
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Returns the drawing objects with bounds that may intersect the given
+	 * rectangle, using the spatial index. The result is in drawing order, like
+	 * {@link #getDrawingObjects()}. Elements of a large pathway in this rectangle
+	 * get their view first.
+	 * 
+	 * @param r the rectangle, in view coordinates.
+	 * @return the candidate objects.
+	 */
+	List<VElement> getCandidatesIn(Rectangle2D r) {
+		materializeIn(r);
+		updateConnectors();
+		List<VElement> result = spatialIndex.query(r);
+		updateDrawOrder();
+		if (result.size() == drawingObjects.size()) {
+			// everything is a candidate, no need to sort
+			return new ArrayList<VElement>(drawingObjects);
+		}
+		Collections.sort(result, VElement.DRAW_ORDER);
+		return result;
+	}
+
 	/**
 	 * If modifierPressed is true, the selected object will be added to the
 	 * selection, rather than creating a new selection with just one object. if
@@ -1633,6 +2429,18 @@ void doClickSelect(Point2D p2d, boolean modifierPressed) {
 
 	private int dragUndoState = DRAG_UNDO_NOT_RECORDING;
 
+	/**
+	 * Called before a drag changes the pathway. The first change of a drag that
+	 * is recorded starts its undo action, so a click that does not drag starts
+	 * none.
+	 */
+	private void startDragChange() {
+		if (dragUndoState == DRAG_UNDO_CHANGE_START) {
+			dragUndoState = DRAG_UNDO_CHANGED;
+			dragAction = undoManager.startAction("Drag Object");
+		}
+	}
+
 	/** minimum drag length for it to be considered a drag and not a click */
 	private static final int MIN_DRAG_LENGTH = 3;
 
@@ -1737,6 +2545,7 @@ public void registerKeyboardActions(Engine engine) {
 			registerKeyboardAction(viewActions.delete1);
 			registerKeyboardAction(viewActions.delete2);
 			registerKeyboardAction(viewActions.undo);
+			registerKeyboardAction(viewActions.redo);
 			registerKeyboardAction(viewActions.addAnchor);
 			registerKeyboardAction(viewActions.orderBringToFront);
 			registerKeyboardAction(viewActions.orderSendToBack);
@@ -1789,23 +2598,29 @@ public void moveByKey(KeyStroke ks, int increment) {
 		List<VGroupable> selectedGraphics = getSelectedNonGroupGraphics();
 
 		if (selectedGraphics.size() > 0) {
-
+			double vdx = 0;
+			double vdy = 0;
 			switch (ks.getKeyCode()) {
 			case 37:
-				undoManager.newAction("Move object");
-				selection.vMoveBy(-increment, 0);
+				vdx = -increment;
 				break;
 			case 39:
-				undoManager.newAction("Move object");
-				selection.vMoveBy(increment, 0);
+				vdx = increment;
 				break;
 			case 38:
-				undoManager.newAction("Move object");
-				selection.vMoveBy(0, -increment);
+				vdy = -increment;
 				break;
 			case 40:
-				undoManager.newAction("Move object");
-				selection.vMoveBy(0, increment);
+				vdy = increment;
+				break;
+			default:
+				return;
+			}
+			beginUpdate("Move object");
+			try {
+				selection.vMoveBy(vdx, vdy);
+			} finally {
+				endUpdate();
 			}
 		}
 	}
@@ -1836,21 +2651,26 @@ public void moveMultipleElements(Collection<? extends VElement> toMove, double v
 				}
 			}
 		}
-		for (VElement o : toMove) {
-			// skip if parent of state is also in selection.
-			if (o instanceof VState) {
-				if (elts.contains(((VState) o).getPathwayObject().getDataNode()))
-					continue;
-			}
-			if (o instanceof VPathwayElement) {
-				if (o instanceof VGroupable) {
-					// skip if parent group is also in selection
-					if (elts.contains(((VGroupable) o).getPathwayObject().getGroupRef())) {
+		beginUpdate();
+		try {
+			for (VElement o : toMove) {
+				// skip if parent of state is also in selection.
+				if (o instanceof VState) {
+					if (elts.contains(((VState) o).getPathwayObject().getDataNode()))
 						continue;
+				}
+				if (o instanceof VPathwayElement) {
+					if (o instanceof VGroupable) {
+						// skip if parent group is also in selection
+						if (elts.contains(((VGroupable) o).getPathwayObject().getGroupRef())) {
+							continue;
+						}
 					}
+					o.vMoveBy(vdx, vdy);
 				}
-				o.vMoveBy(vdx, vdy);
 			}
+		} finally {
+			endUpdate();
 		}
 	}
 
@@ -1911,6 +2731,7 @@ public void handleLinkAliasRef() {
 			if (selection.getSelection().size() != 1) {
 				failLinkAliasRef();
 			} else if (selection.getSelection().iterator().next() instanceof VGroup) {
+				undoManager.newAction("Link Alias");
 				alias.setAliasRef(((VGroup) selection.getSelection().iterator().next()).getPathwayObject());
 				JOptionPane.showConfirmDialog(null, "Alias DataNode successfully Linked to Group.", "Message",
 						JOptionPane.PLAIN_MESSAGE);
@@ -1995,33 +2816,36 @@ public void layoutSelected(LayoutType layoutType) {
 		List<VGroupable> selectedGraphics = getSelectedNonGroupGraphics();
 
 		if (selectedGraphics.size() > 0) {
-			undoManager.newAction(layoutType.getDescription());
-			switch (layoutType) {
-			case COMMON_WIDTH:
-				scaleWidth(selectedGraphics);
-				break;
-			case COMMON_HEIGHT:
-				scaleHeight(selectedGraphics);
-				break;
-			case ALIGN_CENTERX:
-			case ALIGN_CENTERY:
-			case ALIGN_TOP:
-			case ALIGN_LEFT:
-			case ALIGN_RIGHT:
-			case ALIGN_BOTTOM:
-				alignGraphics(layoutType, selectedGraphics);
-				break;
-			case STACK_BOTTOM:
-			case STACK_TOP:
-			case STACK_LEFT:
-			case STACK_RIGHT:
-			case STACK_CENTERX:
-			case STACK_CENTERY:
-				stackGraphics(layoutType, selectedGraphics);
-				break;
+			beginUpdate(layoutType.getDescription());
+			try {
+				switch (layoutType) {
+				case COMMON_WIDTH:
+					scaleWidth(selectedGraphics);
+					break;
+				case COMMON_HEIGHT:
+					scaleHeight(selectedGraphics);
+					break;
+				case ALIGN_CENTERX:
+				case ALIGN_CENTERY:
+				case ALIGN_TOP:
+				case ALIGN_LEFT:
+				case ALIGN_RIGHT:
+				case ALIGN_BOTTOM:
+					alignGraphics(layoutType, selectedGraphics);
+					break;
+				case STACK_BOTTOM:
+				case STACK_TOP:
+				case STACK_LEFT:
+				case STACK_RIGHT:
+				case STACK_CENTERX:
+				case STACK_CENTERY:
+					stackGraphics(layoutType, selectedGraphics);
+					break;
+				}
+				selection.fitToSelection();
+			} finally {
+				endUpdate();
 			}
-
-			selection.fitToSelection();
 			redraw();
 		}
 	}
@@ -2264,6 +3088,8 @@ public void moveGraphicsUp(List<VDrawable> gs) {
 	 * elements, so that we can freely move items in between.
 	 */
 	private void autoRenumberZOrder() {
+		materializeAll();
+		cleanUp();
 		List<VGroupable> elts = new ArrayList<VGroupable>();
 		for (VElement vp : drawingObjects) {
 			if (vp instanceof VGroupable) {
@@ -2326,7 +3152,7 @@ public List<VDrawable> getOverlappingGraphics(VDrawable g) {
 		List<VDrawable> result = new ArrayList<VDrawable>();
 		Rectangle2D r1 = ((VElement) g).getVBounds();
 
-		for (VElement ve : drawingObjects) {
+		for (VElement ve : getCandidatesIn(r1)) {
 			if (ve instanceof VDrawable && ve != g) {
 				VDrawable i = (VDrawable) ve;
 				if (r1.intersects(ve.getVBounds())) {
@@ -2345,6 +3171,7 @@ public List<VDrawable> getOverlappingGraphics(VDrawable g) {
 	 * the global clipboard.
 	 */
 	public void copyToClipboard() {
+		cleanUp();
 		List<CopyElement> result = new ArrayList<CopyElement>();
 		for (VElement g : drawingObjects) {
 			if (g.isSelected() && g instanceof VPathwayElement && !(g instanceof SelectionBox)) {
@@ -2370,132 +3197,138 @@ public void paste(List<CopyElement> elements) {
 	 * @param yShift
 	 */
 	public void paste(List<CopyElement> elements, double xShift, double yShift) {
-		undoManager.newAction("Paste");
-		clearSelection();
-		/*
-		 * This map provides PathwayObject "relationship" reference information. For
-		 * example, if both a LineElement and the DataNode it is pointing to are copied,
-		 * then they need to be reconnected.
-		 */
-		BidiMap<PathwayObject, PathwayObject> newerToSource = new DualHashBidiMap<>();
-		boolean showWarning = true;
-		// Copy pathway objects of given list
-		for (CopyElement copyElement : elements) {
-			PathwayElement newElement = copyElement.getNewElement();
-			PathwayElement srcElement = copyElement.getSourceElement();
-			lastAdded = null;
-			// shift location of pathway element for pasting
-			if (newElement instanceof LineElement) {
-				// if line element, shift position of its points
-				for (LinePoint mp : ((LineElement) newElement).getLinePoints()) {
-					mp.setX(mp.getX() + xShift);
-					mp.setY(mp.getY() + yShift);
+		beginUpdate("Paste");
+		try {
+			clearSelection();
+			/*
+			 * This map provides PathwayObject "relationship" reference information. For
+			 * example, if both a LineElement and the DataNode it is pointing to are copied,
+			 * then they need to be reconnected.
+			 */
+			BidiMap<PathwayObject, PathwayObject> newerToSource = new DualHashBidiMap<>();
+			boolean showWarning = true;
+			// Copy pathway objects of given list
+			for (CopyElement copyElement : elements) {
+				PathwayElement newElement = copyElement.getNewElement();
+				PathwayElement srcElement = copyElement.getSourceElement();
+				lastAdded = null;
+				// shift location of pathway element for pasting
+				if (newElement instanceof LineElement) {
+					// if line element, shift position of its points
+					for (LinePoint mp : ((LineElement) newElement).getLinePoints()) {
+						mp.setX(mp.getX() + xShift);
+						mp.setY(mp.getY() + yShift);
+					}
+				} else if (newElement instanceof ShapedElement) {
+					((ShapedElement) newElement).setLeft(((ShapedElement) newElement).getLeft() + xShift);
+					((ShapedElement) newElement).setTop(((ShapedElement) newElement).getTop() + yShift);
+					// if datanode, also shift position of its states
+					if (newElement.getObjectType() == ObjectType.DATANODE) {
+						for (State state : ((DataNode) newElement).getStates()) {
+							state.setLeft(state.getLeft() + xShift);
+							state.setTop(state.getTop() + xShift);
+						}
+					}
 				}
-			} else if (newElement instanceof ShapedElement) {
-				((ShapedElement) newElement).setLeft(((ShapedElement) newElement).getLeft() + xShift);
-				((ShapedElement) newElement).setTop(((ShapedElement) newElement).getTop() + yShift);
-				// if datanode, also shift position of its states
-				if (newElement.getObjectType() == ObjectType.DATANODE) {
-					for (State state : ((DataNode) newElement).getStates()) {
-						state.setLeft(state.getLeft() + xShift);
-						state.setTop(state.getTop() + xShift);
+				// prepare for paste
+				CopyElement copyOfCopyElement = newElement.copy();
+				PathwayElement newerElement = copyOfCopyElement.getNewElement();
+				data.add(newerElement); // causes lastAdded to be set
+				// load references
+				newerElement.copyReferencesFrom(srcElement);
+				// print message if references copied
+				if (showWarning) {
+					showWarning = pasteReferencesMessage(newerElement);
+				}
+				// skip these steps if pathway
+				if (newerElement.getObjectType() != ObjectType.PATHWAY) {
+					// store information
+					newerToSource.put(newerElement, srcElement);
+					// specially store anchor information
+					if (newerElement instanceof LineElement) {
+						Iterator<Anchor> it1 = ((LineElement) newerElement).getAnchors().iterator();
+						Iterator<Anchor> it2 = ((LineElement) srcElement).getAnchors().iterator();
+						while (it1.hasNext() && it2.hasNext()) {
+							Anchor na = it1.next();
+							Anchor sa = it2.next();
+							if (na != null && sa != null) {
+								newerToSource.put(na, sa);
+							}
+						}
 					}
+					lastAdded.select();
+					selection.addToSelection(lastAdded);
 				}
 			}
-			// prepare for paste
-			CopyElement copyOfCopyElement = newElement.copy();
-			PathwayElement newerElement = copyOfCopyElement.getNewElement();
-			data.add(newerElement); // causes lastAdded to be set
-			// load references
-			newerElement.copyReferencesFrom(srcElement);
-			// print message if references copied
-			if (showWarning) {
-				showWarning = pasteReferencesMessage(newerElement);
-			}
-			// skip these steps if pathway
-			if (newerElement.getObjectType() != ObjectType.PATHWAY) {
-				// store information
-				newerToSource.put(newerElement, srcElement);
-				// specially store anchor information
-				if (newerElement instanceof LineElement) {
-					Iterator<Anchor> it1 = ((LineElement) newerElement).getAnchors().iterator();
-					Iterator<Anchor> it2 = ((LineElement) srcElement).getAnchors().iterator();
-					while (it1.hasNext() && it2.hasNext()) {
-						Anchor na = it1.next();
-						Anchor sa = it2.next();
-						if (na != null && sa != null) {
-							newerToSource.put(na, sa);
+			for (PathwayObject newerElement : newerToSource.keySet()) {
+				PathwayObject srcElement = newerToSource.get(newerElement);
+				// add group members in new Group
+				if (newerElement.getObjectType() == ObjectType.GROUP && srcElement.getObjectType() == ObjectType.GROUP) {
+					for (Groupable srcMember : ((Group) srcElement).getPathwayElements()) {
+						Groupable newerMember = (Groupable) newerToSource.getKey(srcMember);
+						if (newerMember != null) {
+							((Group) newerElement).addPathwayElement(newerMember);
 						}
 					}
+					((Group) newerElement).updateDimensions();
 				}
-				lastAdded.select();
-				selection.addToSelection(lastAdded);
-			}
-		}
-		for (PathwayObject newerElement : newerToSource.keySet()) {
-			PathwayObject srcElement = newerToSource.get(newerElement);
-			// add group members in new Group
-			if (newerElement.getObjectType() == ObjectType.GROUP && srcElement.getObjectType() == ObjectType.GROUP) {
-				for (Groupable srcMember : ((Group) srcElement).getPathwayElements()) {
-					Groupable newerMember = (Groupable) newerToSource.getKey(srcMember);
-					if (newerMember != null) {
-						((Group) newerElement).addPathwayElement(newerMember);
+				// set aliasRef if any, and link to group if group also copied
+				else if (newerElement.getObjectType() == ObjectType.DATANODE
+						&& srcElement.getObjectType() == ObjectType.DATANODE) {
+					if (((DataNode) newerElement).getType() == DataNodeType.ALIAS
+							&& ((DataNode) srcElement).getType() == DataNodeType.ALIAS) {
+						Group srcAliasRef = ((DataNode) srcElement).getAliasRef();
+						// if group aliasRef was also copied
+						if (srcAliasRef != null) {
+							Group newerAliasRef = (Group) newerToSource.getKey(srcAliasRef);
+							if (newerAliasRef != null) {
+								((DataNode) newerElement).setAliasRef(newerAliasRef);
+								JOptionPane.showConfirmDialog(null,
+										"Copy of alias data node linked to Group " + newerAliasRef.getElementId() + ".",
+										"Warning", JOptionPane.PLAIN_MESSAGE);
+							}
+						}
+						// otherwise aliasRef is not linked to any group
+						else {
+							JOptionPane.showConfirmDialog(null, "Copy of alias data node not linked to any group.",
+									"Warning", JOptionPane.PLAIN_MESSAGE);
+						}
 					}
 				}
-				((Group) newerElement).updateDimensions();
-			}
-			// set aliasRef if any, and link to group if group also copied
-			else if (newerElement.getObjectType() == ObjectType.DATANODE
-					&& srcElement.getObjectType() == ObjectType.DATANODE) {
-				if (((DataNode) newerElement).getType() == DataNodeType.ALIAS
-						&& ((DataNode) srcElement).getType() == DataNodeType.ALIAS) {
-					Group srcAliasRef = ((DataNode) srcElement).getAliasRef();
-					// if group aliasRef was also copied
-					if (srcAliasRef != null) {
-						Group newerAliasRef = (Group) newerToSource.getKey(srcAliasRef);
-						if (newerAliasRef != null) {
-							((DataNode) newerElement).setAliasRef(newerAliasRef);
-							JOptionPane.showConfirmDialog(null,
-									"Copy of alias data node linked to Group " + newerAliasRef.getElementId() + ".",
-									"Warning", JOptionPane.PLAIN_MESSAGE);
+				// link LineElement linePoint elementRefs
+				else if (newerElement instanceof LineElement && srcElement instanceof LineElement) {
+					// set start elementRef
+					LinkableTo srcStartElementRef = ((LineElement) srcElement).getStartElementRef();
+					if (srcStartElementRef != null) {
+						LinkableTo newerStartElementRef = (LinkableTo) newerToSource.getKey(srcStartElementRef);
+						if (newerStartElementRef != null) {
+							LinePoint startPoint = ((LineElement) newerElement).getStartLinePoint();
+							LinePoint srcPoint = ((LineElement) srcElement).getStartLinePoint();
+							startPoint.linkTo(newerStartElementRef, srcPoint.getRelX(), srcPoint.getRelY());
 						}
 					}
-					// otherwise aliasRef is not linked to any group
-					else {
-						JOptionPane.showConfirmDialog(null, "Copy of alias data node not linked to any group.",
-								"Warning", JOptionPane.PLAIN_MESSAGE);
+					// set end elementRef
+					LinkableTo srcEndElementRef = ((LineElement) srcElement).getEndElementRef();
+					if (srcEndElementRef != null) {
+						LinkableTo newerEndElementRef = (LinkableTo) newerToSource.getKey(srcEndElementRef);
+						if (newerEndElementRef != null) {
+							LinePoint endPoint = ((LineElement) newerElement).getEndLinePoint();
+							LinePoint srcPoint = ((LineElement) srcElement).getEndLinePoint();
+							endPoint.linkTo(newerEndElementRef, srcPoint.getRelX(), srcPoint.getRelY());
+						}
 					}
 				}
 			}
-			// link LineElement linePoint elementRefs
-			else if (newerElement instanceof LineElement && srcElement instanceof LineElement) {
-				// set start elementRef
-				LinkableTo srcStartElementRef = ((LineElement) srcElement).getStartElementRef();
-				if (srcStartElementRef != null) {
-					LinkableTo newerStartElementRef = (LinkableTo) newerToSource.getKey(srcStartElementRef);
-					if (newerStartElementRef != null) {
-						LinePoint startPoint = ((LineElement) newerElement).getStartLinePoint();
-						LinePoint srcPoint = ((LineElement) srcElement).getStartLinePoint();
-						startPoint.linkTo(newerStartElementRef, srcPoint.getRelX(), srcPoint.getRelY());
-					}
-				}
-				// set end elementRef
-				LinkableTo srcEndElementRef = ((LineElement) srcElement).getEndElementRef();
-				if (srcEndElementRef != null) {
-					LinkableTo newerEndElementRef = (LinkableTo) newerToSource.getKey(srcEndElementRef);
-					if (newerEndElementRef != null) {
-						LinePoint endPoint = ((LineElement) newerElement).getEndLinePoint();
-						LinePoint srcPoint = ((LineElement) srcElement).getEndLinePoint();
-						endPoint.linkTo(newerEndElementRef, srcPoint.getRelX(), srcPoint.getRelY());
-					}
+			// refresh connector shapes of the pasted lines
+			for (PathwayObject o : newerToSource.keySet()) {
+				if (o instanceof LineElement) {
+					((LineElement) o).getConnectorShape().recalculateShape((LineElement) o);
 				}
 			}
+			moveGraphicsTop(getSelectedGraphics());
+		} finally {
+			endUpdate();
 		}
-		// refresh connector shapes
-		for (LineElement o : data.getLineElements()) {
-			o.getConnectorShape().recalculateShape(o);
-		}
-		moveGraphicsTop(getSelectedGraphics());
 		redraw();
 	}
 
@@ -2559,12 +3392,39 @@ public void positionPasteFromClipboard(Point cursorPosition) {
 	// ================================================================================
 	// Listening and Firing Methods
 	// ================================================================================
-	private List<VPathwayModelListener> listeners = new ArrayList<VPathwayModelListener>();
+	/** listeners with the event types they are interested in */
+	private Map<VPathwayModelListener, Set<VPathwayModelEventType>> listeners = new LinkedHashMap<VPathwayModelListener, Set<VPathwayModelEventType>>();
+
+	/** the event types a listener receives by default */
+	private static final Set<VPathwayModelEventType> DEFAULT_EVENT_TYPES = Collections.unmodifiableSet(EnumSet
+			.complementOf(EnumSet.of(VPathwayModelEventType.ELEMENT_DRAWN, VPathwayModelEventType.ELEMENTS_DRAWN)));
 
+	/**
+	 * Adds a listener for all event types, except the draw-time events
+	 * ELEMENT_DRAWN and ELEMENTS_DRAWN.
+	 */
 	public void addVPathwayListener(VPathwayModelListener l) {
-		if (!listeners.contains(l)) {
-			listeners.add(l);
+		addVPathwayListener(l, DEFAULT_EVENT_TYPES);
+	}
+
+	/**
+	 * Adds a listener for the given event types only. Replaces the types of a
+	 * listener that was added before.
+	 */
+	public void addVPathwayListener(VPathwayModelListener l, Set<VPathwayModelEventType> types) {
+		listeners.put(l, types.isEmpty() ? EnumSet.noneOf(VPathwayModelEventType.class) : EnumSet.copyOf(types));
+	}
+
+	/**
+	 * @return true if any listener is interested in events of the given type.
+	 */
+	boolean hasVPathwayListener(VPathwayModelEventType type) {
+		for (Set<VPathwayModelEventType> types : listeners.values()) {
+			if (types.contains(type)) {
+				return true;
+			}
 		}
+		return false;
 	}
 
 	public void removeVPathwayListener(VPathwayModelListener l) {
@@ -2608,8 +3468,10 @@ public void removeSelectionListener(SelectionListener listener) {
 	}
 
 	protected void fireVPathwayEvent(VPathwayModelEvent e) {
-		for (VPathwayModelListener listener : listeners) {
-			listener.vPathwayModelEvent(e);
+		for (Map.Entry<VPathwayModelListener, Set<VPathwayModelEventType>> entry : listeners.entrySet()) {
+			if (entry.getValue().contains(e.getType())) {
+				entry.getKey().vPathwayModelEvent(e);
+			}
 		}
 	}
 
@@ -2739,6 +3601,13 @@ public void undo() {
 		undoManager.undo();
 	}
 
+	/**
+	 * Redoes the last undone action.
+	 */
+	public void redo() {
+		undoManager.redo();
+	}
+
 	// ================================================================================
 	// Clean-Up and Dispose Methods
 	// ================================================================================
@@ -2750,8 +3619,9 @@ public void undo() {
 	 */
 	public void dispose() {
 		assert (!disposed);
-		for (int i = getDrawingObjects().size() - 1; i >= 0; i--) {
-			getDrawingObjects().get(i).destroy();
+		clearVirtual();
+		for (int i = drawingObjects.size() - 1; i >= 0; i--) {
+			drawingObjects.get(i).destroy();
 		}
 		// TODO to avoid concurrent modification issue?
 //		for (VElement elt : getDrawingObjects()) {
@@ -2774,13 +3644,50 @@ public void dispose() {
 		disposed = true;
 	}
 
+	/**
+	 * Called when an element is destroyed. It is taken out of the spatial index
+	 * and the selection right away, so that it can no longer be found or drawn,
+	 * but it stays in the drawing lists until the next {@link #cleanUp()}. This
+	 * way, removing an element doesn't depend on the size of the drawing.
+	 *
+	 * @param elt the destroyed element.
+	 */
+	void elementRemoved(VElement elt) {
+		if (elt.isOverlay()) {
+			overlayIndex.remove(elt);
+		} else {
+			spatialIndex.remove(elt);
+		}
+		selectedObjects.remove(elt);
+		highlightedObjects.remove(elt);
+		removedObjects.add(elt);
+	}
+
+	/**
+	 * Removes the elements destroyed since the last call from the drawing lists,
+	 * in a single pass over each list. This happens once per frame, at the end of
+	 * an update, and before the lists are handed out.
+	 */
 	private void cleanUp() {
-		for (Iterator<VElement> i = drawingObjects.iterator(); i.hasNext();) {
-			VElement elt = i.next();
-			if (elt.toBeRemoved()) {
-				i.remove();
+		if (removedObjects.isEmpty()) {
+			return;
+		}
+		boolean content = false;
+		boolean overlay = false;
+		for (VElement elt : removedObjects) {
+			if (elt.isOverlay()) {
+				overlay = true;
+			} else {
+				content = true;
 			}
 		}
+		removedObjects.clear();
+		if (content) {
+			drawingObjects.removeIf(VElement::toBeRemoved);
+		}
+		if (overlay) {
+			overlayObjects.removeIf(VElement::toBeRemoved);
+		}
 	}
 
 }
@@ -30,7 +30,11 @@
  */
 public class VPathwayModelEvent extends EventObject {
 
-	/** Possible event types */
+	/**
+	 * Possible event types. The draw-time types ELEMENT_DRAWN and ELEMENTS_DRAWN
+	 * are only sent to listeners that ask for them, see
+	 * {@link VPathwayModel#addVPathwayListener(VPathwayModelListener, java.util.Set)}.
+	 */
 	public static enum VPathwayModelEventType
 	{
 		ELEMENT_ADDED,
@@ -38,11 +42,16 @@ public class VPathwayModelEvent extends EventObject {
 		EDIT_MODE_OFF,
 		MODEL_LOADED,
 		ELEMENT_DOUBLE_CLICKED,
+		/** sent after each element that is drawn, prefer ELEMENTS_DRAWN */
 		ELEMENT_DRAWN,
+		/** sent once after drawing, with all elements that were drawn */
+		ELEMENTS_DRAWN,
 		ELEMENT_CLICKED_UP,
 		ELEMENT_CLICKED_DOWN,
 		ELEMENT_HOVER,
-		HREF_ACTIVATED;
+		HREF_ACTIVATED,
+		/** sent at the end of an update, see {@link VPathwayModel#beginUpdate()} */
+		UPDATE_FINISHED;
 	}
 
 	private VPathwayModelEventType type;
@@ -72,6 +81,11 @@ public VPathwayModelEvent(VPathwayModel source, VElement affectedElement, Graphi
 		this.g2d = g2d;
 	}
 
+	public VPathwayModelEvent(VPathwayModel source, List<VElement> affectedElements, Graphics2D g2d, VPathwayModelEventType type) {
+		this(source, affectedElements, type);
+		this.g2d = g2d;
+	}
+
 	public VPathwayModelEvent(VPathwayModel source, VElement affectedElement, MouseEvent e, VPathwayModelEventType type) {
 		this(source, affectedElement, type);
 		mouseEvent = e;
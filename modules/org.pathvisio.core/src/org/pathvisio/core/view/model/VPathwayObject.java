@@ -26,6 +26,7 @@
 import org.pathvisio.libgpml.model.PathwayObject;
 import org.pathvisio.libgpml.model.PathwayObjectEvent;
 import org.pathvisio.libgpml.model.PathwayObjectListener;
+import org.pathvisio.libgpml.prop.StaticProperty;
 
 /**
  * This class is a parent class for all graphics that can be added to a
@@ -47,6 +48,7 @@ public VPathwayObject(VPathwayModel canvas, PathwayObject o) {
 		super(canvas);
 		o.addListener(this);
 		gdata = o;
+		canvas.registerPathwayElementView(this);
 	}
 
 	/**
@@ -78,8 +80,42 @@ public void markDirty() {
 	 */
 	@Override
 	public void gmmlObjectModified(PathwayObjectEvent e) {
+		checkZOrderChange(e);
 		if (listen) {
-			markDirty(); // mark everything dirty
+			scheduleRefresh();
+		}
+	}
+
+	/**
+	 * Refreshes this element after a change to its model, or, during an update of
+	 * the canvas, once at the end of the update (see
+	 * {@link VPathwayModel#beginUpdate()}).
+	 */
+	protected final void scheduleRefresh() {
+		if (canvas.isUpdating()) {
+			canvas.scheduleRefresh(this);
+			invalidateShape();
+		} else {
+			refresh();
+		}
+	}
+
+	/**
+	 * Updates this element to the current state of its model.
+	 */
+	protected void refresh() {
+		markDirty(); // mark everything dirty
+	}
+
+	/**
+	 * Lets the canvas know that the drawing order has to be updated, if the given
+	 * event changed the z-order of the model element.
+	 * 
+	 * @param e the event received in {@link #gmmlObjectModified}.
+	 */
+	protected void checkZOrderChange(PathwayObjectEvent e) {
+		if (!e.isCoordinateChange() && e.affectsProperty(StaticProperty.ZORDER)) {
+			canvas.drawOrderChanged();
 		}
 	}
 
@@ -200,6 +236,7 @@ protected Shape calculateVOutline() {
 	protected void destroy() {
 		super.destroy();
 		gdata.removeListener(this);
+		canvas.unregisterPathwayElementView(this);
 		for (VElement child : children) {
 			child.destroy();
 		}
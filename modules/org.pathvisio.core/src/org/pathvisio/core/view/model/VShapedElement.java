@@ -24,6 +24,8 @@
 import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
 import java.awt.font.TextAttribute;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
@@ -38,6 +40,7 @@
 import org.pathvisio.libgpml.model.Group;
 import org.pathvisio.libgpml.model.ShapedElement;
 import org.pathvisio.libgpml.model.PathwayObjectEvent;
+import org.pathvisio.libgpml.prop.StaticProperty;
 import org.pathvisio.libgpml.util.ColorUtils;
 import org.pathvisio.libgpml.util.LinAlg;
 import org.pathvisio.core.preferences.GlobalPreference;
@@ -76,6 +79,11 @@ public abstract class VShapedElement extends VPathwayElement implements VLinkabl
 
 	Handle[] handles = new Handle[] {};
 
+	// Cached font and text layout, see getVFont() and getLabelLayout()
+	private Font vFontCache = null;
+	private double vFontZoom;
+	private LabelLayout labelLayoutCache = null;
+
 	/**
 	 * @param canvas
 	 * @param o
@@ -433,9 +441,25 @@ protected void setHandleLocation() {
 	}
 
 	protected Shape calculateVOutline() {
+		return vFromM(calculateMOutline());
+	}
+
+	/**
+	 * The outline is taken from the shared {@link OutlineCache}, and only moved
+	 * here. Note that the border width is in model coordinates, so it scales with
+	 * the zoom factor like the drawn border.
+	 */
+	@Override
+	protected Shape calculateMOutline() {
 		// Include rotation and stroke
-		Area a = new Area(getShape(true, true));
-		return a;
+		ShapedElement gdata = getPathwayObject();
+		IShape shapeType = gdata.getShapeType();
+		if (shapeType == null || shapeType == ShapeType.NONE) {
+			shapeType = ShapeRegistry.DEFAULT_SHAPE;
+		}
+		Area a = OutlineCache.get(shapeType, gdata.getWidth(), gdata.getHeight(), gdata.getRotation(),
+				gdata.getBorderWidth(), gdata.getBorderStyle());
+		return AffineTransform.getTranslateInstance(gdata.getLeft(), gdata.getTop()).createTransformedShape(a);
 	}
 
 	protected Shape getVShape(boolean rotate) {
@@ -452,11 +476,31 @@ protected Shape getVShape(boolean rotate) {
 	protected Shape getShape(boolean rotate, boolean stroke) {
 		if (stroke) {
 			return getShape(rotate, (float) getPathwayObject().getBorderWidth());
+		} else if (rotate) {
+			// the shape that is drawn, don't calculate it again on every paint
+			if (vShapeCache == null) {
+				vShapeCache = getShape(true, 0);
+			}
+			return vShapeCache;
 		} else {
 			return getShape(rotate, 0);
 		}
 	}
 
+	private Shape vShapeCache = null;
+
+	@Override
+	protected void resetShapeCache() {
+		vShapeCache = null;
+		super.resetShapeCache();
+	}
+
+	@Override
+	void zoomChanged() {
+		vShapeCache = null;
+		super.zoomChanged();
+	}
+
 	public Shape getShape() {
 		return getShape(false, 0);
 	}
@@ -508,12 +552,40 @@ protected java.awt.Shape getShape(boolean rotate, float sw) {
 	}
 
 	public void gmmlObjectModified(PathwayObjectEvent e) {
-		markDirty(); // mark everything dirty
-		checkCitation();
+		checkZOrderChange(e);
+		checkTextChange(e);
+		scheduleRefresh();
+	}
+
+	@Override
+	protected void refresh() {
+		super.refresh();
 		if (handles.length > 0)
 			setHandleLocation();
 	}
 
+	/**
+	 * Clears the cached font and text layout if the given event changed a
+	 * property that they depend on.
+	 * 
+	 * @param e the event received in {@link #gmmlObjectModified}.
+	 */
+	private void checkTextChange(PathwayObjectEvent e) {
+		if (e.isCoordinateChange()) {
+			return;
+		}
+		for (StaticProperty p : TEXT_PROPERTIES) {
+			if (e.affectsProperty(p)) {
+				resetTextCache();
+				return;
+			}
+		}
+	}
+
+	private static final StaticProperty[] TEXT_PROPERTIES = { StaticProperty.TEXTLABEL, StaticProperty.HREF,
+			StaticProperty.FONTNAME, StaticProperty.FONTWEIGHT, StaticProperty.FONTSTYLE,
+			StaticProperty.FONTDECORATION, StaticProperty.FONTSTRIKETHRU, StaticProperty.FONTSIZE };
+
 	LinkProvider linkAnchorDelegate = new DefaultLinkAnchorDelegate(this);
 
 	/**
@@ -546,12 +618,16 @@ protected void destroyHandles() {
 	}
 
 	protected void doDraw(Graphics2D g2d) {
+		if (isSimplified()) {
+			drawSimplified(g2d);
+			return;
+		}
 		g2d.setColor(getBorderColor()); // TODO extra line?
 		setLineStyle(g2d);
 		drawShape(g2d);
 
 		// return to normal stroke
-		g2d.setStroke(new BasicStroke());
+		g2d.setStroke(DEFAULT_STROKE);
 
 		g2d.setFont(getVFont());
 		drawTextLabel(g2d);
@@ -559,6 +635,28 @@ protected void doDraw(Graphics2D g2d) {
 		drawHighlight(g2d);
 	}
 
+	/**
+	 * Draws this element as a plain rectangle, for when it is too small on screen
+	 * to make out its shape or text.
+	 * 
+	 * @param g
+	 */
+	protected void drawSimplified(Graphics2D g) {
+		ShapedElement gdata = getPathwayObject();
+		if (hasOutline()) {
+			Rectangle2D r = getVBounds();
+			if (!ColorUtils.isTransparent(gdata.getFillColor()) && gdata.getShapeType() != ShapeType.BRACE
+					&& gdata.getShapeType() != ShapeType.ARC) {
+				g.setColor(gdata.getFillColor());
+				g.fill(r);
+			}
+			g.setColor(gdata.getBorderColor());
+			// stay within the bounds, which are used as clip
+			g.draw(new Rectangle2D.Double(r.getX(), r.getY(), r.getWidth() - 1, r.getHeight() - 1));
+		}
+		drawHighlight(g);
+	}
+
 	/**
 	 * @param g
 	 */
@@ -594,35 +692,32 @@ protected void drawTextLabel(Graphics2D g) {
 		Rectangle area = getVShape(true).getBounds();
 		String label = gdata.getTextLabel();
 		if (label != null && !"".equals(label)) {
-			// Split by newline, to enable multi-line labels
-			String[] lines = label.split("\n");
+			if (vFromM(gdata.getFontSize()) < canvas.getLodTextSize()) {
+				// Split by newline, to enable multi-line labels
+				drawGreekedText(g, area, margin, label.split("\n"));
+				return;
+			}
 
-			FontMetrics fm = g.getFontMetrics();
-			int lh = fm.getHeight();
-			int yoffset = area.y + fm.getAscent();
+			LabelLayout layout = getLabelLayout(g);
+			int lh = layout.lineHeight;
+			int nlines = layout.lines.length;
+			int yoffset = area.y + layout.ascent;
 			switch (gdata.getVAlign()) {
 			case MIDDLE:
-				yoffset += (area.height - (lines.length * lh)) / 2;
+				yoffset += (area.height - (nlines * lh)) / 2;
 				break;
 			case TOP:
 				yoffset += margin;
 				break;
 			case BOTTOM:
-				yoffset += area.height - margin - (lines.length * lh);
+				yoffset += area.height - margin - (nlines * lh);
 			}
 
-			for (int i = 0; i < lines.length; i++) {
-				if (lines[i].equals(""))
-					continue; // Can't have attributed string with 0 length
-				AttributedString ats = getVAttributedString(lines[i]);
-				if (gdata.getObjectType() == ObjectType.LABEL) {
-					// TODO hopefully also accepts nulls
-					String href = ((Label) gdata).getHref();
-					if (href != null && !Utils.stringEquals(href, "")) {
-						ats.addAttribute(TextAttribute.UNDERLINE, TextAttribute.UNDERLINE_ON);
-					}
-				}
-				Rectangle2D tb = fm.getStringBounds(ats.getIterator(), 0, lines[i].length(), g);
+			g.setColor(getTextColor());
+			for (int i = 0; i < nlines; i++) {
+				if (layout.lines[i] == null)
+					continue; // empty line
+				Rectangle2D tb = layout.bounds[i];
 
 				int xoffset = area.x;
 				switch (gdata.getHAlign()) {
@@ -636,13 +731,118 @@ protected void drawTextLabel(Graphics2D g) {
 					xoffset += area.width - margin - tb.getWidth();
 					break;
 				}
-				g.setColor(getTextColor());
-				g.drawString(ats.getIterator(), xoffset, yoffset + (int) (i * tb.getHeight()));
+				layout.layouts[i].draw(g, xoffset, yoffset + (int) (i * tb.getHeight()));
 			}
 
 		}
 	}
 
+	/**
+	 * The lines of the text label with their attributes and bounds, for a certain
+	 * font and render context. Positions are not included, as they depend on the
+	 * location of the element and are cheap to calculate.
+	 */
+	private static class LabelLayout {
+		final Font font;
+		final FontRenderContext frc;
+		final int ascent;
+		final int lineHeight;
+		final AttributedString[] lines; // null for empty lines
+		final TextLayout[] layouts; // lines laid out for frc, as drawString would do
+		final Rectangle2D[] bounds;
+
+		LabelLayout(Font font, FontRenderContext frc, int ascent, int lineHeight, AttributedString[] lines,
+				TextLayout[] layouts, Rectangle2D[] bounds) {
+			this.font = font;
+			this.frc = frc;
+			this.ascent = ascent;
+			this.lineHeight = lineHeight;
+			this.lines = lines;
+			this.layouts = layouts;
+			this.bounds = bounds;
+		}
+	}
+
+	/**
+	 * Returns the layout of the text label for the given graphics. The layout is
+	 * cached until the font or render context changes, or the label is modified.
+	 */
+	private LabelLayout getLabelLayout(Graphics2D g) {
+		Font font = getVFont();
+		FontRenderContext frc = g.getFontRenderContext();
+		LabelLayout layout = labelLayoutCache;
+		if (layout != null && layout.font == font && layout.frc.equals(frc)) {
+			return layout;
+		}
+
+		ShapedElement gdata = getPathwayObject();
+		// Split by newline, to enable multi-line labels
+		String[] text = gdata.getTextLabel().split("\n");
+		boolean underline = false;
+		if (gdata.getObjectType() == ObjectType.LABEL) {
+			// TODO hopefully also accepts nulls
+			String href = ((Label) gdata).getHref();
+			underline = href != null && !Utils.stringEquals(href, "");
+		}
+
+		FontMetrics fm = g.getFontMetrics(font);
+		AttributedString[] lines = new AttributedString[text.length];
+		TextLayout[] layouts = new TextLayout[text.length];
+		Rectangle2D[] bounds = new Rectangle2D[text.length];
+		for (int i = 0; i < text.length; i++) {
+			if (text[i].equals(""))
+				continue; // Can't have attributed string with 0 length
+			AttributedString ats = getVAttributedString(text[i]);
+			if (underline) {
+				ats.addAttribute(TextAttribute.UNDERLINE, TextAttribute.UNDERLINE_ON);
+			}
+			lines[i] = ats;
+			layouts[i] = new TextLayout(ats.getIterator(), frc);
+			bounds[i] = fm.getStringBounds(ats.getIterator(), 0, text[i].length(), g);
+		}
+		layout = new LabelLayout(font, frc, fm.getAscent(), fm.getHeight(), lines, layouts, bounds);
+		labelLayoutCache = layout;
+		return layout;
+	}
+
+	/**
+	 * Draws each line of text as a bar, for text that is too small on screen to
+	 * read. This avoids the cost of laying out the text.
+	 */
+	private void drawGreekedText(Graphics2D g, Rectangle area, int margin, String[] lines) {
+		ShapedElement gdata = getPathwayObject();
+		double lh = vFromM(gdata.getFontSize()) * 1.2; // approximate line height
+		double y = area.y;
+		switch (gdata.getVAlign()) {
+		case MIDDLE:
+			y += (area.height - (lines.length * lh)) / 2;
+			break;
+		case TOP:
+			y += margin;
+			break;
+		case BOTTOM:
+			y += area.height - margin - (lines.length * lh);
+		}
+		g.setColor(getTextColor());
+		for (int i = 0; i < lines.length; i++) {
+			// assume an average character width of half the line height
+			double w = Math.min(area.width, lines[i].length() * lh / 2);
+			double x = area.x;
+			switch (gdata.getHAlign()) {
+			case CENTER:
+				x += (area.width - w) / 2;
+				break;
+			case LEFT:
+				x += margin;
+				break;
+			case RIGHT:
+				x += area.width - margin - w;
+				break;
+			}
+			g.fill(new Rectangle2D.Double(x, y + (i + 0.3) * lh, w, lh * 0.4));
+		}
+	}
+
 	/**
 	 * @param text
 	 * @return
@@ -661,12 +861,28 @@ private AttributedString getVAttributedString(String text) {
 	}
 
 	/**
-	 * @return
+	 * @return the font of the text label at the current zoom factor. The font is
+	 *         cached until the zoom factor or a font property changes.
 	 */
 	protected Font getVFont() {
-		String name = getPathwayObject().getFontName();
-		int style = getVFontStyle();
-		return new Font(name, style, 12).deriveFont((float) vFromM(getPathwayObject().getFontSize()));
+		double zoom = canvas.getZoomFactor();
+		Font font = vFontCache;
+		if (font == null || vFontZoom != zoom) {
+			String name = getPathwayObject().getFontName();
+			int style = getVFontStyle();
+			font = new Font(name, style, 12).deriveFont((float) vFromM(getPathwayObject().getFontSize()));
+			vFontZoom = zoom;
+			vFontCache = font;
+		}
+		return font;
+	}
+
+	/**
+	 * Clears the cached font and text layout.
+	 */
+	protected void resetTextCache() {
+		vFontCache = null;
+		labelLayoutCache = null;
 	}
 
 	/**
@@ -686,16 +902,16 @@ private boolean hasOutline() {
 	protected void drawHighlight(Graphics2D g) {
 		if (isHighlighted()) {
 			Color hc = getHighlightColor();
-			g.setColor(new Color(hc.getRed(), hc.getGreen(), hc.getBlue(), 128));
+			g.setColor(PaintCache.getHighlightColor(hc));
 
 			if (hasOutline()) {
 				// highlight the outline
 				java.awt.Shape shape = getShape(true, false);
-				g.setStroke(new BasicStroke(HIGHLIGHT_STROKE_WIDTH));
+				g.setStroke(PaintCache.getStroke(HIGHLIGHT_STROKE_WIDTH));
 				g.draw(shape);
 			} else {
 				// outline invisible, fill the entire area
-				g.setStroke(new BasicStroke());
+				g.setStroke(DEFAULT_STROKE);
 				Rectangle2D r = new Rectangle2D.Double(getVLeft(), getVTop(), getVWidth(), getVHeight());
 				g.fill(r);
 			}
@@ -712,7 +928,14 @@ protected boolean vContains(Point2D point) {
 		// first use getVBounds as a rough approximation
 		if (getVBounds().contains(point)) {
 			// if the shape is transparent, only check against the outline
-			if (ColorUtils.isTransparent(getPathwayObject().getFillColor())) {
+			boolean outline = ColorUtils.isTransparent(getPathwayObject().getFillColor());
+			IShape shapeType = getHitShapeType();
+			if (HitTest.isSupported(shapeType)) {
+				ShapedElement gdata = getPathwayObject();
+				return HitTest.contains(shapeType, gdata.getLeft(), gdata.getTop(), gdata.getWidth(),
+						gdata.getHeight(), gdata.getRotation(), outline ? getHitStrokeWidth() : 0,
+						mFromV(point.getX()), mFromV(point.getY()));
+			} else if (outline) {
 				return getVOutline().contains(point);
 			} else {
 				// otherwise check against the whole shape
@@ -723,6 +946,52 @@ protected boolean vContains(Point2D point) {
 		}
 	}
 
+	/**
+	 * Uses the analytic tests of {@link HitTest} for the common shape types, which
+	 * give the same result as the outline.
+	 */
+	@Override
+	protected boolean vIntersects(Rectangle2D r) {
+		IShape shapeType = getHitShapeType();
+		if (!HitTest.isSupported(shapeType)) {
+			return super.vIntersects(r);
+		}
+		if (getVBounds().intersects(r)) {
+			ShapedElement gdata = getPathwayObject();
+			Rectangle2D mr = new Rectangle2D.Double(mFromV(r.getX()), mFromV(r.getY()), mFromV(r.getWidth()),
+					mFromV(r.getHeight()));
+			return HitTest.intersects(shapeType, gdata.getLeft(), gdata.getTop(), gdata.getWidth(), gdata.getHeight(),
+					gdata.getRotation(), getHitStrokeWidth(), mr);
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the shape type to hit-test against, or null to always use the
+	 *         outline.
+	 */
+	protected IShape getHitShapeType() {
+		IShape shapeType = getPathwayObject().getShapeType();
+		return shapeType == null || shapeType == ShapeType.NONE ? ShapeRegistry.DEFAULT_SHAPE : shapeType;
+	}
+
+	/**
+	 * @return the width of the stroke of the outline, in model coordinates. See
+	 *         {@link OutlineCache}.
+	 */
+	private double getHitStrokeWidth() {
+		ShapedElement gdata = getPathwayObject();
+		if (gdata.getBorderWidth() > 0 && gdata.getWidth() * gdata.getHeight() > 0) {
+			if (gdata.getBorderStyle() == LineStyleType.DOUBLE) {
+				// correction factor for composite stroke
+				return gdata.getBorderWidth() * 4;
+			}
+			return gdata.getBorderWidth();
+		}
+		return 0;
+	}
+
 	// ================================================================================
 	// Methods from VPathwayObject
 	// ================================================================================
@@ -852,13 +1121,6 @@ protected Color getBorderColor() {
 	protected void setLineStyle(Graphics2D g) {
 		LineStyleType ls = getPathwayObject().getBorderStyle();
 		float lt = (float) vFromM(getPathwayObject().getBorderWidth());
-		if (ls == LineStyleType.SOLID) {
-			g.setStroke(new BasicStroke(lt));
-		} else if (ls == LineStyleType.DASHED) {
-			g.setStroke(
-					new BasicStroke(lt, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 10, new float[] { 4, 4 }, 0));
-		} else if (ls == LineStyleType.DOUBLE) {
-			g.setStroke(new CompositeStroke(new BasicStroke(lt * 2), new BasicStroke(lt)));
-		}
+		g.setStroke(PaintCache.getStroke(ls, lt));
 	}
 }
@@ -46,11 +46,21 @@ public State getPathwayObject() {
 		return (State) super.getPathwayObject();
 	}
 
+	@Override
+	protected boolean isDrawnAtLevelOfDetail() {
+		VPathwayObject vDataNode = canvas.getPathwayElementView(getPathwayObject().getDataNode());
+		return vDataNode == null || !vDataNode.isSmallerThan(canvas.getLodDecorationSize());
+	}
+
 	/**
 	 *
 	 */
 	@Override
 	public void doDraw(Graphics2D g) {
+		if (isSimplified()) {
+			drawSimplified(g);
+			return;
+		}
 		g.setColor(getBorderColor());
 		setLineStyle(g);
 		drawShape(g);
@@ -85,6 +85,7 @@ public class ViewActions implements VPathwayModelListener, SelectionListener {
 	private static final URL IMG_COPY = Resources.getResourceURL("copy.gif");
 	private static final URL IMG_PASTE = Resources.getResourceURL("paste.gif");
 	private static final URL IMG_UNDO = Resources.getResourceURL("undo.gif");
+	private static final URL IMG_REDO = Resources.getResourceURL("redo.gif");
 
 	/**
 	 * The group of actions that will be enabled when the VPathway is in edit mode
@@ -162,6 +163,7 @@ public class ViewActions implements VPathwayModelListener, SelectionListener {
 	public final PositionPasteAction positionPaste;
 	public final KeyMoveAction keyMove;
 	public final UndoAction undo;
+	public final RedoAction redo;
 
 	// ========================================
 	// Z-Order Actions
@@ -245,6 +247,7 @@ public class ViewActions implements VPathwayModelListener, SelectionListener {
 		positionPaste = new PositionPasteAction(engine);
 		keyMove = new KeyMoveAction(engine, null);
 		undo = new UndoAction(engine);
+		redo = new RedoAction(engine);
 
 		// ================================================================================
 		// Z-Order Actions
@@ -945,6 +948,7 @@ public void selectionEvent(SelectionEvent e) {
 			case SelectionEvent.OBJECT_ADDED:
 			case SelectionEvent.OBJECT_REMOVED:
 			case SelectionEvent.SELECTION_CLEARED:
+			case SelectionEvent.OBJECTS_CHANGED:
 				setLabel();
 			}
 		}
@@ -1174,6 +1178,51 @@ public void applicationEvent(ApplicationEvent e) {
 		}
 	}
 
+	/**
+	 * Redo command in the menu / toolbar
+	 */
+	public static class RedoAction extends AbstractAction implements UndoManagerListener, ApplicationEventListener {
+		Engine engine;
+
+		public RedoAction(Engine engine) {
+			super();
+			this.engine = engine;
+			putValue(NAME, "Redo");
+			putValue(SHORT_DESCRIPTION, "Redo last undone action");
+			putValue(SMALL_ICON, new ImageIcon(IMG_REDO));
+			putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_Y,
+					Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+			engine.addApplicationEventListener(this);
+			setEnabled(false);
+		}
+
+		public void actionPerformed(ActionEvent e) {
+			VPathwayModel vp = engine.getActiveVPathwayModel();
+			if (vp != null) {
+				vp.redo();
+			}
+		}
+
+		public void undoManagerEvent(UndoManagerEvent e) {
+			String msg = e.getRedoMessage();
+			putValue(NAME, "Redo: " + msg);
+			setEnabled(!msg.equals(UndoManager.CANT_REDO));
+		}
+
+		public void applicationEvent(ApplicationEvent e) {
+			switch (e.getType()) {
+			case VPATHWAY_CREATED:
+				((VPathwayModel) e.getSource()).getUndoManager().addListener(this);
+				break;
+			case VPATHWAY_DISPOSED:
+				((VPathwayModel) e.getSource()).getUndoManager().removeListener(this);
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
 	/**
 	 * Action to change the order of the selected object
 	 * 
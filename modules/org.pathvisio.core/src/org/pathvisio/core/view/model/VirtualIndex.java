@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2022 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.view.model;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.pathvisio.libgpml.model.PathwayObject;
+
+/**
+ * Uniform grid over the model bounds of the pathway objects of a large pathway
+ * that have no view yet, see {@link VPathwayModel#getPathwayElementView}.
+ * <p>
+ * Unlike {@link SpatialIndex}, the bounds are given by the caller when an
+ * object is added or updated, because there is no {@link VElement} to ask.
+ * Coordinates are in model units. The index is only used from the thread that
+ * modifies the pathway, so it is not synchronized.
+ */
+class VirtualIndex {
+
+	/** size of a grid cell, in model coordinates */
+	static final double CELL_SIZE = SpatialIndex.CELL_SIZE;
+
+	/** objects that would span more cells than this are part of every query */
+	static final int MAX_CELLS = SpatialIndex.MAX_CELLS;
+
+	private final Map<Long, List<PathwayObject>> cells = new HashMap<Long, List<PathwayObject>>();
+
+	/** indexed bounds per object */
+	private final Map<PathwayObject, Rectangle2D> entries = new IdentityHashMap<PathwayObject, Rectangle2D>();
+
+	/** objects that are too large (or have no proper bounds) to put in cells */
+	private final Set<PathwayObject> large = Collections
+			.newSetFromMap(new IdentityHashMap<PathwayObject, Boolean>());
+
+	/** union of all bounds that were ever added, or null */
+	private Rectangle2D extent = null;
+
+	/**
+	 * Adds an object, or moves it if it is already in the index.
+	 *
+	 * @param o       the pathway object.
+	 * @param mBounds its bounds in model coordinates.
+	 */
+	void add(PathwayObject o, Rectangle2D mBounds) {
+		if (entries.containsKey(o)) {
+			unplace(o);
+		}
+		place(o, mBounds);
+		if (isFinite(mBounds)) {
+			if (extent == null) {
+				extent = new Rectangle2D.Double();
+				extent.setRect(mBounds);
+			} else {
+				extent.add(mBounds);
+			}
+		}
+	}
+
+	/**
+	 * Moves an object that is in the index. Has no effect on other objects.
+	 *
+	 * @param o       the pathway object.
+	 * @param mBounds its new bounds in model coordinates.
+	 */
+	void update(PathwayObject o, Rectangle2D mBounds) {
+		if (entries.containsKey(o)) {
+			add(o, mBounds);
+		}
+	}
+
+	/**
+	 * Removes an object from the index.
+	 *
+	 * @return true if the object was in the index.
+	 */
+	boolean remove(PathwayObject o) {
+		if (!entries.containsKey(o)) {
+			return false;
+		}
+		unplace(o);
+		entries.remove(o);
+		return true;
+	}
+
+	/**
+	 * @return true if the given object is in the index.
+	 */
+	boolean contains(PathwayObject o) {
+		return entries.containsKey(o);
+	}
+
+	/**
+	 * @return the indexed bounds of the given object, or null if it is not in the
+	 *         index.
+	 */
+	Rectangle2D getBounds(PathwayObject o) {
+		return entries.get(o);
+	}
+
+	/**
+	 * @return the number of indexed objects.
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return true if no objects are indexed.
+	 */
+	boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/**
+	 * @return a copy of all indexed objects, in no particular order.
+	 */
+	List<PathwayObject> getAll() {
+		return new ArrayList<PathwayObject>(entries.keySet());
+	}
+
+	/**
+	 * Returns the union of the bounds of all objects that were added since the
+	 * last {@link #clear()}. It does not shrink when objects are removed.
+	 *
+	 * @return the extent in model coordinates, or null.
+	 */
+	Rectangle2D getExtent() {
+		return extent;
+	}
+
+	/**
+	 * Removes all objects.
+	 */
+	void clear() {
+		cells.clear();
+		entries.clear();
+		large.clear();
+		extent = null;
+	}
+
+	/**
+	 * Returns all objects with bounds that may intersect the given rectangle (in
+	 * model coordinates). The result contains no duplicates and is in no
+	 * particular order.
+	 */
+	List<PathwayObject> query(Rectangle2D mr) {
+		Set<PathwayObject> result = Collections.newSetFromMap(new IdentityHashMap<PathwayObject, Boolean>());
+		result.addAll(large);
+		int x0 = cell(mr.getMinX());
+		int y0 = cell(mr.getMinY());
+		int x1 = cell(mr.getMaxX());
+		int y1 = cell(mr.getMaxY());
+		if (((long) x1 - x0 + 1) * ((long) y1 - y0 + 1) > cells.size()) {
+			// cheaper to go over the objects than over the queried cells
+			for (Map.Entry<PathwayObject, Rectangle2D> e : entries.entrySet()) {
+				Rectangle2D b = e.getValue();
+				if (b != null && b.intersects(mr)) {
+					result.add(e.getKey());
+				}
+			}
+		} else {
+			for (int x = x0; x <= x1; x++) {
+				for (int y = y0; y <= y1; y++) {
+					List<PathwayObject> cell = cells.get(SpatialIndex.key(x, y));
+					if (cell != null) {
+						result.addAll(cell);
+					}
+				}
+			}
+		}
+		return new ArrayList<PathwayObject>(result);
+	}
+
+	private void place(PathwayObject o, Rectangle2D b) {
+		entries.put(o, b);
+		if (!isFinite(b) || cellCount(b) > MAX_CELLS) {
+			large.add(o);
+			return;
+		}
+		for (int x = cell(b.getMinX()); x <= cell(b.getMaxX()); x++) {
+			for (int y = cell(b.getMinY()); y <= cell(b.getMaxY()); y++) {
+				Long k = SpatialIndex.key(x, y);
+				List<PathwayObject> cell = cells.get(k);
+				if (cell == null) {
+					cell = new ArrayList<PathwayObject>(4);
+					cells.put(k, cell);
+				}
+				cell.add(o);
+			}
+		}
+	}
+
+	private void unplace(PathwayObject o) {
+		Rectangle2D b = entries.get(o);
+		if (large.remove(o) || b == null) {
+			return;
+		}
+		for (int x = cell(b.getMinX()); x <= cell(b.getMaxX()); x++) {
+			for (int y = cell(b.getMinY()); y <= cell(b.getMaxY()); y++) {
+				Long k = SpatialIndex.key(x, y);
+				List<PathwayObject> cell = cells.get(k);
+				if (cell != null) {
+					cell.remove(o);
+					if (cell.isEmpty()) {
+						cells.remove(k);
+					}
+				}
+			}
+		}
+	}
+
+	private static long cellCount(Rectangle2D b) {
+		return ((long) cell(b.getMaxX()) - cell(b.getMinX()) + 1) * ((long) cell(b.getMaxY()) - cell(b.getMinY()) + 1);
+	}
+
+	/**
+	 * @param m a model coordinate.
+	 * @return the grid cell for the given model coordinate.
+	 */
+	private static int cell(double m) {
+		double c = m / CELL_SIZE;
+		if (c >= Integer.MAX_VALUE) {
+			return Integer.MAX_VALUE - 1;
+		} else if (c <= Integer.MIN_VALUE) {
+			return Integer.MIN_VALUE + 1;
+		}
+		return (int) Math.floor(c);
+	}
+
+	private static boolean isFinite(Rectangle2D b) {
+		return b != null && isFinite(b.getMinX()) && isFinite(b.getMinY()) && isFinite(b.getMaxX())
+				&& isFinite(b.getMaxY());
+	}
+
+	private static boolean isFinite(double d) {
+		return !Double.isNaN(d) && !Double.isInfinite(d);
+	}
+}
@@ -16,21 +16,45 @@
  ******************************************************************************/
 package org.pathvisio.core.view.model;
 
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Stroke;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import junit.framework.TestCase;
 
+import org.pathvisio.libgpml.model.Annotation;
+import org.pathvisio.libgpml.model.Citation;
+import org.pathvisio.libgpml.model.PathwayElement.AnnotationRef;
 import org.pathvisio.libgpml.model.PathwayModel;
 import org.pathvisio.libgpml.model.PathwayObject;
 import org.pathvisio.libgpml.model.Shape;
+import org.pathvisio.libgpml.model.type.AnnotationType;
 import org.pathvisio.libgpml.model.type.DataNodeType;
+import org.pathvisio.libgpml.model.type.LineStyleType;
+import org.pathvisio.libgpml.model.type.ShapeType;
+import org.pathvisio.libgpml.model.type.StateType;
 import org.pathvisio.libgpml.util.XrefUtils;
 import org.pathvisio.libgpml.model.DataNode;
 import org.pathvisio.libgpml.model.Interaction;
 import org.pathvisio.libgpml.model.Label;
+import org.pathvisio.core.Engine;
+import org.pathvisio.core.preferences.GlobalPreference;
 import org.pathvisio.core.preferences.PreferenceManager;
+import org.pathvisio.core.util.ColorPalette;
+import org.pathvisio.core.view.model.SelectionBox.SelectionEvent;
+import org.pathvisio.core.view.model.SelectionBox.SelectionListener;
+import org.pathvisio.core.view.model.VPathwayModelEvent.VPathwayModelEventType;
 
 public class Test extends TestCase {
 
@@ -175,6 +199,186 @@ public void testVpwySort() {
 		checkDrawingOrder(new VElement[] { vLi, vSh, vLa, vDn, h }, elements);
 	}
 
+	/**
+	 * Test that the drawing order follows z-order changes in the model, without
+	 * explicit sorting.
+	 */
+	public void testDrawOrderUpdate() {
+		eltSh.setZOrder(eltDn.getZOrder() + 1);
+		List<VElement> elements = vPwy.getDrawingObjects();
+		assertTrue(elements.indexOf(vDn) < elements.indexOf(vSh));
+
+		eltDn.setZOrder(eltSh.getZOrder() + 1);
+		elements = vPwy.getDrawingObjects();
+		assertTrue(elements.indexOf(vSh) < elements.indexOf(vDn));
+	}
+
+	/**
+	 * Test loading a pathway that is large enough to calculate shapes in
+	 * parallel, with elements that are not in z-order.
+	 */
+	public void testBulkLoad() {
+		PathwayModel big = new PathwayModel();
+		List<DataNode> nodes = new ArrayList<DataNode>();
+		for (int i = 0; i < VPathwayModel.PARALLEL_THRESHOLD + 10; ++i) {
+			DataNode dn = new DataNode("" + i, DataNodeType.GENEPRODUCT);
+			dn.setCenterX(100 + (i % 50) * 100);
+			dn.setCenterY(100 + (i / 50) * 50);
+			dn.setWidth(80);
+			dn.setHeight(20);
+			dn.setZOrder(-i);
+			big.add(dn);
+			nodes.add(dn);
+		}
+		VPathwayModel vBig = new VPathwayModel(null);
+		vBig.fromModel(big);
+		assertEquals(big.getPathwayElements().size(), vBig.getDrawingObjects().size());
+		for (DataNode dn : nodes) {
+			assertNotNull(vBig.getPathwayElementView(dn));
+		}
+		// reverse z-order
+		List<VElement> elements = vBig.getDrawingObjects();
+		assertTrue(elements.indexOf(vBig.getPathwayElementView(nodes.get(0))) > elements
+				.indexOf(vBig.getPathwayElementView(nodes.get(1))));
+		assertSame(vBig.getPathwayElementView(nodes.get(51)), vBig.getObjectAt(new Point2D.Double(200, 150)));
+		vBig.dispose();
+	}
+
+	private static PathwayModel createShapes(int n) {
+		ShapeType[] types = { ShapeType.RECTANGLE, ShapeType.OVAL, ShapeType.ROUNDED_RECTANGLE, ShapeType.HEXAGON,
+				ShapeType.ARC, ShapeType.MITOCHONDRIA };
+		PathwayModel result = new PathwayModel();
+		for (int i = 0; i < n; ++i) {
+			DataNode dn = new DataNode("" + i, DataNodeType.GENEPRODUCT);
+			dn.setCenterX(100 + (i % 50) * 100);
+			dn.setCenterY(100 + (i / 50) * 50);
+			dn.setWidth(80 + i % 7);
+			dn.setHeight(20 + i % 5);
+			dn.setShapeType(types[i % types.length]);
+			dn.setRotation((double) (i % 4));
+			dn.setBorderWidth(1 + i % 3);
+			result.add(dn);
+			if (i % 3 == 0) {
+				dn.addState("P", StateType.PROTEIN_MODIFICATION, 1, -1);
+			}
+		}
+		return result;
+	}
+
+	private static VPathwayModel loadInPool(final PathwayModel model, int parallelism) throws Exception {
+		final VPathwayModel result = new VPathwayModel(null);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.submit(new Runnable() {
+				public void run() {
+					result.fromModel(model);
+				}
+			}).get();
+		} finally {
+			pool.shutdown();
+		}
+		return result;
+	}
+
+	/**
+	 * Test that outlines calculated in parallel while loading a large pathway are
+	 * the same as those calculated one by one.
+	 */
+	public void testParallelShapes() throws Exception {
+		int n = VPathwayModel.PARALLEL_THRESHOLD + 10;
+		PathwayModel parModel = createShapes(n);
+		PathwayModel seqModel = createShapes(n);
+		OutlineCache.clear();
+		VPathwayModel vPar = loadInPool(parModel, 4);
+		VPathwayModel vSeq = loadInPool(seqModel, 1);
+
+		List<PathwayObject> parObjects = new ArrayList<PathwayObject>();
+		List<PathwayObject> seqObjects = new ArrayList<PathwayObject>();
+		for (DataNode dn : parModel.getDataNodes()) {
+			parObjects.add(dn);
+			parObjects.addAll(dn.getStates());
+		}
+		for (DataNode dn : seqModel.getDataNodes()) {
+			seqObjects.add(dn);
+			seqObjects.addAll(dn.getStates());
+		}
+		assertEquals(seqObjects.size(), parObjects.size());
+		int states = 0;
+		for (int i = 0; i < parObjects.size(); ++i) {
+			VElement par = vPar.getPathwayElementView(parObjects.get(i));
+			VElement seq = vSeq.getPathwayElementView(seqObjects.get(i));
+			// calculated while loading in parallel, and not when loading in one thread
+			assertNotNull(par.getLastKnownVBounds());
+			assertNull(seq.getLastKnownVBounds());
+			assertEquals(seq.getVBounds(), par.getVBounds());
+			assertEquals(seq.getVOutline().getBounds2D(), par.getVOutline().getBounds2D());
+			if (par instanceof VState) {
+				states++;
+			}
+		}
+		assertTrue(states > 0);
+		vPar.dispose();
+		vSeq.dispose();
+	}
+
+	public void testVirtualElements() {
+		PreferenceManager prefs = PreferenceManager.getCurrent();
+		prefs.setInt(GlobalPreference.VIRTUAL_THRESHOLD, 100);
+		prefs.setInt(GlobalPreference.VIRTUAL_BUDGET, 100);
+		try {
+			PathwayModel big = new PathwayModel();
+			List<DataNode> nodes = new ArrayList<DataNode>();
+			for (int i = 0; i < 1000; ++i) {
+				DataNode dn = new DataNode("" + i, DataNodeType.GENEPRODUCT);
+				dn.setCenterX(100 + (i % 50) * 100);
+				dn.setCenterY(100 + (i / 50) * 50);
+				dn.setWidth(80);
+				dn.setHeight(20);
+				big.add(dn);
+				nodes.add(dn);
+			}
+			VPathwayModel vBig = new VPathwayModel(null);
+			vBig.fromModel(big);
+			for (DataNode dn : nodes) {
+				assertTrue(vBig.isVirtual(dn));
+			}
+			assertTrue(vBig.calculateVSize().getWidth() > 5000);
+
+			// views are created for the visible area only
+			Rectangle area = new Rectangle(0, 0, 300, 200);
+			List<VElement> drawList = vBig.getDrawList(area);
+			assertFalse(vBig.isVirtual(nodes.get(0)));
+			assertTrue(vBig.isVirtual(nodes.get(999)));
+			assertTrue(drawList.contains(vBig.getPathwayElementView(nodes.get(0))));
+
+			// and on hit-tests and lookups
+			VElement far = vBig.getObjectAt(new Point2D.Double(5000, 1050));
+			assertNotNull(far);
+			assertSame(vBig.getPathwayElementView(nodes.get(999)), far);
+
+			// select all needs all views
+			vBig.selectObjects(null);
+			assertEquals(nodes.size(), vBig.getSelectedGraphics().size());
+			vBig.clearSelection();
+
+			// unused views are dropped again, visible ones are kept
+			vBig.getDrawList(area);
+			assertTrue(vBig.isVirtual(nodes.get(999)));
+			assertFalse(vBig.isVirtual(nodes.get(0)));
+
+			// removing an element without a view
+			vBig.getDrawList(area);
+			assertTrue(vBig.isVirtual(nodes.get(998)));
+			big.remove(nodes.get(998));
+			assertFalse(vBig.isVirtual(nodes.get(998)));
+			assertNull(vBig.getPathwayElementView(nodes.get(998)));
+			vBig.dispose();
+		} finally {
+			prefs.set(GlobalPreference.VIRTUAL_THRESHOLD, null);
+			prefs.set(GlobalPreference.VIRTUAL_BUDGET, null);
+		}
+	}
+
 	public void checkDrawingOrder(VElement[] order, List<VElement> elements) {
 		int[] indices = new int[order.length];
 		for (int i = 0; i < order.length; i++) {
@@ -216,8 +420,554 @@ public void testDelete() {
 		assertTrue(pwy.getPathwayObjects().contains(eltDn));
 	}
 
+	public void testDeferredRemoval() {
+		vPwy.selectObject(vSh);
+		vPwy.beginUpdate(null);
+		vPwy.removeDrawingObject(vSh, true);
+		// no longer found or selected, even before the drawing is compacted
+		assertNull(vPwy.getObjectAt(new Point2D.Double(6000, 3000)));
+		assertTrue(vPwy.getSelectedGraphics().isEmpty());
+		vPwy.endUpdate();
+		assertFalse(vPwy.getDrawingObjects().contains(vSh));
+		assertTrue(vPwy.getDrawingObjects().contains(vLa));
+	}
+
+	public void testPathwayElementView() {
+		assertSame(vDn, vPwy.getPathwayElementView(eltDn));
+		assertSame(vLi, vPwy.getPathwayElementView(eltLi));
+
+		DataNode added = new DataNode("Added", DataNodeType.GENEPRODUCT);
+		pwy.add(added);
+		VPathwayObject vAdded = vPwy.getPathwayElementView(added);
+		assertNotNull(vAdded);
+		assertSame(added, vAdded.getPathwayObject());
+
+		pwy.remove(added);
+		assertNull(vPwy.getPathwayElementView(added));
+		vPwy.removeDrawingObject(vSh, true);
+		assertNull(vPwy.getPathwayElementView(eltSh));
+	}
+
+	/**
+	 * Test that hit-testing follows changes in the model and in zoom.
+	 */
+	public void testObjectAt() {
+		assertSame(vDn, vPwy.getObjectAt(new Point2D.Double(3000, 3000)));
+		assertSame(vSh, vPwy.getObjectAt(new Point2D.Double(6000, 3000)));
+		assertNull(vPwy.getObjectAt(new Point2D.Double(9000, 9000)));
+
+		eltDn.setCenterX(9000);
+		eltDn.setCenterY(9000);
+		assertSame(vDn, vPwy.getObjectAt(new Point2D.Double(9000, 9000)));
+		assertNull(vPwy.getObjectAt(new Point2D.Double(3000, 3000)));
+
+		vPwy.setPctZoom(50);
+		assertSame(vDn, vPwy.getObjectAt(new Point2D.Double(4500, 4500)));
+		assertSame(vSh, vPwy.getObjectAt(new Point2D.Double(3000, 1500)));
+		assertTrue(vPwy.getObjectsAt(new Point2D.Double(9000, 9000)).isEmpty());
+
+		vPwy.removeDrawingObject(vSh, true);
+		assertNull(vPwy.getObjectAt(new Point2D.Double(3000, 1500)));
+	}
+
+	public void testDrawList() {
+		List<VElement> drawList = vPwy.getDrawList(new Rectangle(2400, 2400, 1200, 1200));
+		assertTrue(drawList.contains(vDn));
+		assertFalse(drawList.contains(vSh));
+		assertFalse(drawList.contains(vLa));
+		try {
+			drawList.clear();
+			fail("Draw list should be a snapshot that can't be modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		List<VElement> all = vPwy.getDrawList(new Rectangle(0, 0, 10000, 10000));
+		assertTrue(all.containsAll(Arrays.asList(vDn, vSh, vLi, vLa)));
+	}
+
+	public void testDrawingSnapshot() {
+		vPwy.setPctZoom(25);
+		Rectangle area = new Rectangle(0, 0, vPwy.getVWidth(), vPwy.getVHeight());
+		BufferedImage direct = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = direct.createGraphics();
+		g.translate(-area.x, -area.y);
+		vPwy.draw(g, area, vPwy.getDrawList(area));
+		g.dispose();
+
+		final List<VElement> drawn = new ArrayList<VElement>();
+		vPwy.addVPathwayListener(new VPathwayModelListener() {
+			public void vPathwayModelEvent(VPathwayModelEvent e) {
+				drawn.add(e.getAffectedElement());
+			}
+		}, EnumSet.of(VPathwayModelEventType.ELEMENT_DRAWN));
+		DrawingSnapshot snapshot = vPwy.getDrawingSnapshot(area);
+		// the elements are drawn, and the events fired, while recording
+		assertTrue(drawn.containsAll(Arrays.asList(vDn, vSh, vLi, vLa)));
+		assertTrue(snapshot.size() > 0);
+
+		// changes after recording don't show up in the snapshot
+		eltDn.setCenterX(eltDn.getCenterX() + 500);
+		eltDn.setFillColor(Color.RED);
+		eltLa.setTextLabel("Changed");
+
+		BufferedImage replayed = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+		g = replayed.createGraphics();
+		g.translate(-area.x, -area.y);
+		snapshot.draw(g);
+		g.dispose();
+		for (int y = 0; y < area.height; y++) {
+			for (int x = 0; x < area.width; x++) {
+				assertEquals(direct.getRGB(x, y), replayed.getRGB(x, y));
+			}
+		}
+	}
+
+	public void testDrawEvents() {
+		final List<VPathwayModelEvent> events = new ArrayList<VPathwayModelEvent>();
+		VPathwayModelListener all = new VPathwayModelListener() {
+			public void vPathwayModelEvent(VPathwayModelEvent e) {
+				events.add(e);
+			}
+		};
+		vPwy.addVPathwayListener(all);
+		Rectangle area = new Rectangle(2400, 2400, 1200, 1200);
+		BufferedImage img = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = img.createGraphics();
+		vPwy.draw(g, area, vPwy.getDrawList(area));
+		// draw-time events need to be asked for
+		assertTrue(events.isEmpty());
+
+		vPwy.addVPathwayListener(all, EnumSet.of(VPathwayModelEventType.ELEMENTS_DRAWN));
+		vPwy.draw(g, area, vPwy.getDrawList(area));
+		assertEquals(1, events.size());
+		assertEquals(VPathwayModelEventType.ELEMENTS_DRAWN, events.get(0).getType());
+		assertTrue(events.get(0).getAffectedElements().contains(vDn));
+		g.dispose();
+	}
+
+	public void testTextCache() {
+		VShapedElement vs = (VShapedElement) vDn;
+		Font font = vs.getVFont();
+		assertSame(font, vs.getVFont());
+
+		eltDn.setCenterX(4000);
+		assertSame(font, vs.getVFont());
+
+		eltDn.setFontSize(20);
+		Font larger = vs.getVFont();
+		assertNotSame(font, larger);
+		assertTrue(larger.getSize2D() > font.getSize2D());
+
+		vPwy.setPctZoom(50);
+		assertEquals(larger.getSize2D() / 2, vs.getVFont().getSize2D(), 0.01);
+	}
+
+	public void testOutlineCache() {
+		DataNode other = new DataNode("Other", DataNodeType.UNDEFINED);
+		other.setCenterX(8000);
+		other.setCenterY(8000);
+		other.setWidth(eltDn.getWidth());
+		other.setHeight(eltDn.getHeight());
+		pwy.add(other);
+		VPathwayObject vOther = vPwy.getPathwayElementView(other);
+
+		OutlineCache.clear();
+		vDn.resetShapeCache();
+		vOther.resetShapeCache();
+		Rectangle2D b1 = vDn.getVBounds();
+		Rectangle2D b2 = vOther.getVBounds();
+		assertEquals(1, OutlineCache.getMisses());
+		assertEquals(1, OutlineCache.getHits());
+		// the shared outline is moved to the position of each element
+		assertEquals(b1.getWidth(), b2.getWidth(), 0.01);
+		assertEquals(5000, b2.getCenterX() - b1.getCenterX(), 0.01);
+
+		vPwy.setPctZoom(50);
+		assertEquals(b1.getWidth() / 2, vDn.getVBounds().getWidth(), 0.01);
+		assertEquals(1, OutlineCache.getMisses());
+	}
+
+	/**
+	 * Zooming should scale the outlines kept in model coordinates, instead of
+	 * calculating them again.
+	 */
+	public void testZoomChange() {
+		Rectangle2D bDn = vDn.getVBounds();
+		Rectangle2D bLi = vLi.getVBounds();
+		OutlineCache.clear();
+
+		vPwy.setPctZoom(200);
+		assertEquals(bDn.getWidth() * 2, vDn.getVBounds().getWidth(), 0.01);
+		assertEquals(bLi.getX() * 2, vLi.getVBounds().getX(), 0.01);
+		assertEquals(bLi.getHeight() * 2, vLi.getVBounds().getHeight(), 0.01);
+		assertTrue(vDn.vContains(new Point2D.Double(6000, 6000)));
+		assertEquals(0, OutlineCache.getHits() + OutlineCache.getMisses());
+
+		// a change in the model still updates the outline
+		eltDn.setWidth(500);
+		assertEquals((bDn.getWidth() - 500) * 2, vDn.getVBounds().getWidth(), 0.01);
+	}
+
+	public void testHitTest() {
+		eltSh.setShapeType(ShapeType.OVAL);
+		eltSh.setBorderWidth(2);
+		eltSh.setFillColor(Color.WHITE);
+		assertTrue(vSh.vContains(new Point2D.Double(6000, 3000)));
+		// outside the oval, but inside its bounds
+		assertFalse(vSh.vContains(new Point2D.Double(6140, 2670)));
+
+		// only the border of a transparent shape is hit
+		eltSh.setFillColor(ColorPalette.TRANSPARENT);
+		assertFalse(vSh.vContains(new Point2D.Double(6000, 3000)));
+		assertTrue(vSh.vContains(new Point2D.Double(6150, 3000)));
+		assertFalse(vSh.vIntersects(new Rectangle2D.Double(5990, 2990, 20, 20)));
+		assertTrue(vSh.vIntersects(new Rectangle2D.Double(6140, 2990, 20, 20)));
+
+		eltSh.setRotation(Math.PI / 2);
+		assertTrue(vSh.vContains(new Point2D.Double(6350, 3000)));
+		assertFalse(vSh.vContains(new Point2D.Double(6150, 3000)));
+
+		// lines are hit within half their width
+		assertTrue(vLi.vContains(new Point2D.Double(1500, 2500)));
+		assertFalse(vLi.vContains(new Point2D.Double(1510, 2500)));
+		assertTrue(vLi.vIntersects(new Rectangle2D.Double(1490, 2490, 20, 20)));
+	}
+
+	public void testPaintCache() {
+		Stroke s = PaintCache.getStroke(LineStyleType.DASHED, 2.5f);
+		long misses = PaintCache.getMisses();
+		assertSame(s, PaintCache.getStroke(LineStyleType.DASHED, 2.5f));
+		assertNotSame(s, PaintCache.getStroke(LineStyleType.DASHED, 5f));
+		Color c = PaintCache.getHighlightColor(Color.RED);
+		assertEquals(PaintCache.HIGHLIGHT_ALPHA, c.getAlpha());
+		assertSame(c, PaintCache.getHighlightColor(new Color(255, 0, 0)));
+		assertEquals(misses + 2, PaintCache.getMisses());
+	}
+
+	public void testDirtyRegion() {
+		DirtyRegion region = new DirtyRegion();
+		// overlapping rectangles, e.g. old and new bounds of a nudged element
+		region.add(new Rectangle(0, 0, 100, 20));
+		region.add(new Rectangle(5, 0, 100, 20));
+		region.add(new Rectangle(10, 10, 50, 5));
+		// far away
+		region.add(new Rectangle(1000, 1000, 10, 10));
+		List<Rectangle> rects = region.flush();
+		assertEquals(2, rects.size());
+		assertTrue(rects.contains(new Rectangle(0, 0, 105, 20)));
+		assertTrue(region.isEmpty());
+
+		// too many separate rectangles fall back to their bounds
+		for (int i = 0; i <= DirtyRegion.MAX_RECTS; i++) {
+			region.add(new Rectangle(i * 100, 0, 10, 10));
+		}
+		assertEquals(Collections.singletonList(new Rectangle(0, 0, DirtyRegion.MAX_RECTS * 100 + 10, 10)),
+				region.flush());
+		assertEquals(DirtyRegion.MAX_RECTS + 5, region.getSubmittedCount());
+		assertEquals(3, region.getFlushedCount());
+	}
+
+	public void testConnectorUpdate() {
+		VLineElement line = (VLineElement) vLi;
+		int updates = line.getConnectorUpdates();
+		// linking the line and moving the data node twice recalculates the line
+		// once, and not before the update, even if its bounds are not known yet
+		eltLi.getEndLinePoint().linkTo(eltDn, 1, 0);
+		eltDn.setLeft(4000);
+		eltDn.setTop(3000);
+		assertEquals(updates, line.getConnectorUpdates());
+		vPwy.updateConnectors();
+		assertEquals(updates + 1, line.getConnectorUpdates());
+		Point2D end = eltLi.getConnectorShape().getSegments()[0].getMEnd();
+		assertEquals(5000.0, end.getX(), 0.01);
+		assertEquals(3500.0, end.getY(), 0.01);
+		// pending lines are updated before hit-testing
+		eltDn.setLeft(5000);
+		assertEquals(vLi, vPwy.getObjectAt(new Point2D.Double(vPwy.vFromM(3250), vPwy.vFromM(2250))));
+	}
+
+	public void testUpdate() {
+		final List<VPathwayModelEvent> events = new ArrayList<VPathwayModelEvent>();
+		vPwy.addVPathwayListener(new VPathwayModelListener() {
+			public void vPathwayModelEvent(VPathwayModelEvent e) {
+				events.add(e);
+			}
+		}, EnumSet.of(VPathwayModelEventType.UPDATE_FINISHED));
+		vPwy.beginUpdate();
+		vPwy.beginUpdate();
+		eltDn.setLeft(8000);
+		eltDn.setTop(8000);
+		vPwy.endUpdate();
+		assertTrue(vPwy.isUpdating());
+		vPwy.endUpdate();
+		assertFalse(vPwy.isUpdating());
+		assertEquals(1, events.size());
+		// the spatial index is updated at the end
+		assertEquals(vDn, vPwy.getObjectAt(new Point2D.Double(vPwy.vFromM(8500), vPwy.vFromM(8500))));
+		assertNull(vPwy.getObjectAt(new Point2D.Double(vPwy.vFromM(3000), vPwy.vFromM(3000))));
+
+		// one undo action per transaction
+		UndoManager um = new UndoManager();
+		um.activate(new Engine());
+		um.setPathwayModel(pwy);
+		um.beginTransaction("Align");
+		um.newAction("Move");
+		um.beginTransaction("Stack");
+		um.endTransaction();
+		um.endTransaction();
+		assertEquals("Align", um.getTopMessage());
+		um.beginTransaction(null);
+		um.newAction("Move");
+		um.newAction("Nudge");
+		um.endTransaction();
+		assertEquals("Move", um.getTopMessage());
+		um.newAction("Paste");
+		assertEquals("Paste", um.getTopMessage());
+	}
+
+	public void testRubberBand() {
+		final List<SelectionEvent> events = new ArrayList<SelectionEvent>();
+		vPwy.addSelectionListener(new SelectionListener() {
+			public void selectionEvent(SelectionEvent e) {
+				events.add(e);
+			}
+		});
+		Rectangle2D dnBounds = (Rectangle2D) vDn.getVBounds().clone();
+		vPwy.startSelecting(new Point2D.Double(vPwy.vFromM(2000), vPwy.vFromM(2000)));
+		events.clear();
+		SelectionBox box = vPwy.selection;
+
+		box.adjustToHandle(box.getCornerHandle(), vPwy.vFromM(6500), vPwy.vFromM(3500));
+		assertEquals(1, events.size());
+		assertEquals(SelectionEvent.OBJECTS_CHANGED, events.get(0).type);
+		assertTrue(events.get(0).added.containsAll(Arrays.asList(vDn, vSh)));
+		assertFalse(events.get(0).added.contains(vLa));
+		assertTrue(events.get(0).removed.isEmpty());
+
+		// shrinking the box removes the shape, nothing is added
+		box.adjustToHandle(box.getCornerHandle(), vPwy.vFromM(4000), vPwy.vFromM(3500));
+		assertEquals(2, events.size());
+		assertEquals(Collections.singleton(vSh), events.get(1).removed);
+		assertTrue(events.get(1).added.isEmpty());
+		assertTrue(vDn.isSelected());
+		assertFalse(vSh.isSelected());
+
+		// no change, no event
+		box.adjustToHandle(box.getCornerHandle(), vPwy.vFromM(4100), vPwy.vFromM(3600));
+		assertEquals(2, events.size());
+
+		box.stopSelecting();
+		assertEquals(dnBounds, vDn.getVBounds());
+	}
+
+	/**
+	 * Test that handles are kept in the overlay layer, apart from the content.
+	 */
+	public void testOverlay() {
+		int content = vPwy.getDrawingObjects().size();
+		vPwy.selectObject(vDn);
+		vPwy.getDrawList(new Rectangle(0, 0, 10000, 10000));
+		assertEquals(content, vPwy.getDrawingObjects().size());
+		for (VElement e : vPwy.getDrawingObjects()) {
+			assertFalse(e instanceof Handle || e instanceof SelectionBox);
+		}
+		Handle h = null;
+		for (VElement e : vPwy.getOverlayObjects()) {
+			if (e instanceof Handle && ((Handle) e).getParent() == vDn) {
+				h = (Handle) e;
+			}
+		}
+		assertNotNull(h);
+
+		// handles are hit before the content, and drawn on top of it
+		VElement hit = vPwy.getObjectAt(new Point2D.Double(h.getVCenterX(), h.getVCenterY()));
+		assertTrue(hit instanceof Handle);
+		List<VElement> drawList = vPwy.getDrawList(h.getVBounds().getBounds());
+		assertSame(h, drawList.get(drawList.size() - 1));
+		assertEquals(Collections.singletonList(vDn), vPwy.getSelectedGraphics());
+
+		vPwy.clearSelection();
+		vPwy.getDrawList(new Rectangle(0, 0, 10000, 10000));
+		assertFalse(vPwy.getOverlayObjects().contains(h));
+		assertTrue(vPwy.getSelectedGraphics().isEmpty());
+		assertEquals(content, vPwy.getDrawingObjects().size());
+	}
+
 	public void testUndoAction() {
-		// TODO
+		eltLi.getEndLinePoint().linkTo(eltDn, 0, 0);
+		vPwy.activateUndoManager(new Engine());
+		UndoManager um = vPwy.getUndoManager();
+		assertEquals(UndoManager.CANT_UNDO, um.getTopMessage());
+
+		um.newAction("Modify");
+		eltDn.setTextLabel("Changed");
+		eltDn.setLeft(4000);
+		um.newAction("Delete");
+		pwy.remove(eltDn);
+		assertNull(eltDn.getPathwayModel());
+		assertNull(eltLi.getEndLinePoint().getElementRef());
+		assertEquals("Delete", um.getTopMessage());
+
+		// the deleted node comes back, with its view and the link to it
+		vPwy.undo();
+		assertSame(pwy, eltDn.getPathwayModel());
+		assertSame(eltDn, pwy.getPathwayObject(eltDn.getElementId()));
+		assertNotNull(vPwy.getPathwayElementView(eltDn));
+		assertSame(eltDn, eltLi.getEndLinePoint().getElementRef());
+		assertEquals("Changed", eltDn.getTextLabel());
+		assertEquals("Modify", um.getTopMessage());
+		assertEquals("Delete", um.getRedoMessage());
+
+		vPwy.undo();
+		assertEquals("Gene", eltDn.getTextLabel());
+		assertEquals(2500, eltDn.getLeft(), 0.01);
+		assertEquals(3000, eltLi.getEndLinePointX(), 0.01);
+		assertEquals(UndoManager.CANT_UNDO, um.getTopMessage());
+
+		vPwy.redo();
+		assertEquals("Changed", eltDn.getTextLabel());
+		assertEquals(4000, eltDn.getLeft(), 0.01);
+		assertEquals(4500, eltLi.getEndLinePointX(), 0.01);
+		assertEquals("Delete", um.getRedoMessage());
+
+		// a new action can not be redone over
+		um.newAction("Move");
+		eltSh.setLeft(0);
+		assertEquals(UndoManager.CANT_REDO, um.getRedoMessage());
+		vPwy.undo();
+		assertEquals(6000, eltSh.getCenterX(), 0.01);
+		assertEquals("Changed", eltDn.getTextLabel());
+
+		// repeated changes of a value are undone in one step
+		um.newAction("Move");
+		eltLa.setLeft(100);
+		eltLa.setLeft(200);
+		vPwy.undo();
+		assertEquals(5850, eltLa.getLeft(), 0.01);
+		vPwy.redo();
+		assertEquals(200, eltLa.getLeft(), 0.01);
+	}
+
+	public void testUndoAnnotations() {
+		vPwy.activateUndoManager(new Engine());
+		UndoManager um = vPwy.getUndoManager();
+		AnnotationRef ref = eltDn.addAnnotation("Value", AnnotationType.ONTOLOGY, null, null);
+		Annotation annotation = ref.getAnnotation();
+		Citation citation = ref.addCitation(XrefUtils.createXref("18651794", "pubmed"), null).getCitation();
+
+		// the annotation is removed with the last reference to it
+		um.newAction("Remove annotation");
+		eltDn.removeAnnotationRef(ref);
+		assertNull(annotation.getPathwayModel());
+		assertNull(citation.getPathwayModel());
+		vPwy.undo();
+		assertSame(pwy, annotation.getPathwayModel());
+		assertSame(pwy, citation.getPathwayModel());
+		assertEquals(1, eltDn.getAnnotationRefs().size());
+		ref = eltDn.getAnnotationRefs().get(0);
+		assertSame(annotation, ref.getAnnotation());
+		assertEquals(1, ref.getCitationRefs().size());
+		assertSame(citation, ref.getCitationRefs().get(0).getCitation());
+		vPwy.redo();
+		assertNull(annotation.getPathwayModel());
+		assertTrue(eltDn.getAnnotationRefs().isEmpty());
+		vPwy.undo();
+
+		// a deleted node gets its annotation back
+		um.newAction("Delete");
+		pwy.remove(eltDn);
+		assertNull(annotation.getPathwayModel());
+		vPwy.undo();
+		assertSame(pwy, annotation.getPathwayModel());
+		assertSame(annotation, eltDn.getAnnotationRefs().get(0).getAnnotation());
+
+		// the content of an annotation is set back
+		Annotation other = eltSh.addAnnotation("Other", AnnotationType.TAXONOMY, null, null).getAnnotation();
+		um.newAction("Edit annotation");
+		annotation.copyValuesFrom(other);
+		assertEquals("Other", annotation.getValue());
+		vPwy.undo();
+		assertEquals("Value", annotation.getValue());
+		assertEquals(AnnotationType.ONTOLOGY, annotation.getType());
+		vPwy.redo();
+		assertEquals("Other", annotation.getValue());
+	}
+
+	public void testUndoRecording() {
+		vPwy.activateUndoManager(new Engine());
+		UndoManager um = vPwy.getUndoManager();
+
+		// the values are read once, when the recorder attaches, and after that
+		// only for the objects that change
+		long read = um.getReadCount();
+		assertTrue(read > 0);
+		um.newAction("Move");
+		assertEquals(read, um.getReadCount());
+		eltDn.setLeft(100);
+		assertTrue(um.getReadCount() - read < read / 2);
+
+		// after an undo, changes are recorded into the action before
+		um.newAction("Rename");
+		eltDn.setTextLabel("Changed");
+		vPwy.undo();
+		assertEquals("Rename", um.getRedoMessage());
+		eltDn.setTextLabel("Later");
+		assertEquals(UndoManager.CANT_REDO, um.getRedoMessage());
+		vPwy.undo();
+		assertEquals("Gene", eltDn.getTextLabel());
+		assertEquals(2500, eltDn.getLeft(), 0.01);
+
+		// with nothing to undo, a change is not recorded, but can not be redone over
+		assertEquals("Move", um.getRedoMessage());
+		eltDn.setLeft(200);
+		assertEquals(UndoManager.CANT_REDO, um.getRedoMessage());
+		assertEquals(UndoManager.CANT_UNDO, um.getTopMessage());
+
+		// a started action that is not inserted gives its changes to the last one
+		um.newAction("Move");
+		UndoAction drag = um.startAction("Drag Object");
+		eltDn.setLeft(300);
+		um.dropAction(drag);
+		eltDn.setLeft(400);
+		vPwy.undo();
+		assertEquals(200, eltDn.getLeft(), 0.01);
+		assertEquals(UndoManager.CANT_UNDO, um.getTopMessage());
+	}
+
+	public void testUndoHistory() {
+		PreferenceManager prefs = PreferenceManager.getCurrent();
+		vPwy.activateUndoManager(new Engine());
+		UndoManager um = vPwy.getUndoManager();
+		assertEquals(0, um.getHistorySize());
+		um.newAction("Move");
+		eltDn.setLeft(100);
+		um.newAction("Rename");
+		eltDn.setTextLabel("Changed");
+		long size = um.getHistorySize();
+		assertTrue(size > 0);
+		pwy.remove(eltSh);
+		assertTrue(um.getHistorySize() > size);
+
+		// undone actions count until they can not be redone anymore
+		size = um.getHistorySize();
+		vPwy.undo();
+		assertEquals(size, um.getHistorySize());
+		um.newAction("Move");
+		assertTrue(um.getHistorySize() < size);
+
+		// the oldest actions are dropped, the last one is kept
+		try {
+			prefs.setInt(GlobalPreference.UNDO_HISTORY_SIZE, 0);
+			um.newAction("Rename");
+			eltDn.setTextLabel("Gene");
+			um.newAction("Move");
+			assertEquals("Move", um.getTopMessage());
+			vPwy.undo();
+			assertEquals(UndoManager.CANT_UNDO, um.getTopMessage());
+		} finally {
+			prefs.set(GlobalPreference.UNDO_HISTORY_SIZE, null);
+		}
 	}
 
 	public void testGroupingAction() {
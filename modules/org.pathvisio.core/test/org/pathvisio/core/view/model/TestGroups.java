@@ -17,6 +17,9 @@
 package org.pathvisio.core.view.model;
 
 import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -116,6 +119,25 @@ public void testNesting() {
 		VGroup vGrp2 = (VGroup) vpwy.getPathwayElementView(grp2);
 	}
 
+	public void testMembers() {
+		Group grp = dn[0].getGroupRef();
+		List<VPathwayObject> members = vGrp1.getGroupGraphics();
+		assertEquals(3, members.size());
+		assertTrue(members.containsAll(Arrays.asList(vDn[0], vDn[1], vLn[0])));
+
+		// follows changes of the group references
+		grp.addPathwayElement(dn[2]);
+		grp.removePathwayElement(dn[0]);
+		members = vGrp1.getGroupGraphics();
+		assertTrue(members.contains(vDn[2]));
+		assertFalse(members.contains(vDn[0]));
+
+		vpwy.clearSelection();
+		vGrp1.select();
+		assertTrue(vDn[2].isSelected());
+		assertFalse(vDn[0].isSelected());
+	}
+
 	public void testDrag() {
 		vpwy.clearSelection();
 		double startX = vDn[0].getVCenterX();
@@ -143,6 +165,23 @@ public void testSelect() {
 //		assertTrue (vGrp1.isSelected());
 	}
 
+	/**
+	 * Test that a selection rectangle over a group member selects the group
+	 */
+	public void testRubberBand() {
+		vpwy.startSelecting(new Point2D.Double(vpwy.vFromM(1600), vpwy.vFromM(3600)));
+		SelectionBox box = vpwy.selection;
+		box.adjustToHandle(box.handleNW, vpwy.vFromM(1100), vpwy.vFromM(2900));
+		assertTrue(vGrp1.isSelected());
+		assertTrue(vDn[0].isSelected());
+		assertEquals(Collections.singleton(vGrp1), box.getSelection());
+
+		box.adjustToHandle(box.handleNW, vpwy.vFromM(1500), vpwy.vFromM(3500));
+		assertFalse(vGrp1.isSelected());
+		assertFalse(vDn[0].isSelected());
+		assertTrue(box.getSelection().isEmpty());
+	}
+
 	/**
 	 * Test aligning something that is in a group
 	 */
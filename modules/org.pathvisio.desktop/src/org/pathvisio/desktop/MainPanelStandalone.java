@@ -94,6 +94,7 @@ protected void addMenuActions(JMenuBar mb) {
 		// ========================================
 		JMenu editMenu = new JMenu("Edit");
 		addToMenu(actions.undoAction, editMenu);
+		addToMenu(actions.redoAction, editMenu);
 		addToMenu(actions.copyAction, editMenu);
 		addToMenu(actions.pasteAction, editMenu);
 		// addToMenu(standaloneActions.searchAction, editMenu); // TODO Removed
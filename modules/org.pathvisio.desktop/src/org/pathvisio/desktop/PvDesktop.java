@@ -103,6 +103,22 @@ public void initPanels() {
 						"Use Java System look-and-feel at program start")
 				.booleanField(GlobalPreference.ENABLE_DOUBLE_BUFFERING,
 						"Enable double-buffering (pathway is drawn slower, but flickerless)")
+				.integerField(GlobalPreference.TILE_CACHE_SIZE,
+						"Memory for caching the pathway drawing in MB (0 to disable):", 0, 1024)
+				.booleanField(GlobalPreference.BACKGROUND_RENDERING,
+						"Draw the pathway in the background (keeps large pathways responsive)")
+				.booleanField(GlobalPreference.ZOOM_PREVIEW,
+						"Show a preview while zooming with the mouse wheel")
+				.integerField(GlobalPreference.LOD_SHAPE_SIZE,
+						"Draw elements smaller than this as simple shapes (in pixels, 0 to disable):", 0, 100)
+				.integerField(GlobalPreference.LOD_TEXT_SIZE,
+						"Draw text smaller than this as bars (in pixels, 0 to disable):", 0, 100)
+				.integerField(GlobalPreference.LOD_DECORATION_SIZE,
+						"Hide citations, anchors and states on elements smaller than (in pixels):", 0, 1000)
+				.integerField(GlobalPreference.VIRTUAL_THRESHOLD,
+						"Create views on demand for pathways with more elements than (0 to disable):", 0, 10000000)
+				.integerField(GlobalPreference.VIRTUAL_BUDGET,
+						"Maximum number of views created on demand:", 100, 10000000)
 				.build());
 
 		preferencesDlg.addPanel("Display.Colors",
@@ -16,10 +16,17 @@
  ******************************************************************************/
 package org.pathvisio.desktop.debug;
 
+import java.awt.EventQueue;
 import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import javax.swing.JScrollPane;
 import javax.swing.KeyStroke;
@@ -30,12 +37,25 @@
 import org.pathvisio.libgpml.debug.StopWatch;
 import org.pathvisio.libgpml.io.ConverterException;
 import org.pathvisio.libgpml.model.PathwayModel;
+import org.pathvisio.libgpml.model.type.ArrowHeadType;
+import org.pathvisio.libgpml.model.type.ConnectorType;
 import org.pathvisio.libgpml.model.type.DataNodeType;
+import org.pathvisio.libgpml.model.type.GroupType;
+import org.pathvisio.libgpml.model.type.ShapeType;
 import org.pathvisio.libgpml.util.XrefUtils;
+import org.pathvisio.libgpml.model.CopyElement;
 import org.pathvisio.libgpml.model.DataNode;
+import org.pathvisio.libgpml.model.Group;
 import org.pathvisio.libgpml.model.Interaction;
 import org.pathvisio.libgpml.model.PathwayElement;
+import org.pathvisio.libgpml.model.Shape;
+import org.pathvisio.core.preferences.GlobalPreference;
 import org.pathvisio.core.preferences.PreferenceManager;
+import org.pathvisio.core.view.LayoutType;
+import org.pathvisio.core.view.MouseEvent;
+import org.pathvisio.core.view.model.SelectionBox.SelectionEvent;
+import org.pathvisio.core.view.model.SelectionBox.SelectionListener;
+import org.pathvisio.core.view.model.UndoManager;
 import org.pathvisio.core.view.model.VDataNode;
 import org.pathvisio.core.view.model.VElement;
 import org.pathvisio.core.view.model.VLineElement;
@@ -61,6 +81,28 @@ public void setUp() {
 		measure = new Measure("pv_mut.log");
 	}
 
+	/**
+	 * Runs each test on the event dispatch thread, because the views may only be
+	 * changed from there. The repaint timer of a {@link VPathwayModelSwing}
+	 * would otherwise flush its dirty region while the test adds to it.
+	 */
+	@Override
+	protected void runTest() throws Throwable {
+		final Throwable[] failure = new Throwable[1];
+		EventQueue.invokeAndWait(new Runnable() {
+			public void run() {
+				try {
+					TestAndMeasure.super.runTest();
+				} catch (Throwable t) {
+					failure[0] = t;
+				}
+			}
+		});
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
 	private interface ObjectTester {
 		String getName();
 
@@ -232,6 +274,547 @@ public String getName() {
 		});
 	}
 
+	/**
+	 * Creates a synthetic pathway with n DataNodes laid out on a grid, with an
+	 * Interaction between each pair of neighbouring nodes in a row.
+	 */
+	private static PathwayModel createGridPathway(int n) {
+		PathwayModel pwy = new PathwayModel();
+		int cols = (int) Math.ceil(Math.sqrt(n));
+		DataNode prev = null;
+		for (int i = 0; i < n; ++i) {
+			DataNode elt = new DataNode("Node" + i, DataNodeType.GENEPRODUCT);
+			elt.setCenterX(100 + (i % cols) * 120);
+			elt.setCenterY(100 + (i / cols) * 60);
+			elt.setWidth(80);
+			elt.setHeight(20);
+			pwy.add(elt);
+			if (prev != null && i % cols != 0 && i % 4 == 0) {
+				Interaction line = new Interaction();
+				line.setStartLinePointX(prev.getCenterX() + 40);
+				line.setStartLinePointY(prev.getCenterY());
+				line.setEndLinePointX(elt.getCenterX() - 40);
+				line.setEndLinePointY(elt.getCenterY());
+				pwy.add(line);
+			}
+			prev = elt;
+		}
+		return pwy;
+	}
+
+	/**
+	 * Measures hit-test latency (getObjectAt, getObjectsAt) against the number of
+	 * elements in the pathway.
+	 */
+	public void testHitTestScaling() {
+		PreferenceManager.init();
+		final int queries = 2000;
+		for (int n : new int[] { 1000, 5000, 20000 }) {
+			PathwayModel pwy = createGridPathway(n);
+			VPathwayModel vpwy = new VPathwayModel(null);
+			vpwy.fromModel(pwy);
+			int w = vpwy.getVWidth();
+			int h = vpwy.getVHeight();
+			Random random = new Random(n);
+			// warm-up, this also builds the index
+			for (int i = 0; i < queries; ++i) {
+				vpwy.getObjectAt(new Point(random.nextInt(w), random.nextInt(h)));
+			}
+			StopWatch sw = new StopWatch();
+			sw.start();
+			int hits = 0;
+			for (int i = 0; i < queries; ++i) {
+				if (vpwy.getObjectAt(new Point(random.nextInt(w), random.nextInt(h))) != null) {
+					hits++;
+				}
+			}
+			measure.add("Speed::getObjectAt " + n + " elements", "" + (float) sw.stop() / queries, "msec");
+			sw.start();
+			for (int i = 0; i < queries; ++i) {
+				vpwy.getObjectsAt(new Point(random.nextInt(w), random.nextInt(h)));
+			}
+			measure.add("Speed::getObjectsAt " + n + " elements", "" + (float) sw.stop() / queries, "msec");
+			assertTrue(hits > 0);
+			vpwy.dispose();
+		}
+	}
+
+	/**
+	 * Measures hit-test latency on curved shapes with a border and curved lines,
+	 * for which the outline is most expensive to test.
+	 */
+	public void testHitTestShapes() {
+		PreferenceManager.init();
+		final int queries = 100000;
+		PathwayModel pwy = new PathwayModel();
+		for (int i = 0; i < 2000; ++i) {
+			Shape elt = new Shape();
+			elt.setShapeType(i % 2 == 0 ? ShapeType.OVAL : ShapeType.ROUNDED_RECTANGLE);
+			elt.setCenterX(100 + (i % 40) * 120);
+			elt.setCenterY(100 + (i / 40) * 120);
+			elt.setWidth(80);
+			elt.setHeight(50);
+			elt.setRotation(i % 3 * 0.3);
+			elt.setBorderWidth(2);
+			pwy.add(elt);
+			if (i % 40 != 0) {
+				Interaction line = new Interaction();
+				line.setConnectorType(ConnectorType.CURVED);
+				line.setEndArrowHeadType(ArrowHeadType.CONVERSION);
+				line.setStartLinePointX(elt.getCenterX() - 80);
+				line.setStartLinePointY(elt.getCenterY() - 40);
+				line.setEndLinePointX(elt.getCenterX() - 40);
+				line.setEndLinePointY(elt.getCenterY() + 40);
+				pwy.add(line);
+			}
+		}
+		VPathwayModel vpwy = new VPathwayModel(null);
+		vpwy.fromModel(pwy);
+		int w = vpwy.getVWidth();
+		int h = vpwy.getVHeight();
+		Random random = new Random(1);
+		// warm-up, long enough for the hit tests to be compiled
+		for (int i = 0; i < 5 * queries; ++i) {
+			vpwy.getObjectAt(new Point(random.nextInt(w), random.nextInt(h)));
+		}
+		StopWatch sw = new StopWatch();
+		sw.start();
+		for (int i = 0; i < queries; ++i) {
+			vpwy.getObjectAt(new Point(random.nextInt(w), random.nextInt(h)));
+		}
+		measure.add("Speed::getObjectAt on curved shapes and lines", "" + (float) sw.stop() * 1000 / queries, "usec");
+		vpwy.dispose();
+	}
+
+	/**
+	 * Measures dragging a hub node with many attached interactions, with two
+	 * mouse events per painted frame.
+	 */
+	public void testDragHub() {
+		PreferenceManager.init();
+		final int lines = 150;
+		PathwayModel pwy = new PathwayModel();
+		DataNode hub = new DataNode("Hub", DataNodeType.GENEPRODUCT);
+		hub.setCenterX(2000);
+		hub.setCenterY(2000);
+		hub.setWidth(80);
+		hub.setHeight(20);
+		pwy.add(hub);
+		for (int i = 0; i < lines; ++i) {
+			DataNode elt = new DataNode("Node" + i, DataNodeType.GENEPRODUCT);
+			double angle = 2 * Math.PI * i / lines;
+			elt.setCenterX(2000 + 1500 * Math.cos(angle));
+			elt.setCenterY(2000 + 1500 * Math.sin(angle));
+			elt.setWidth(80);
+			elt.setHeight(20);
+			pwy.add(elt);
+			Interaction line = new Interaction();
+			line.setConnectorType(i % 2 == 0 ? ConnectorType.ELBOW : ConnectorType.STRAIGHT);
+			pwy.add(line);
+			line.getStartLinePoint().linkTo(hub, 1, 0);
+			line.getEndLinePoint().linkTo(elt, -1, 0);
+		}
+		VPathwayModel vpwy = new VPathwayModel(null);
+		vpwy.fromModel(pwy);
+		Rectangle area = new Rectangle(0, 0, vpwy.getVWidth(), vpwy.getVHeight());
+		final int frames = 200;
+		StopWatch sw = new StopWatch();
+		for (int round = 0; round < 2; ++round) { // the first round is warm-up
+			sw.start();
+			for (int i = 0; i < frames; ++i) {
+				for (int j = 0; j < 2; ++j) {
+					double d = i % 20 < 10 ? 2 : -2;
+					hub.setLeft(hub.getLeft() + d);
+					hub.setTop(hub.getTop() + d);
+				}
+				vpwy.getDrawList(area);
+			}
+		}
+		measure.add("Speed::drag hub with " + lines + " interactions", "" + (float) sw.stop() / frames, "msec/frame");
+		vpwy.dispose();
+	}
+
+	/**
+	 * Measures aligning many selected data nodes, alternating between left and
+	 * right alignment.
+	 */
+	public void testAlignNodes() {
+		PreferenceManager.init();
+		final int nodes = 1000;
+		PathwayModel pwy = createGridPathway(nodes);
+		JScrollPane sp = new JScrollPane();
+		VPathwayModelSwing wrapper = new VPathwayModelSwing(sp);
+		VPathwayModel vpwy = wrapper.createVPathwayModel();
+		vpwy.activateUndoManager(new Engine());
+		vpwy.fromModel(pwy);
+		vpwy.selectObjectsByObjectType(DataNode.class);
+		final int rounds = 10;
+		StopWatch sw = new StopWatch();
+		for (int round = 0; round < 2; ++round) { // the first round is warm-up
+			sw.start();
+			for (int i = 0; i < rounds; ++i) {
+				vpwy.layoutSelected(i % 2 == 0 ? LayoutType.ALIGN_LEFT : LayoutType.ALIGN_RIGHT);
+			}
+		}
+		measure.add("Speed::align " + nodes + " data nodes", "" + (float) sw.stop() / rounds, "msec");
+		vpwy.dispose();
+	}
+
+	/**
+	 * Measures pasting many data nodes and lines at once.
+	 */
+	public void testPasteNodes() {
+		PreferenceManager.init();
+		final int nodes = 1000;
+		PathwayModel pwy = createGridPathway(nodes);
+		List<CopyElement> copies = new ArrayList<CopyElement>();
+		for (PathwayElement elt : pwy.getPathwayElements()) {
+			if (elt instanceof DataNode || elt instanceof Interaction) {
+				copies.add(elt.copy());
+			}
+		}
+		StopWatch sw = new StopWatch();
+		long total = 0;
+		for (int round = 0; round < 2; ++round) { // the first round is warm-up
+			JScrollPane sp = new JScrollPane();
+			VPathwayModelSwing wrapper = new VPathwayModelSwing(sp);
+			VPathwayModel vpwy = wrapper.createVPathwayModel();
+			vpwy.activateUndoManager(new Engine());
+			vpwy.fromModel(pwy.clone());
+			sw.start();
+			vpwy.paste(copies, 100, 100);
+			total = sw.stop();
+			vpwy.dispose();
+		}
+		measure.add("Speed::paste " + copies.size() + " elements", "" + total, "msec");
+	}
+
+	/**
+	 * Measures editing a single data node of a large pathway and undoing it, the
+	 * memory used by a full undo history of such edits, and the values the undo
+	 * recorder keeps for the pathway.
+	 */
+	public void testUndoEdit() {
+		PreferenceManager.init();
+		final int n = 10000;
+		final int rounds = 25;
+		PathwayModel pwy = createGridPathway(n);
+		VPathwayModel vpwy = new VPathwayModel(null);
+		vpwy.fromModel(pwy);
+		UndoManager um = vpwy.getUndoManager();
+		List<DataNode> nodes = pwy.getDataNodes();
+
+		// the recorder reads all values once, when it attaches
+		MemWatch mw = new MemWatch();
+		StopWatch sw = new StopWatch();
+		mw.start();
+		sw.start();
+		vpwy.activateUndoManager(new Engine());
+		measure.add("Speed::attach the undo recorder to " + n + " data nodes", "" + sw.stop(), "msec");
+		measure.add("Memory::undo values kept for " + n + " data nodes", "" + mw.stop() / 1024, "kb");
+
+		for (int round = 0; round < 2; ++round) { // the first round is warm-up
+			sw.start();
+			for (int i = 0; i < rounds; ++i) {
+				um.newAction("Edit");
+				nodes.get(i).setTextLabel("Edit " + i);
+				vpwy.undo();
+			}
+		}
+		measure.add("Speed::edit and undo in " + n + " data nodes", "" + (float) sw.stop() / rounds, "msec");
+
+		// a press that does not drag starts and drops an action
+		sw.start();
+		for (int i = 0; i < rounds; ++i) {
+			um.dropAction(um.startAction("Drag Object"));
+		}
+		measure.add("Speed::start and drop an action in " + n + " data nodes", "" + (float) sw.stop() / rounds,
+				"msec");
+
+		mw.start();
+		for (int i = 0; i < rounds; ++i) {
+			um.newAction("Edit");
+			nodes.get(i).setTextLabel("Edit " + i);
+		}
+		measure.add("Memory::undo history of " + rounds + " edits in " + n + " data nodes", "" + mw.stop() / 1024,
+				"kb");
+
+		measure.add("Memory::reported undo history size", "" + um.getHistorySize() / 1024, "kb");
+		vpwy.dispose();
+	}
+
+	/**
+	 * Measures removing many elements from a large pathway, from the view only
+	 * and from the model. Removing from the model is dominated by the model
+	 * itself, which looks up each removed element in a list.
+	 */
+	public void testDeleteNodes() {
+		PreferenceManager.init();
+		final int n = 10000;
+		final int removed = 1000;
+		PathwayModel pwy = createGridPathway(n);
+		Rectangle viewport = new Rectangle(0, 0, 2000, 1500);
+		long viewTotal = 0;
+		long modelTotal = 0;
+		for (int round = 0; round < 2; ++round) { // the first round is warm-up
+			VPathwayModel vpwy = new VPathwayModel(null);
+			vpwy.fromModel(pwy.clone());
+			vpwy.getDrawList(viewport); // index the elements before measuring
+			List<DataNode> nodes = vpwy.getPathwayModel().getDataNodes();
+			List<VElement> toRemove = new ArrayList<VElement>();
+			for (int i = 0; i < removed; ++i) {
+				toRemove.add(vpwy.getPathwayElementView(nodes.get(i * 2)));
+			}
+			StopWatch sw = new StopWatch();
+			sw.start();
+			vpwy.removeDrawingObjects(toRemove, false);
+			vpwy.getDrawList(viewport);
+			viewTotal = sw.stop();
+
+			List<DataNode> remaining = new ArrayList<DataNode>(vpwy.getPathwayModel().getDataNodes());
+			sw.start();
+			for (int i = 0; i < removed; ++i) {
+				vpwy.getPathwayModel().remove(remaining.get(i * 2));
+			}
+			vpwy.getDrawList(viewport);
+			modelTotal = sw.stop();
+			vpwy.dispose();
+		}
+		measure.add("Speed::remove " + removed + " of " + n + " data node views", "" + viewTotal, "msec");
+		measure.add("Speed::remove " + removed + " of " + n + " data nodes from the model", "" + modelTotal, "msec");
+	}
+
+	/**
+	 * Measures hit-testing and selecting on a pathway with many small groups.
+	 */
+	public void testGroups() {
+		PreferenceManager.init();
+		final int n = 2000;
+		final int queries = 2000;
+		PathwayModel pwy = createGridPathway(n);
+		List<Group> groups = new ArrayList<Group>();
+		Group group = null;
+		for (DataNode dn : pwy.getDataNodes()) {
+			if (group == null || group.getPathwayElements().size() == 4) {
+				group = new Group(GroupType.GROUP);
+				pwy.add(group);
+				groups.add(group);
+			}
+			group.addPathwayElement(dn);
+		}
+		for (Group g : groups) {
+			g.updateDimensions();
+		}
+		VPathwayModel vpwy = new VPathwayModel(null);
+		vpwy.fromModel(pwy);
+		int w = vpwy.getVWidth();
+		int h = vpwy.getVHeight();
+		Random random = new Random(n);
+		StopWatch sw = new StopWatch();
+		for (int round = 0; round < 2; ++round) { // the first round is warm-up
+			sw.start();
+			for (int i = 0; i < queries; ++i) {
+				vpwy.getObjectAt(new Point(random.nextInt(w), random.nextInt(h)));
+			}
+		}
+		measure.add("Speed::getObjectAt with " + groups.size() + " groups", "" + (float) sw.stop() / queries, "msec");
+		for (int round = 0; round < 2; ++round) {
+			sw.start();
+			for (Group g : groups) {
+				VPathwayObject vg = vpwy.getPathwayElementView(g);
+				vg.select();
+				vg.deselect();
+			}
+		}
+		measure.add("Speed::select and deselect " + groups.size() + " groups", "" + sw.stop(), "msec");
+		vpwy.dispose();
+	}
+
+	/**
+	 * Measures dragging a selection rectangle over a large pathway, with a
+	 * selection listener attached.
+	 */
+	public void testRubberBand() {
+		PreferenceManager.init();
+		final int n = 20000;
+		final int moves = 1000;
+		PathwayModel pwy = createGridPathway(n);
+		StopWatch sw = new StopWatch();
+		long total = 0;
+		for (int round = 0; round < 2; ++round) { // the first round is warm-up
+			VPathwayModel vpwy = new VPathwayModel(null);
+			vpwy.fromModel(pwy);
+			// start in an empty spot between the nodes, away from the info box
+			// like the property table, go over the whole selection on each event
+			final int[] seen = new int[1];
+			vpwy.addSelectionListener(new SelectionListener() {
+				public void selectionEvent(SelectionEvent e) {
+					for (VElement o : e.selection) {
+						seen[0] += o.isSelected() ? 1 : 0;
+					}
+				}
+			});
+			int x0 = (int) vpwy.vFromM(400);
+			int y0 = (int) vpwy.vFromM(250);
+			int w = vpwy.getVWidth() / 3;
+			int h = vpwy.getVHeight() / 3;
+			vpwy.mouseDown(new MouseEvent(vpwy, MouseEvent.MOUSE_DOWN, MouseEvent.BUTTON1, x0, y0, 1, 0, false) {
+			});
+			sw.start();
+			for (int i = 1; i <= moves; ++i) {
+				// grow the rectangle, then shrink it again
+				int step = i <= moves / 2 ? i : moves - i;
+				int x = x0 + 1 + w * step / (moves / 2);
+				int y = y0 + 1 + h * step / (moves / 2);
+				vpwy.mouseMove(new MouseEvent(vpwy, MouseEvent.MOUSE_MOVE, MouseEvent.BUTTON1, x, y, 0, 0, false) {
+				});
+			}
+			total = sw.stop();
+			vpwy.dispose();
+		}
+		measure.add("Speed::rubber band selection over " + n + " data nodes", "" + (float) total / moves, "msec/move");
+	}
+
+	/**
+	 * Measures painting a large pathway zoomed out to fit the screen, with and
+	 * without level of detail rendering.
+	 */
+	public void testLevelOfDetail() {
+		PreferenceManager.init();
+		PathwayModel pwy = createGridPathway(10000);
+		VPathwayModel vpwy = new VPathwayModel(null);
+		vpwy.fromModel(pwy);
+		vpwy.setPctZoom(100 * 1000.0 / vpwy.getVWidth());
+		BufferedImage image = new BufferedImage(vpwy.getVWidth(), vpwy.getVHeight(), BufferedImage.TYPE_INT_RGB);
+		for (boolean lod : new boolean[] { false, true }) {
+			// null restores the default
+			PreferenceManager.getCurrent().set(GlobalPreference.LOD_SHAPE_SIZE, lod ? null : "0");
+			PreferenceManager.getCurrent().set(GlobalPreference.LOD_TEXT_SIZE, lod ? null : "0");
+			PreferenceManager.getCurrent().set(GlobalPreference.LOD_DECORATION_SIZE, lod ? null : "0");
+			// warm-up
+			Graphics2D g2 = image.createGraphics();
+			vpwy.draw(g2);
+			g2.dispose();
+			StopWatch sw = new StopWatch();
+			sw.start();
+			for (int i = 0; i < 5; ++i) {
+				g2 = image.createGraphics();
+				vpwy.draw(g2);
+				g2.dispose();
+			}
+			measure.add("Speed::paint 10000 elements at fit-to-window " + (lod ? "with" : "without")
+					+ " level of detail", "" + (float) sw.stop() / 5, "msec");
+		}
+		vpwy.dispose();
+	}
+
+	/**
+	 * Measures the bytes allocated while painting a frame, with some elements
+	 * highlighted.
+	 */
+	public void testPaintAllocation() {
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			return; // allocation counters not available on this JVM
+		}
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		PreferenceManager.init();
+		PathwayModel pwy = createGridPathway(10000);
+		VPathwayModel vpwy = new VPathwayModel(null);
+		vpwy.fromModel(pwy);
+		int n = 0;
+		for (VElement e : vpwy.getDrawingObjects()) {
+			if (e instanceof VPathwayObject && n++ % 3 == 0) {
+				((VPathwayObject) e).highlight();
+			}
+		}
+		BufferedImage image = new BufferedImage(2000, 1500, BufferedImage.TYPE_INT_RGB);
+		// warm-up
+		for (int i = 0; i < 3; ++i) {
+			Graphics2D g2 = image.createGraphics();
+			g2.setClip(0, 0, image.getWidth(), image.getHeight());
+			vpwy.draw(g2);
+			g2.dispose();
+		}
+		final int frames = 10;
+		long start = bean.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < frames; ++i) {
+			Graphics2D g2 = image.createGraphics();
+			g2.setClip(0, 0, image.getWidth(), image.getHeight());
+			vpwy.draw(g2);
+			g2.dispose();
+		}
+		long bytes = (bean.getThreadAllocatedBytes(thread) - start) / frames;
+		measure.add("Memory::allocated per painted frame of 2000x1500 pixels", "" + bytes / 1024, "kb");
+		vpwy.dispose();
+	}
+
+	/**
+	 * Measures creating the view of synthetic pathways of increasing size, until
+	 * the first frame can be drawn.
+	 */
+	public void testBulkLoading() {
+		PreferenceManager.init();
+		PreferenceManager.getCurrent().setInt(GlobalPreference.VIRTUAL_THRESHOLD, 0); // see testVirtualLoading
+		for (int n : new int[] { 1000, 10000, 50000 }) {
+			PathwayModel pwy = createGridPathway(n);
+			Rectangle viewport = new Rectangle(0, 0, 2000, 1500);
+			long total = 0;
+			for (int round = 0; round < 3; ++round) { // the first round is warm-up
+				StopWatch sw = new StopWatch();
+				sw.start();
+				VPathwayModel vpwy = new VPathwayModel(null);
+				vpwy.fromModel(pwy);
+				vpwy.getDrawList(viewport);
+				long time = sw.stop();
+				if (round > 0) {
+					total += time;
+				}
+				vpwy.dispose();
+			}
+			measure.add("Speed::create view of " + n + " data nodes", "" + (float) total / 2, "msec");
+		}
+		PreferenceManager.getCurrent().set(GlobalPreference.VIRTUAL_THRESHOLD, null);
+	}
+
+	public void testVirtualLoading() {
+		PreferenceManager.init();
+		PreferenceManager prefs = PreferenceManager.getCurrent();
+		int n = 50000;
+		PathwayModel pwy = createGridPathway(n);
+		Rectangle viewport = new Rectangle(0, 0, 2000, 1500);
+		try {
+			for (int threshold : new int[] { 0, 20000 }) {
+				prefs.setInt(GlobalPreference.VIRTUAL_THRESHOLD, threshold);
+				String mode = threshold == 0 ? "all views" : "views on demand";
+				long total = 0;
+				for (int round = 0; round < 3; ++round) { // the first round is warm-up
+					StopWatch sw = new StopWatch();
+					sw.start();
+					VPathwayModel vpwy = new VPathwayModel(null);
+					vpwy.fromModel(pwy);
+					vpwy.getDrawList(viewport);
+					long time = sw.stop();
+					if (round > 0) {
+						total += time;
+					}
+					vpwy.dispose();
+				}
+				measure.add("Speed::open " + n + " data nodes, " + mode, "" + (float) total / 2, "msec");
+
+				MemWatch mw = new MemWatch();
+				mw.start();
+				VPathwayModel vpwy = new VPathwayModel(null);
+				vpwy.fromModel(pwy);
+				vpwy.getDrawList(viewport);
+				measure.add("Memory::open " + n + " data nodes, " + mode, "" + mw.stop() / 1024, "kb");
+				vpwy.dispose();
+			}
+		} finally {
+			prefs.set(GlobalPreference.VIRTUAL_THRESHOLD, null);
+		}
+	}
+
 	public void testPathwayLoading() throws ConverterException {
 		PreferenceManager.init();
 
@@ -140,6 +140,14 @@ public void run() {
 
 	public void selectionEvent(SelectionEvent e) {
 		switch (e.type) {
+		case SelectionEvent.OBJECTS_CHANGED:
+			if (e.selection.size() == 0) {
+				setInput(null);
+				break;
+			} else if (e.added.isEmpty()) {
+				break;
+			}
+			// objects were added, continue as for a single one
 		case SelectionEvent.OBJECT_ADDED:
 			// Just take the first DataNode in the selection
 			Iterator<VElement> it = e.selection.iterator();
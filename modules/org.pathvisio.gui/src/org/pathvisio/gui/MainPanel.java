@@ -137,6 +137,7 @@ protected void addMenuActions(JMenuBar mb) {
 
 		JMenu editMenu = new JMenu("Edit");
 		addToMenu(actions.undoAction, editMenu);
+		addToMenu(actions.redoAction, editMenu);
 		addToMenu(actions.copyAction, editMenu);
 		addToMenu(actions.pasteAction, editMenu);
 		editMenu.addSeparator();
@@ -330,6 +331,7 @@ protected void addCommonToolbarActions(final SwingEngine swingEngine, JToolBar t
 		addToToolbar(actions.pasteAction);
 		tb.addSeparator();
 		addToToolbar(actions.undoAction);
+		addToToolbar(actions.redoAction);
 		tb.addSeparator();
 
 		// zoom drop-down
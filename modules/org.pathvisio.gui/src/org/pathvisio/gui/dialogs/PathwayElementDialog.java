@@ -32,7 +32,6 @@
 import org.pathvisio.gui.panels.EvidencePanel;
 import org.pathvisio.gui.panels.PathwayElementPanel;
 import org.pathvisio.libgpml.model.PathwayElement;
-import org.pathvisio.libgpml.model.PathwayModel;
 import org.pathvisio.libgpml.prop.StaticProperty;
 
 /**
@@ -52,7 +51,7 @@ public class PathwayElementDialog extends OkCancelDialog {
 	private JTabbedPane dialogPane;
 	private Map<String, PathwayElementPanel> panels;
 	private Map<StaticProperty, Object> state = new HashMap<StaticProperty, Object>();
-	private PathwayModel originalPathway; // Used for undo event
+	private UndoAction undoAction; // records the changes for the undo event
 
 	protected boolean readonly;
 	protected SwingEngine swingEngine;
@@ -108,7 +107,8 @@ protected void refresh() {
 	 */
 	protected void storeState() {
 		PathwayElement e = getInput();
-		originalPathway = (PathwayModel) e.getPathwayModel().clone();
+		VPathwayModel p = swingEngine.getEngine().getActiveVPathwayModel();
+		undoAction = p == null ? null : p.getUndoManager().startAction("Modified element properties");
 		for (StaticProperty t : e.getStaticPropertyKeys()) {
 			state.put(t, e.getStaticProperty(t));
 		}
@@ -176,8 +176,10 @@ protected void addCustomTabs(JTabbedPane parent) {
 	 */
 	protected void okPressed() {
 		VPathwayModel p = swingEngine.getEngine().getActiveVPathwayModel();
-		p.getUndoManager().newAction(new UndoAction("Modified element properties", originalPathway));
 		if (p != null) {
+			if (undoAction != null) {
+				p.getUndoManager().newAction(undoAction);
+			}
 			p.redraw();
 		}
 		setVisible(false);
@@ -189,6 +191,10 @@ protected void okPressed() {
 	 */
 	protected void cancelPressed() {
 		restoreState();
+		VPathwayModel p = swingEngine.getEngine().getActiveVPathwayModel();
+		if (p != null) {
+			p.getUndoManager().dropAction(undoAction);
+		}
 		setVisible(false);
 	}
 }
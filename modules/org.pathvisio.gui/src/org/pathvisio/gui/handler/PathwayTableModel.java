@@ -19,6 +19,7 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -31,7 +32,11 @@
 
 import org.pathvisio.core.ApplicationEvent;
 import org.pathvisio.core.Engine.ApplicationEventListener;
+import org.pathvisio.core.view.model.VElement;
 import org.pathvisio.core.view.model.VPathwayModel;
+import org.pathvisio.core.view.model.VPathwayModelEvent;
+import org.pathvisio.core.view.model.VPathwayModelEvent.VPathwayModelEventType;
+import org.pathvisio.core.view.model.VPathwayModelListener;
 import org.pathvisio.core.view.model.VPathwayObject;
 import org.pathvisio.core.view.model.SelectionBox.SelectionEvent;
 import org.pathvisio.core.view.model.SelectionBox.SelectionListener;
@@ -53,7 +58,7 @@
  * used as row set.
  */
 public class PathwayTableModel extends AbstractTableModel
-		implements SelectionListener, PathwayObjectListener, ApplicationEventListener {
+		implements SelectionListener, PathwayObjectListener, ApplicationEventListener, VPathwayModelListener {
 
 	private JTable table;
 	final private Collection<PathwayObject> input;
@@ -69,8 +74,10 @@ public PathwayTableModel(SwingEngine swingEngine) {
 		this.swingEngine = swingEngine;
 		swingEngine.getEngine().addApplicationEventListener(this);
 		VPathwayModel vp = swingEngine.getEngine().getActiveVPathwayModel();
-		if (vp != null)
+		if (vp != null) {
 			vp.addSelectionListener(this);
+			vp.addVPathwayListener(this, EnumSet.of(VPathwayModelEventType.UPDATE_FINISHED));
+		}
 	}
 
 	public void setTable(JTable table) {
@@ -86,7 +93,7 @@ private void reset() {
 		propertyValues.clear();
 		shownProperties.clear();
 		input.clear();
-		refresh(true);
+		scheduleRefresh(true);
 	}
 
 	private void removeInput(PathwayElement pwElm) {
@@ -96,7 +103,31 @@ private void removeInput(PathwayElement pwElm) {
 		if (input.size() > 0) {
 			updatePropertyCounts(pwElm, true);
 			pwElm.removeListener(this);
-			refresh(true);
+			scheduleRefresh(true);
+		} else {
+			reset();
+		}
+	}
+
+	/**
+	 * Removes and adds several elements, with a single refresh.
+	 */
+	private void changeInput(List<PathwayElement> removed, List<PathwayElement> added) {
+		stopEditing();
+		for (PathwayElement pwElm : removed) {
+			if (input.remove(pwElm)) {
+				updatePropertyCounts(pwElm, true);
+				pwElm.removeListener(this);
+			}
+		}
+		for (PathwayElement pwElm : added) {
+			if (input.add(pwElm)) {
+				updatePropertyCounts(pwElm, false);
+				pwElm.addListener(this);
+			}
+		}
+		if (input.size() > 0) {
+			scheduleRefresh(true);
 		} else {
 			reset();
 		}
@@ -114,7 +145,7 @@ private void addInput(PathwayElement pwElm) {
 		input.add(pwElm);
 		updatePropertyCounts(pwElm, false);
 		pwElm.addListener(this);
-		refresh(true);
+		scheduleRefresh(true);
 	}
 
 	protected void refresh() {
@@ -129,6 +160,23 @@ public void refresh(boolean propertyCount) {
 		fireTableDataChanged();
 	}
 
+	private boolean refreshPending = false;
+	private boolean propertyCountPending = false;
+
+	/**
+	 * Refreshes the table, or, while the active pathway is being updated, once at
+	 * the end of the update (see {@link VPathwayModel#beginUpdate()}).
+	 */
+	private void scheduleRefresh(boolean propertyCount) {
+		VPathwayModel vp = swingEngine.getEngine().getActiveVPathwayModel();
+		if (vp != null && vp.isUpdating()) {
+			refreshPending = true;
+			propertyCountPending |= propertyCount;
+		} else {
+			refresh(propertyCount);
+		}
+	}
+
 	/**
 	 * Add/remove properties to/from the table model.
 	 *
@@ -236,9 +284,22 @@ public void selectionEvent(SelectionEvent e) {
 			// System.err.println("CLEARED");
 			reset();
 			break;
+		case SelectionEvent.OBJECTS_CHANGED:
+			changeInput(getPathwayElements(e.removed), getPathwayElements(e.added));
+			break;
 		}
 	}
 
+	private static List<PathwayElement> getPathwayElements(Collection<VElement> objects) {
+		List<PathwayElement> result = new ArrayList<PathwayElement>();
+		for (VElement o : objects) {
+			if (o instanceof VPathwayElement) {
+				result.add(((VPathwayElement) o).getPathwayObject());
+			}
+		}
+		return result;
+	}
+
 	public TableCellRenderer getCellRenderer(int row, int column) {
 		PropertyView propHandler = getPropertyAt(row);
 		if (propHandler != null) {
@@ -261,16 +322,28 @@ public TableCellEditor getCellEditor(int row, int column) {
 	}
 
 	public void gmmlObjectModified(PathwayObjectEvent e) {
-		refresh();
+		scheduleRefresh(false);
+	}
+
+	public void vPathwayModelEvent(VPathwayModelEvent e) {
+		if (e.getType() == VPathwayModelEventType.UPDATE_FINISHED && refreshPending) {
+			refreshPending = false;
+			boolean propertyCount = propertyCountPending;
+			propertyCountPending = false;
+			refresh(propertyCount);
+		}
 	}
 
 	public void applicationEvent(ApplicationEvent e) {
 		switch (e.getType()) {
 		case VPATHWAY_CREATED:
 			((VPathwayModel) e.getSource()).addSelectionListener(this);
+			((VPathwayModel) e.getSource()).addVPathwayListener(this,
+					EnumSet.of(VPathwayModelEventType.UPDATE_FINISHED));
 			break;
 		case VPATHWAY_DISPOSED:
 			((VPathwayModel) e.getSource()).removeSelectionListener(this);
+			((VPathwayModel) e.getSource()).removeVPathwayListener(this);
 			reset(); // clear selected set
 			break;
 		}
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2022 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.gui.view;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+import org.pathvisio.core.view.model.DrawingSnapshot;
+import org.pathvisio.core.view.model.VPathwayModel;
+import org.pathvisio.libgpml.debug.Logger;
+
+/**
+ * Renders frames of a {@link VPathwayModel} on a worker thread, so that the
+ * event dispatch thread stays responsive while large pathways are drawn.
+ * <p>
+ * A frame covers the visible part of the pathway. The elements are drawn into
+ * a {@link DrawingSnapshot} on the event dispatch thread, the worker only
+ * rasterizes that snapshot and never touches the elements themselves.
+ * Until a new frame is finished, the last finished frame at the current zoom
+ * factor is shown (uncovered parts are left blank). A frame that
+ * is still being rendered when a new area is invalidated is cancelled, because
+ * its result would be out of date. When the zoom factor and visible area did
+ * not change, a new frame starts from a copy of the last one and only the
+ * invalidated area is drawn again.
+ * <p>
+ * All methods must be called on the event dispatch thread.
+ */
+class BackgroundRenderer {
+	private final JComponent component;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Pathway renderer");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/** last finished frame, may be null */
+	private BufferedImage frame;
+	private Rectangle frameArea;
+	private double frameZoom;
+
+	/** area that changed since the last finished frame, in view coordinates */
+	private Rectangle dirty;
+
+	/** frame that is being rendered, null if none or if it has been cancelled */
+	private Future<?> job;
+	private Object jobToken;
+	private Rectangle jobArea;
+
+	/**
+	 * @param component the component to repaint when a frame is finished.
+	 */
+	BackgroundRenderer(JComponent component) {
+		this.component = component;
+	}
+
+	/**
+	 * Paints the last finished frame, and starts rendering a new frame if that is
+	 * out of date.
+	 *
+	 * @param g       the graphics to draw on.
+	 * @param visible the visible area, in view coordinates.
+	 * @param child   the pathway to draw.
+	 * @param config  used to create images that are fast to draw on the screen,
+	 *                may be null.
+	 */
+	void paint(Graphics2D g, Rectangle visible, VPathwayModel child, GraphicsConfiguration config) {
+		if (visible.isEmpty()) {
+			return;
+		}
+		double zoom = child.getZoomFactor();
+		// parts that are not covered by the last frame are left empty until the
+		// new frame is finished
+		g.setColor(child.getPathwayModel().getPathway().getBackgroundColor());
+		g.fillRect(visible.x, visible.y, visible.width, visible.height);
+		if (frame != null && frameZoom == zoom) {
+			g.drawImage(frame, frameArea.x, frameArea.y, null);
+		}
+		boolean current = frame != null && dirty == null && frameZoom == zoom && frameArea.equals(visible);
+		if (!current && (job == null || !jobArea.equals(visible))) {
+			render(visible, child, config);
+		}
+	}
+
+	private void render(final Rectangle area, VPathwayModel child, GraphicsConfiguration config) {
+		cancel();
+		final double zoom = child.getZoomFactor();
+		final BufferedImage image = config == null
+				? new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB)
+				: config.createCompatibleImage(area.width, area.height, Transparency.OPAQUE);
+		final Rectangle drawArea;
+		Graphics2D g = image.createGraphics();
+		g.translate(-area.x, -area.y);
+		if (frame != null && frameZoom == zoom && dirty != null) {
+			// start from the last frame, and only draw what has changed
+			g.drawImage(frame, frameArea.x, frameArea.y, null);
+			drawArea = frameArea.contains(area) ? area.intersection(dirty) : area;
+		} else {
+			drawArea = area;
+		}
+		g.dispose();
+
+		// draw the elements here, the worker must not touch the view or the model
+		final DrawingSnapshot snapshot = child.getDrawingSnapshot(drawArea);
+		final Object token = new Object();
+		jobToken = token;
+		jobArea = area;
+		job = executor.submit(new Runnable() {
+			public void run() {
+				Graphics2D g = image.createGraphics();
+				g.translate(-area.x, -area.y);
+				try {
+					snapshot.draw(g);
+				} catch (RuntimeException ex) {
+					Logger.log.error("Error while rendering pathway", ex);
+					return;
+				} finally {
+					g.dispose();
+				}
+				if (Thread.currentThread().isInterrupted()) {
+					return;
+				}
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						finished(token, image, area, zoom);
+					}
+				});
+			}
+		});
+	}
+
+	private void finished(Object token, BufferedImage image, Rectangle area, double zoom) {
+		if (token != jobToken) {
+			return; // cancelled after it was finished
+		}
+		job = null;
+		jobToken = null;
+		frame = image;
+		frameArea = area;
+		frameZoom = zoom;
+		dirty = null;
+		component.repaint();
+	}
+
+	/**
+	 * Marks an area as changed, and cancels the frame that is being rendered.
+	 *
+	 * @param r the changed area, in view coordinates.
+	 */
+	void invalidate(Rectangle r) {
+		// grow by a pixel, to include anti-aliasing at the edges
+		Rectangle grown = new Rectangle(r.x - 1, r.y - 1, r.width + 2, r.height + 2);
+		dirty = dirty == null ? grown : dirty.union(grown);
+		cancel();
+	}
+
+	/**
+	 * Drops the last frame, so that the next paint renders everything again.
+	 */
+	void clear() {
+		frame = null;
+		frameArea = null;
+		dirty = null;
+		cancel();
+	}
+
+	private void cancel() {
+		if (job != null) {
+			job.cancel(true);
+			job = null;
+			jobToken = null;
+		}
+	}
+
+	/**
+	 * Stops the worker thread.
+	 */
+	void dispose() {
+		clear();
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2022 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.gui.view;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.pathvisio.core.view.model.VPathwayModel;
+
+/**
+ * Cache of rendered tiles of a {@link VPathwayModel}, so that repaints of
+ * unchanged areas (e.g. when scrolling) only need to copy images.
+ * <p>
+ * Tiles are keyed by zoom factor and tile position. When an area is
+ * invalidated, tiles at the current zoom factor are not thrown away, but only
+ * the invalid part is drawn again on the next paint. Tiles at other zoom
+ * factors that overlap the area are dropped. The least recently used tiles are
+ * evicted when the cache grows over its memory budget.
+ */
+class TileCache {
+	static final int TILE_SIZE = 256;
+
+	private static final int BYTES_PER_PIXEL = 4;
+
+	private static class TileKey {
+		final double zoom;
+		final int x;
+		final int y;
+
+		TileKey(double zoom, int x, int y) {
+			this.zoom = zoom;
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public int hashCode() {
+			return (Double.hashCode(zoom) * 31 + x) * 31 + y;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof TileKey))
+				return false;
+			TileKey k = (TileKey) o;
+			return k.zoom == zoom && k.x == x && k.y == y;
+		}
+	}
+
+	private static class Tile {
+		final BufferedImage image;
+		Rectangle dirty; // part of the tile that must be drawn again, in view coordinates
+
+		Tile(BufferedImage image, Rectangle dirty) {
+			this.image = image;
+			this.dirty = dirty;
+		}
+	}
+
+	private final long budget;
+	private long used = 0;
+
+	/** tiles in order of access, least recently used first */
+	private final LinkedHashMap<TileKey, Tile> tiles = new LinkedHashMap<TileKey, Tile>(64, 0.75f, true);
+
+	/**
+	 * @param budget the maximum number of bytes to use for tile images.
+	 */
+	TileCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Paints the given area of the pathway, using cached tiles where possible.
+	 *
+	 * @param g      the graphics to draw on.
+	 * @param area   the area to draw, in view coordinates.
+	 * @param child  the pathway to draw.
+	 * @param config used to create images that are fast to draw on the screen, may
+	 *               be null.
+	 */
+	void paint(Graphics2D g, Rectangle area, VPathwayModel child, GraphicsConfiguration config) {
+		double zoom = child.getZoomFactor();
+		int tx0 = Math.floorDiv(area.x, TILE_SIZE);
+		int ty0 = Math.floorDiv(area.y, TILE_SIZE);
+		int tx1 = Math.floorDiv(area.x + area.width - 1, TILE_SIZE);
+		int ty1 = Math.floorDiv(area.y + area.height - 1, TILE_SIZE);
+		for (int ty = ty0; ty <= ty1; ty++) {
+			for (int tx = tx0; tx <= tx1; tx++) {
+				Tile tile = getTile(new TileKey(zoom, tx, ty), config);
+				if (tile.dirty != null) {
+					Graphics2D tg = tile.image.createGraphics();
+					tg.translate(-tx * TILE_SIZE, -ty * TILE_SIZE);
+					tg.clip(tile.dirty);
+					child.draw(tg);
+					tg.dispose();
+					tile.dirty = null;
+				}
+				g.drawImage(tile.image, tx * TILE_SIZE, ty * TILE_SIZE, null);
+			}
+		}
+		evict();
+	}
+
+	private Tile getTile(TileKey key, GraphicsConfiguration config) {
+		Tile tile = tiles.get(key);
+		if (tile == null) {
+			BufferedImage image = config == null
+					? new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB)
+					: config.createCompatibleImage(TILE_SIZE, TILE_SIZE, Transparency.OPAQUE);
+			tile = new Tile(image, new Rectangle(key.x * TILE_SIZE, key.y * TILE_SIZE, TILE_SIZE, TILE_SIZE));
+			tiles.put(key, tile);
+			used += (long) TILE_SIZE * TILE_SIZE * BYTES_PER_PIXEL;
+		}
+		return tile;
+	}
+
+	/**
+	 * Removes least recently used tiles until the cache is within its budget.
+	 */
+	private void evict() {
+		for (Iterator<Tile> i = tiles.values().iterator(); used > budget && i.hasNext();) {
+			i.next();
+			i.remove();
+			used -= (long) TILE_SIZE * TILE_SIZE * BYTES_PER_PIXEL;
+		}
+	}
+
+	/**
+	 * Marks an area as changed.
+	 *
+	 * @param r    the changed area, in view coordinates.
+	 * @param zoom the current zoom factor, i.e. the zoom factor of r.
+	 */
+	void invalidate(Rectangle r, double zoom) {
+		// grow by a pixel, to include anti-aliasing at the edges
+		Rectangle dirty = new Rectangle(r.x - 1, r.y - 1, r.width + 2, r.height + 2);
+		for (Iterator<Map.Entry<TileKey, Tile>> i = tiles.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<TileKey, Tile> e = i.next();
+			TileKey key = e.getKey();
+			if (key.zoom == zoom) {
+				Rectangle bounds = new Rectangle(key.x * TILE_SIZE, key.y * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+				Rectangle part = bounds.intersection(dirty);
+				if (!part.isEmpty()) {
+					Tile tile = e.getValue();
+					tile.dirty = tile.dirty == null ? part : tile.dirty.union(part);
+				}
+			} else {
+				// compare in model coordinates
+				double f = zoom / key.zoom;
+				if (dirty.intersects(key.x * TILE_SIZE * f, key.y * TILE_SIZE * f, TILE_SIZE * f, TILE_SIZE * f)) {
+					i.remove();
+					used -= (long) TILE_SIZE * TILE_SIZE * BYTES_PER_PIXEL;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all tiles.
+	 */
+	void clear() {
+		tiles.clear();
+		used = 0;
+	}
+
+	/**
+	 * @return the number of bytes currently used by tile images.
+	 */
+	long getUsedBytes() {
+		return used;
+	}
+}
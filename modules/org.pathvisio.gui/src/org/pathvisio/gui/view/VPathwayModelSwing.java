@@ -29,8 +29,11 @@
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseAdapter;
@@ -39,6 +42,7 @@
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.awt.image.BufferedImage;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -50,6 +54,7 @@
 import javax.swing.JWindow;
 import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.TransferHandler;
 import javax.swing.UIManager;
 
@@ -61,6 +66,7 @@
 import org.pathvisio.core.preferences.PreferenceManager;
 import org.pathvisio.core.view.VElementMouseEvent;
 import org.pathvisio.core.view.VElementMouseListener;
+import org.pathvisio.core.view.model.DirtyRegion;
 import org.pathvisio.core.view.model.Handle;
 import org.pathvisio.core.view.model.VElement;
 import org.pathvisio.core.view.model.VLabel;
@@ -85,6 +91,29 @@ public class VPathwayModelSwing extends JPanel implements VPathwayModelWrapper,
 
 	protected JScrollPane container;
 
+	private TileCache tileCache; // may be null, if tile caching is disabled
+
+	private BackgroundRenderer renderer; // may be null, if background rendering is disabled
+
+	/** time between two repaints of the dirty region, in ms (about 60 frames per second) */
+	static final int FRAME_INTERVAL = 16;
+
+	private final DirtyRegion dirtyRegion = new DirtyRegion();
+	private double dirtyZoom; // zoom factor of the rectangles in dirtyRegion
+	private final Timer frameTimer;
+
+	/** time without wheel events after which a wheel zoom gesture ends, in ms */
+	static final int ZOOM_GESTURE_DELAY = 150;
+
+	private Timer zoomTimer; // may be null, if the zoom preview is disabled
+
+	// state of the current wheel zoom gesture, zoomPreview is null if there is none
+	private BufferedImage zoomPreview;
+	private Rectangle zoomPreviewArea;
+	private Point zoomCursor;
+	private double zoomStartPct;
+	private double zoomTargetPct;
+
 	public VPathwayModelSwing(JScrollPane parent) {
 		super();
 		if (parent == null) {
@@ -101,6 +130,31 @@ public VPathwayModelSwing(JScrollPane parent) {
 		setTransferHandler(new PathwayImportHandler());
 
 		setDoubleBuffered(PreferenceManager.getCurrent().getBoolean(GlobalPreference.ENABLE_DOUBLE_BUFFERING));
+
+		int tileCacheSize = PreferenceManager.getCurrent().getInt(GlobalPreference.TILE_CACHE_SIZE);
+		if (PreferenceManager.getCurrent().getBoolean(GlobalPreference.BACKGROUND_RENDERING)) {
+			renderer = new BackgroundRenderer(this);
+		} else if (tileCacheSize > 0) {
+			tileCache = new TileCache(tileCacheSize * 1024L * 1024L);
+		}
+		frameTimer = new Timer(FRAME_INTERVAL, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if (child != null) {
+					// may mark more areas dirty
+					child.updateConnectors();
+				}
+				flushDirtyRegion();
+			}
+		});
+		frameTimer.setRepeats(false);
+		if (PreferenceManager.getCurrent().getBoolean(GlobalPreference.ZOOM_PREVIEW)) {
+			zoomTimer = new Timer(ZOOM_GESTURE_DELAY, new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					endZoomGesture();
+				}
+			});
+			zoomTimer.setRepeats(false);
+		}
 	}
 
 	public void setChild(VPathwayModel c) {
@@ -124,6 +178,13 @@ public Dimension getViewportSize() {
 	 * Schedule redraw of the entire visible area
 	 */
 	public void redraw() {
+		dirtyRegion.clear();
+		if (tileCache != null) {
+			tileCache.clear();
+		}
+		if (renderer != null) {
+			renderer.clear();
+		}
 		repaint();
 	}
 
@@ -132,15 +193,73 @@ public void redraw() {
 	 */
 	protected void paintComponent(Graphics g) {
 		if (child != null) {
-			child.draw((Graphics2D) g);
+			// don't paint outdated tiles or frames if the timer didn't fire yet
+			child.updateConnectors();
+			flushDirtyRegion();
+			Graphics2D g2d = (Graphics2D) g;
+			if (zoomPreview != null) {
+				paintZoomPreview(g2d);
+				return;
+			}
+			// tiles and frames are rendered at one pixel per view unit, so don't use
+			// them on scaled (e.g. HiDPI or print) graphics
+			boolean unscaled = g2d.getTransform().getScaleX() == 1 && g2d.getTransform().getScaleY() == 1;
+			if (renderer != null && unscaled) {
+				renderer.paint(g2d, getVisibleRect(), child, getGraphicsConfiguration());
+			} else if (tileCache != null && unscaled) {
+				Rectangle area = g2d.getClipBounds();
+				if (area == null) {
+					area = getVisibleRect();
+				}
+				tileCache.paint(g2d, area, child, getGraphicsConfiguration());
+			} else {
+				child.draw(g2d);
+			}
 		}
 	}
 
 	/**
-	 * Schedule redraw of a certain part of the pathway
+	 * Schedule redraw of a certain part of the pathway. Dirty rectangles are
+	 * collected and repainted together once per frame.
 	 */
 	public void redraw(Rectangle r) {
-		repaint(r);
+		if (child == null) {
+			return;
+		}
+		if (!dirtyRegion.isEmpty() && dirtyZoom != child.getZoomFactor()) {
+			flushDirtyRegion();
+		}
+		dirtyZoom = child.getZoomFactor();
+		dirtyRegion.add(r);
+		if (!frameTimer.isRunning()) {
+			frameTimer.start();
+		}
+	}
+
+	/**
+	 * Invalidates the cached tiles or frame in the dirty region and repaints it.
+	 */
+	private void flushDirtyRegion() {
+		if (dirtyRegion.isEmpty()) {
+			return;
+		}
+		for (Rectangle r : dirtyRegion.flush()) {
+			if (tileCache != null) {
+				tileCache.invalidate(r, dirtyZoom);
+			}
+			if (renderer != null) {
+				renderer.invalidate(r);
+			}
+			repaint(r);
+		}
+	}
+
+	/**
+	 * @return the dirty region, which keeps statistics on the rectangles that
+	 *         were submitted and repainted.
+	 */
+	public DirtyRegion getDirtyRegion() {
+		return dirtyRegion;
 	}
 
 	public void mouseClicked(MouseEvent e) {
@@ -160,6 +279,8 @@ public void mouseExited(MouseEvent e) {
 	}
 
 	public void mousePressed(MouseEvent e) {
+		// the view must match the model coordinates again before handling clicks
+		endZoomGesture();
 		requestFocus();
 		child.mouseDown(new SwingMouseEvent(e));
 	}
@@ -207,18 +328,95 @@ public void mouseMoved(MouseEvent e) {
 	}
 
 	public void mouseWheelMoved(MouseWheelEvent e) {
+		if (zoomTimer != null && zoomPreview == null) {
+			startZoomGesture(e.getPoint());
+		}
+		if (zoomPreview != null) {
+			// only scale the snapshot, the pathway is drawn again when the gesture ends
+			if (e.getWheelRotation() < 0) {
+				zoomTargetPct = zoomTargetPct * 21 / 20;
+			} else {
+				zoomTargetPct = zoomTargetPct * 20 / 21;
+			}
+			repaint(zoomPreviewArea);
+			zoomTimer.restart();
+			return;
+		}
+
 		int notches = e.getWheelRotation();
 		if (notches < 0) {
 			child.zoomToCursor(child.getPctZoom() * 21 / 20, e.getPoint());
 		} else {
 			child.zoomToCursor(child.getPctZoom() * 20 / 21, e.getPoint());
 		}
+		updateZoomCombo();
+	}
 
+	private void updateZoomCombo() {
 		Component comp = container.getParent().getParent();
 		if (comp instanceof MainPanel)
 			((MainPanel) comp).updateZoomCombo();
 	}
 
+	/**
+	 * Takes a snapshot of the visible area, which is shown scaled until the wheel
+	 * zoom gesture ends. Uses the tile cache or last rendered frame if available.
+	 */
+	private void startZoomGesture(Point cursor) {
+		Rectangle area = getVisibleRect();
+		if (area.isEmpty()) {
+			return;
+		}
+		BufferedImage img = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = img.createGraphics();
+		g.setColor(child.getPathwayModel().getPathway().getBackgroundColor());
+		g.fillRect(0, 0, area.width, area.height);
+		g.translate(-area.x, -area.y);
+		g.setClip(area);
+		paintComponent(g);
+		g.dispose();
+
+		zoomPreview = img;
+		zoomPreviewArea = area;
+		zoomCursor = cursor;
+		zoomStartPct = child.getPctZoom();
+		zoomTargetPct = zoomStartPct;
+	}
+
+	/**
+	 * Draws the snapshot of the current wheel zoom gesture, scaled around the
+	 * cursor.
+	 */
+	private void paintZoomPreview(Graphics2D g2d) {
+		Rectangle area = zoomPreviewArea;
+		double scale = zoomTargetPct / zoomStartPct;
+		g2d.setColor(child.getPathwayModel().getPathway().getBackgroundColor());
+		g2d.fillRect(area.x, area.y, area.width, area.height);
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		int x = (int) Math.round(zoomCursor.x - (zoomCursor.x - area.x) * scale);
+		int y = (int) Math.round(zoomCursor.y - (zoomCursor.y - area.y) * scale);
+		g2d.drawImage(zoomPreview, x, y, (int) Math.round(area.width * scale), (int) Math.round(area.height * scale),
+				null);
+	}
+
+	/**
+	 * Applies the zoom factor of the current wheel zoom gesture, if any, and draws
+	 * the pathway again.
+	 */
+	private void endZoomGesture() {
+		if (zoomPreview == null) {
+			return;
+		}
+		zoomTimer.stop();
+		zoomPreview = null;
+		// skip if the zoom factor was changed in another way during the gesture
+		if (child != null && child.getPctZoom() == zoomStartPct) {
+			child.zoomToCursor(zoomTargetPct, zoomCursor);
+			updateZoomCombo();
+		}
+		repaint();
+	}
+
 	public void registerKeyboardAction(KeyStroke k, Action a) {
 		super.registerKeyboardAction(a, k, WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
 		// super.registerKeyboardAction(a, k, WHEN_IN_FOCUSED_WINDOW);
@@ -233,6 +431,13 @@ public void vPathwayModelEvent(VPathwayModelEvent e) {
 		switch (e.getType()) {
 		case MODEL_LOADED:
 			if (e.getSource() == child) {
+				// the whole model has been replaced
+				if (tileCache != null) {
+					tileCache.clear();
+				}
+				if (renderer != null) {
+					renderer.clear();
+				}
 				SwingUtilities.invokeLater(new Runnable() {
 					public void run() {
 						container.setViewportView(VPathwayModelSwing.this);
@@ -475,7 +680,19 @@ public void dispose() {
 		getActionMap().clear();
 		getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT).clear();
 
+		if (zoomTimer != null) {
+			zoomTimer.stop();
+			zoomPreview = null;
+		}
+		frameTimer.stop();
+		dirtyRegion.clear();
 		child = null; // free VPathway for GC
+		if (tileCache != null) {
+			tileCache.clear();
+		}
+		if (renderer != null) {
+			renderer.dispose();
+		}
 		disposed = true;
 	}
 